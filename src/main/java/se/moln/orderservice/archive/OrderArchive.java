@@ -0,0 +1,184 @@
+package se.moln.orderservice.archive;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.moln.orderservice.model.Order;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Cold orders that have been moved out of the {@code orders} table into compressed, immutable segment files.
+ * <p>
+ * Each segment holds a batch of orders sorted newest first and a sparse per-user index of the blocks that contain
+ * a user's orders. History reads merge the segments lazily, so a first page only inflates the first blocks of each
+ * segment that has orders for the user.
+ */
+@Component
+public class OrderArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderArchive.class);
+
+    private final Path directory;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    public OrderArchive(@Value("${orders.archive.dir:./data/archive}") Path directory, MeterRegistry meterRegistry) {
+        this.directory = directory;
+        load();
+        Gauge.builder("orders.archive.segments", segments, List::size)
+                .description("Archive segment files")
+                .register(meterRegistry);
+        Gauge.builder("orders.archive.orders", this, OrderArchive::orderCount)
+                .description("Orders held in archive segments")
+                .register(meterRegistry);
+    }
+
+    private void load() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.startsWith(SegmentWriter.PREFIX) && name.endsWith(SegmentWriter.SUFFIX);
+                    })
+                    .sorted()
+                    .forEach(p -> segments.add(Segment.open(p, sequenceOf(p))));
+            // Halvskrivna segment från en avbruten körning har aldrig publicerats
+            try (Stream<Path> temps = Files.list(directory)) {
+                temps.filter(p -> p.getFileName().toString().endsWith(SegmentWriter.SUFFIX + ".tmp"))
+                        .forEach(p -> p.toFile().delete());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read archive directory " + directory, e);
+        }
+        if (!segments.isEmpty()) {
+            log.info("Loaded {} archive segments with {} orders from {}", segments.size(), orderCount(), directory);
+        }
+    }
+
+    public boolean hasSegments() {
+        return !segments.isEmpty();
+    }
+
+    public long orderCount() {
+        return segments.stream().mapToLong(Segment::orderCount).sum();
+    }
+
+    /**
+     * The {@code limit} newest archived orders of a user, or of all users when {@code userId} is null.
+     */
+    public List<Order> newest(UUID userId, int limit) {
+        PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.comparing(Head::order, SegmentWriter.NEWEST_FIRST));
+        for (Segment segment : segments) {
+            if (userId != null && segment.orderCount(userId) == 0) {
+                continue;
+            }
+            Iterator<Order> it = segment.newest(userId);
+            if (it.hasNext()) {
+                heads.add(new Head(it.next(), it));
+            }
+        }
+        List<Order> result = new ArrayList<>(Math.min(limit, 256));
+        while (result.size() < limit && !heads.isEmpty()) {
+            Head head = heads.poll();
+            result.add(head.order());
+            if (head.rest().hasNext()) {
+                heads.add(new Head(head.rest().next(), head.rest()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * All archived orders matching the filter, segment by segment. Blocks are inflated as the iterator advances,
+     * so a scan holds one block per segment in memory at most.
+     */
+    public Iterator<Order> scan(Predicate<Order> filter) {
+        Iterator<Segment> remaining = List.copyOf(segments).iterator();
+        return new Iterator<>() {
+            private Iterator<Order> current = Collections.emptyIterator();
+            private Order next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    if (current.hasNext()) {
+                        Order candidate = current.next();
+                        if (filter.test(candidate)) {
+                            next = candidate;
+                        }
+                    } else if (remaining.hasNext()) {
+                        current = remaining.next().newest(null);
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Order next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Order result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Writes the orders as a new segment and makes them readable. Returns once the file is durable.
+     */
+    public synchronized void append(List<Order> orders, int blockSize) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create archive directory " + directory, e);
+        }
+        long sequence = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).sequence() + 1;
+        Path file = SegmentWriter.write(directory, sequence, orders, blockSize);
+        segments.add(Segment.open(file, sequence));
+    }
+
+    /**
+     * Ids in the newest segment. Used to finish a run that wrote its segment but crashed before deleting the rows.
+     */
+    Set<UUID> newestSegmentIds() {
+        if (segments.isEmpty()) {
+            return Set.of();
+        }
+        Set<UUID> ids = new HashSet<>();
+        segments.get(segments.size() - 1).newest(null).forEachRemaining(o -> ids.add(o.getId()));
+        return ids;
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SegmentWriter.PREFIX.length(), name.length() - SegmentWriter.SUFFIX.length()));
+    }
+
+    private record Head(Order order, Iterator<Order> rest) {
+    }
+}
@@ -0,0 +1,145 @@
+package se.moln.orderservice.archive;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.repository.OrderHistoryEntryRepository;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.repository.PurchaseIntakeRepository;
+import se.moln.orderservice.shard.ShardRouter;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Moves cold orders from the database into the {@link OrderArchive}.
+ * <p>
+ * Only orders in a final state (COMPLETED, CANCELLED, FAILED) older than {@code orders.archive.min-age} are
+ * archived, since nothing changes them any more. Each batch is first written as a durable segment and only then
+ * deleted from the database. A crash or a failed delete between the two leaves the orders in both places; history
+ * reads dedupe by id, and every run starts by deleting the newest segment's orders from the database, so they are
+ * never archived twice. Shards are archived one after the other into the same archive.
+ */
+@Component
+public class OrderArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderArchiver.class);
+
+    static final Set<OrderStatus> FINAL_STATES = EnumSet.of(OrderStatus.COMPLETED, OrderStatus.CANCELLED, OrderStatus.FAILED);
+
+    private final OrderArchive archive;
+    private final OrderRepository orderRepository;
+    private final PurchaseIntakeRepository intakeRepository;
+    private final OrderHistoryEntryRepository historyEntries;
+    private final ShardRouter shards;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final Duration minAge;
+    private final int batchSize;
+    private final int blockSize;
+    private final Counter archived;
+
+    public OrderArchiver(OrderArchive archive,
+                         OrderRepository orderRepository,
+                         PurchaseIntakeRepository intakeRepository,
+                         OrderHistoryEntryRepository historyEntries,
+                         ShardRouter shards,
+                         TransactionTemplate transactionTemplate,
+                         MeterRegistry meterRegistry,
+                         @Value("${orders.archive.enabled:true}") boolean enabled,
+                         @Value("${orders.archive.min-age:180d}") Duration minAge,
+                         @Value("${orders.archive.batch-size:5000}") int batchSize,
+                         @Value("${orders.archive.block-size:64}") int blockSize) {
+        this.archive = archive;
+        this.orderRepository = orderRepository;
+        this.intakeRepository = intakeRepository;
+        this.historyEntries = historyEntries;
+        this.shards = shards;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.minAge = minAge;
+        this.batchSize = batchSize;
+        this.blockSize = blockSize;
+        this.archived = Counter.builder("orders.archive.archived")
+                .description("Orders moved from the database into archive segments")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${orders.archive.initial-delay:PT1M}", fixedDelayString = "${orders.archive.interval:PT1H}")
+    public void run() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            reconcile();
+            long total = 0;
+            for (int shard = 0; shard < shards.count(); shard++) {
+                int moved;
+                do {
+                    moved = archiveBatch(shard);
+                    total += moved;
+                } while (moved == batchSize);
+            }
+            if (total > 0) {
+                log.info("Archived {} orders older than {}", total, minAge);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Order archival run failed, retrying on the next run", e);
+        }
+    }
+
+    /**
+     * Deletes the orders of the newest segment from the database. A batch that was archived but not deleted is
+     * always the newest segment, since a failed delete ends the run before anything else is appended.
+     */
+    void reconcile() {
+        Set<UUID> leftovers = archive.newestSegmentIds();
+        if (leftovers.isEmpty()) {
+            return;
+        }
+        // Segmentet säger inte vilket shard ordrarna kom från
+        for (int shard = 0; shard < shards.count(); shard++) {
+            delete(shard, List.copyOf(leftovers));
+        }
+    }
+
+    /**
+     * Archives one batch of the oldest eligible orders on {@code shard} and returns how many were moved.
+     */
+    int archiveBatch(int shard) {
+        OffsetDateTime cutoff = OffsetDateTime.now().minus(minAge);
+        List<Order> orders = shards.runOn(shard, () -> transactionTemplate.execute(tx -> {
+            List<UUID> ids = orderRepository.findIdsByStatusInAndOrderDateBefore(FINAL_STATES, cutoff, PageRequest.of(0, batchSize));
+            return ids.isEmpty() ? List.<Order>of() : orderRepository.findByIdIn(ids);
+        }));
+        if (orders == null || orders.isEmpty()) {
+            return 0;
+        }
+        archive.append(orders, blockSize);
+        delete(shard, orders.stream().map(Order::getId).toList());
+        archived.increment(orders.size());
+        return orders.size();
+    }
+
+    private void delete(int shard, List<UUID> ids) {
+        shards.runOn(shard, () -> transactionTemplate.execute(tx -> {
+            intakeRepository.deleteByOrderIdIn(ids);
+            // Arkiverade ordrar läses från arkivet; läsmodellen speglar bara tabellerna
+            historyEntries.deleteByOrderIdIn(ids);
+            orderRepository.deleteItemsByOrderIdIn(ids);
+            return orderRepository.deleteByIdIn(ids);
+        }));
+    }
+}
@@ -0,0 +1,192 @@
+package se.moln.orderservice.archive;
+
+import se.moln.orderservice.model.Order;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A read-only, memory-mapped segment. The block table and the per-user index are loaded once; order blocks are
+ * inflated on demand. Reads use absolute slices of the mapping, so one segment can serve concurrent readers.
+ */
+final class Segment {
+
+    private final Path path;
+    private final long sequence;
+    private final ByteBuffer data;
+    private final long[] blockOffsets;
+    private final int[] blockCounts;
+    private final Map<UUID, int[]> userBlocks;
+    private final Map<UUID, Integer> userCounts;
+    private final long orderCount;
+
+    private Segment(Path path, long sequence, ByteBuffer data, long[] blockOffsets, int[] blockCounts,
+                    Map<UUID, int[]> userBlocks, Map<UUID, Integer> userCounts, long orderCount) {
+        this.path = path;
+        this.sequence = sequence;
+        this.data = data;
+        this.blockOffsets = blockOffsets;
+        this.blockCounts = blockCounts;
+        this.userBlocks = userBlocks;
+        this.userCounts = userCounts;
+        this.orderCount = orderCount;
+    }
+
+    static Segment open(Path path, long sequence) {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Mappningen överlever kanalen
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open archive segment " + path, e);
+        }
+        int size = data.capacity();
+        if (size < SegmentFormat.HEADER_BYTES + SegmentFormat.FOOTER_BYTES
+                || data.getInt(0) != SegmentFormat.MAGIC
+                || data.getInt(size - 4) != SegmentFormat.MAGIC) {
+            throw new IllegalStateException("Not an archive segment: " + path);
+        }
+        if (data.getInt(4) != SegmentFormat.VERSION) {
+            throw new IllegalStateException("Unsupported archive segment version in " + path);
+        }
+        int footer = size - SegmentFormat.FOOTER_BYTES;
+        int blockTable = Math.toIntExact(data.getLong(footer));
+        int userIndex = Math.toIntExact(data.getLong(footer + 8));
+        long orderCount = data.getLong(footer + 16);
+
+        int blocks = data.getInt(blockTable);
+        long[] offsets = new long[blocks];
+        int[] counts = new int[blocks];
+        int pos = blockTable + 4;
+        for (int i = 0; i < blocks; i++, pos += 12) {
+            offsets[i] = data.getLong(pos);
+            counts[i] = data.getInt(pos + 8);
+        }
+
+        int users = data.getInt(userIndex);
+        Map<UUID, int[]> userBlocks = new HashMap<>(users * 2);
+        Map<UUID, Integer> userCounts = new HashMap<>(users * 2);
+        pos = userIndex + 4;
+        for (int i = 0; i < users; i++) {
+            UUID userId = new UUID(data.getLong(pos), data.getLong(pos + 8));
+            userCounts.put(userId, data.getInt(pos + 16));
+            int n = data.getInt(pos + 20);
+            pos += 24;
+            int[] blockNos = new int[n];
+            for (int b = 0; b < n; b++, pos += 4) {
+                blockNos[b] = data.getInt(pos);
+            }
+            userBlocks.put(userId, blockNos);
+        }
+        return new Segment(path, sequence, data, offsets, counts, userBlocks, userCounts, orderCount);
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    long orderCount() {
+        return orderCount;
+    }
+
+    int orderCount(UUID userId) {
+        return userCounts.getOrDefault(userId, 0);
+    }
+
+    /**
+     * Orders of one user, or of everyone when {@code userId} is null, newest first. Blocks are inflated lazily as
+     * the iterator advances, so reading the first page of a large segment only touches its first blocks.
+     */
+    Iterator<Order> newest(UUID userId) {
+        int[] blockNos;
+        if (userId == null) {
+            blockNos = new int[blockOffsets.length];
+            for (int i = 0; i < blockNos.length; i++) {
+                blockNos[i] = i;
+            }
+        } else {
+            blockNos = userBlocks.getOrDefault(userId, new int[0]);
+        }
+        return new Iterator<>() {
+            private int next;
+            private Iterator<Order> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && next < blockNos.length) {
+                    List<Order> block = readBlock(blockNos[next++]);
+                    if (userId != null) {
+                        block.removeIf(o -> !userId.equals(o.getUserId()));
+                    }
+                    current = block.iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Order next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    List<Order> readBlock(int blockNo) {
+        int offset = Math.toIntExact(blockOffsets[blockNo]);
+        int rawLength = data.getInt(offset);
+        int compressedLength = data.getInt(offset + 4);
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data.slice(offset + 8, compressedLength));
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(raw, n, rawLength - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != rawLength) {
+                throw new IllegalStateException("Truncated block " + blockNo + " in " + path);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt block " + blockNo + " in " + path, e);
+        } finally {
+            inflater.end();
+        }
+
+        List<Order> orders = new ArrayList<>(blockCounts[blockNo]);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw))) {
+            for (int i = 0; i < blockCounts[blockNo]; i++) {
+                orders.add(SegmentFormat.readOrder(in));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt block " + blockNo + " in " + path, e);
+        }
+        return orders;
+    }
+}
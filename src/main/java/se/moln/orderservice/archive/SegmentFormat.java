@@ -0,0 +1,130 @@
+package se.moln.orderservice.archive;
+
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Binary layout of an archive segment.
+ * <pre>
+ * header      int MAGIC, int VERSION
+ * blocks      per block: int rawLength, int compressedLength, deflated orders (newest first)
+ * block table int blockCount, per block: long offset, int orderCount
+ * user index  int userCount, per user: uuid, int orderCount, int blockCount, int[] block numbers
+ * footer      long blockTableOffset, long userIndexOffset, long orderCount, int MAGIC
+ * </pre>
+ * The user index is sparse: it points at the blocks holding a user's orders, not at the orders themselves.
+ */
+final class SegmentFormat {
+
+    static final int MAGIC = 0x4F415243; // "OARC"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final int FOOTER_BYTES = 8 + 8 + 8 + 4;
+
+    private SegmentFormat() {
+    }
+
+    static void writeOrder(DataOutput out, Order order) throws IOException {
+        writeUuid(out, order.getId());
+        writeUuid(out, order.getUserId());
+        writeString(out, order.getOrderNumber());
+        writeDecimal(out, order.getTotalAmount());
+        writeDate(out, order.getOrderDate());
+        writeString(out, order.getStatus() == null ? null : order.getStatus().name());
+        List<OrderItem> items = order.getOrderItems() == null ? List.of() : order.getOrderItems();
+        out.writeInt(items.size());
+        for (OrderItem item : items) {
+            writeUuid(out, item.getId());
+            writeUuid(out, item.getProductId());
+            writeString(out, item.getProductName());
+            out.writeInt(item.getQuantity());
+            writeDecimal(out, item.getPriceAtPurchase());
+        }
+    }
+
+    static Order readOrder(DataInput in) throws IOException {
+        Order order = new Order();
+        order.setId(readUuid(in));
+        order.setUserId(readUuid(in));
+        order.setOrderNumber(readString(in));
+        order.setTotalAmount(readDecimal(in));
+        order.setOrderDate(readDate(in));
+        String status = readString(in);
+        order.setStatus(status == null ? null : OrderStatus.valueOf(status));
+        int itemCount = in.readInt();
+        List<OrderItem> items = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            OrderItem item = new OrderItem();
+            item.setId(readUuid(in));
+            item.setProductId(readUuid(in));
+            item.setProductName(readString(in));
+            item.setQuantity(in.readInt());
+            item.setPriceAtPurchase(readDecimal(in));
+            item.setOrder(order);
+            items.add(item);
+        }
+        order.setOrderItems(items);
+        return order;
+    }
+
+    static void writeUuid(DataOutput out, UUID id) throws IOException {
+        out.writeBoolean(id != null);
+        if (id != null) {
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+        }
+    }
+
+    static UUID readUuid(DataInput in) throws IOException {
+        return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDecimal(DataOutput out, BigDecimal value) throws IOException {
+        writeString(out, value == null ? null : value.toPlainString());
+    }
+
+    private static BigDecimal readDecimal(DataInput in) throws IOException {
+        String value = readString(in);
+        return value == null ? null : new BigDecimal(value);
+    }
+
+    private static void writeDate(DataOutput out, OffsetDateTime value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.toEpochSecond());
+            out.writeInt(value.getNano());
+            out.writeInt(value.getOffset().getTotalSeconds());
+        }
+    }
+
+    private static OffsetDateTime readDate(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        Instant instant = Instant.ofEpochSecond(in.readLong(), in.readInt());
+        return OffsetDateTime.ofInstant(instant, ZoneOffset.ofTotalSeconds(in.readInt()));
+    }
+}
@@ -0,0 +1,142 @@
+package se.moln.orderservice.archive;
+
+import se.moln.orderservice.model.Order;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+/**
+ * Writes one immutable segment file in {@link SegmentFormat}. The file is written under a temporary name, synced
+ * and then renamed, so a reader never sees a half-written segment.
+ */
+final class SegmentWriter {
+
+    static final String PREFIX = "segment-";
+    static final String SUFFIX = ".seg";
+
+    /** Newest first, the order history reads in. */
+    static final Comparator<Order> NEWEST_FIRST = Comparator.comparing(Order::getOrderDate,
+            Comparator.nullsLast(Comparator.<OffsetDateTime>reverseOrder()));
+
+    private SegmentWriter() {
+    }
+
+    static Path fileName(Path dir, long sequence) {
+        return dir.resolve(String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+    }
+
+    static Path write(Path dir, long sequence, List<Order> orders, int blockSize) {
+        if (orders.isEmpty()) {
+            throw new IllegalArgumentException("A segment needs at least one order");
+        }
+        List<Order> sorted = new ArrayList<>(orders);
+        sorted.sort(NEWEST_FIRST);
+
+        Path target = fileName(dir, sequence);
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024))) {
+            out.writeInt(SegmentFormat.MAGIC);
+            out.writeInt(SegmentFormat.VERSION);
+            long position = SegmentFormat.HEADER_BYTES;
+
+            List<long[]> blocks = new ArrayList<>();
+            Map<UUID, Set<Integer>> userBlocks = new LinkedHashMap<>();
+            Map<UUID, Integer> userCounts = new LinkedHashMap<>();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                for (int from = 0; from < sorted.size(); from += blockSize) {
+                    List<Order> block = sorted.subList(from, Math.min(from + blockSize, sorted.size()));
+                    int blockNo = blocks.size();
+                    ByteArrayOutputStream raw = new ByteArrayOutputStream();
+                    DataOutputStream rawOut = new DataOutputStream(raw);
+                    for (Order order : block) {
+                        SegmentFormat.writeOrder(rawOut, order);
+                        if (order.getUserId() != null) {
+                            userBlocks.computeIfAbsent(order.getUserId(), u -> new LinkedHashSet<>()).add(blockNo);
+                            userCounts.merge(order.getUserId(), 1, Integer::sum);
+                        }
+                    }
+                    byte[] compressed = deflate(deflater, raw.toByteArray());
+                    blocks.add(new long[]{position, block.size()});
+                    out.writeInt(raw.size());
+                    out.writeInt(compressed.length);
+                    out.write(compressed);
+                    position += 8L + compressed.length;
+                }
+            } finally {
+                deflater.end();
+            }
+
+            long blockTableOffset = position;
+            out.writeInt(blocks.size());
+            for (long[] block : blocks) {
+                out.writeLong(block[0]);
+                out.writeInt((int) block[1]);
+            }
+            position += 4L + 12L * blocks.size();
+
+            long userIndexOffset = position;
+            out.writeInt(userBlocks.size());
+            for (Map.Entry<UUID, Set<Integer>> e : userBlocks.entrySet()) {
+                out.writeLong(e.getKey().getMostSignificantBits());
+                out.writeLong(e.getKey().getLeastSignificantBits());
+                out.writeInt(userCounts.get(e.getKey()));
+                out.writeInt(e.getValue().size());
+                for (int blockNo : e.getValue()) {
+                    out.writeInt(blockNo);
+                }
+            }
+
+            out.writeLong(blockTableOffset);
+            out.writeLong(userIndexOffset);
+            out.writeLong(sorted.size());
+            out.writeInt(SegmentFormat.MAGIC);
+            out.flush();
+            file.getChannel().force(true);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new UncheckedIOException("Could not write archive segment " + target, e);
+        }
+
+        try {
+            return Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not publish archive segment " + target, e);
+        }
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] input) {
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 2));
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
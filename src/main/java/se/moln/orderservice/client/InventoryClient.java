@@ -0,0 +1,100 @@
+package se.moln.orderservice.client;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+import se.moln.orderservice.dto.InventoryPurchaseRequest;
+import se.moln.orderservice.exception.DownstreamException;
+import se.moln.orderservice.metrics.PurchaseMetrics;
+import se.moln.orderservice.resilience.Deadline;
+import se.moln.orderservice.resilience.DownstreamResilience;
+import se.moln.orderservice.resilience.DownstreamRetry;
+import se.moln.orderservice.web.CorrelationIdFilter;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Inventory endpoints of the product service: reserve stock for a purchase and return it again.
+ */
+@Component
+public class InventoryClient {
+
+    private final WebClient webClient;
+    private final String productServiceUrl;
+    private final PurchaseMetrics metrics;
+    private final DownstreamResilience resilience;
+    private final DownstreamRetry retry;
+
+    public InventoryClient(WebClient.Builder webClientBuilder,
+                           @Value("${productservice.url}") String productServiceUrl,
+                           PurchaseMetrics metrics,
+                           DownstreamResilience resilience,
+                           DownstreamRetry retry) {
+        this.webClient = webClientBuilder.build();
+        this.productServiceUrl = productServiceUrl;
+        this.metrics = metrics;
+        this.resilience = resilience;
+        this.retry = retry;
+    }
+
+    public Mono<Void> reserve(UUID productId, int quantity, String jwtToken) {
+        return Mono.deferContextual(ctx -> {
+            Mono<Void> call = Mono.defer(() -> webClient.post()
+                    .uri(productServiceUrl + "/api/inventory/{id}/purchase", productId)
+                    .headers(headers(jwtToken, ctx))
+                    .bodyValue(new InventoryPurchaseRequest(quantity))
+                    .retrieve()
+                    .onStatus(HttpStatusCode::isError, errors(DownstreamResilience.INVENTORY_RESERVE, ctx))
+                    .toBodilessEntity()
+                    .then());
+            return metrics.timeStage(PurchaseMetrics.STAGE_INVENTORY_RESERVE,
+                    resilience.decorateOnceSent(DownstreamResilience.INVENTORY_RESERVE, call));
+        });
+    }
+
+    /**
+     * Returns stock. Returns are idempotent compensations, so transient failures are retried; reservations are not.
+     */
+    public Mono<Void> returnStock(UUID productId, int quantity, String jwtToken) {
+        return Mono.deferContextual(ctx -> {
+            Mono<Void> call = Mono.defer(() -> webClient.post()
+                    .uri(productServiceUrl + "/api/inventory/{id}/return", productId)
+                    .headers(headers(jwtToken, ctx))
+                    .bodyValue(new InventoryPurchaseRequest(quantity))
+                    .retrieve()
+                    .onStatus(HttpStatusCode::isError, errors(DownstreamResilience.INVENTORY_RETURN, ctx))
+                    .toBodilessEntity()
+                    .then());
+            Mono<Void> attempt = resilience.decorate(DownstreamResilience.INVENTORY_RETURN, call);
+            return metrics.timeStage(PurchaseMetrics.STAGE_INVENTORY_RETURN,
+                    retry.retry(DownstreamResilience.INVENTORY_RETURN, attempt));
+        });
+    }
+
+    private static Function<ClientResponse, Mono<? extends Throwable>> errors(String endpoint, ContextView ctx) {
+        return response -> DownstreamException.from(endpoint, response, CorrelationIdFilter.from(ctx));
+    }
+
+    private static Consumer<HttpHeaders> headers(String jwtToken, ContextView ctx) {
+        Deadline deadline = Deadline.from(ctx);
+        return headers -> {
+            if (jwtToken != null && !jwtToken.isBlank()) {
+                headers.add(HttpHeaders.AUTHORIZATION, "Bearer " + jwtToken);
+            }
+            headers.add(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+            headers.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+            headers.add(CorrelationIdFilter.HEADER, CorrelationIdFilter.from(ctx));
+            if (deadline != null) {
+                headers.add(Deadline.HEADER, String.valueOf(deadline.remainingMillis()));
+            }
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package se.moln.orderservice.client;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import se.moln.orderservice.dto.ProductResponse;
+import se.moln.orderservice.exception.DownstreamException;
+import se.moln.orderservice.metrics.PurchaseMetrics;
+import se.moln.orderservice.resilience.Deadline;
+import se.moln.orderservice.resilience.DownstreamResilience;
+import se.moln.orderservice.resilience.DownstreamRetry;
+import se.moln.orderservice.resilience.Hedging;
+import se.moln.orderservice.web.CorrelationIdFilter;
+
+import java.util.UUID;
+
+/**
+ * Product lookups against the product service.
+ */
+@Component
+public class ProductClient {
+
+    private final WebClient webClient;
+    private final String productServiceUrl;
+    private final PurchaseMetrics metrics;
+    private final DownstreamResilience resilience;
+    private final Hedging hedging;
+    private final DownstreamRetry retry;
+
+    public ProductClient(WebClient.Builder webClientBuilder,
+                         @Value("${productservice.url}") String productServiceUrl,
+                         PurchaseMetrics metrics,
+                         DownstreamResilience resilience,
+                         Hedging hedging,
+                         DownstreamRetry retry) {
+        this.webClient = webClientBuilder.build();
+        this.productServiceUrl = productServiceUrl;
+        this.metrics = metrics;
+        this.resilience = resilience;
+        this.hedging = hedging;
+        this.retry = retry;
+    }
+
+    /**
+     * Looks up a product. The GET is idempotent, so a slow attempt may be hedged (see {@link Hedging}) and
+     * transient failures are retried (see {@link DownstreamRetry}).
+     */
+    public Mono<ProductResponse> fetch(UUID productId, String jwtToken) {
+        return Mono.deferContextual(ctx -> {
+            Deadline deadline = Deadline.from(ctx);
+            // Byggs om per försök så att varje retry/hedge skickar den tid som faktiskt återstår
+            Mono<ProductResponse> call = Mono.defer(() -> webClient.get()
+                    .uri(productServiceUrl + "/api/products/{id}", productId)
+                    .headers(headers -> {
+                        if (jwtToken != null && !jwtToken.isBlank()) {
+                            headers.add(HttpHeaders.AUTHORIZATION, "Bearer " + jwtToken);
+                        }
+                        headers.add(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+                        headers.add(CorrelationIdFilter.HEADER, CorrelationIdFilter.from(ctx));
+                        if (deadline != null) {
+                            headers.add(Deadline.HEADER, String.valueOf(deadline.remainingMillis()));
+                        }
+                    })
+                    .retrieve()
+                    .onStatus(HttpStatusCode::isError, response -> DownstreamException.from(
+                            DownstreamResilience.PRODUCT_LOOKUP, response, CorrelationIdFilter.from(ctx)))
+                    .bodyToMono(ProductResponse.class));
+            Mono<ProductResponse> attempt = resilience.decorate(DownstreamResilience.PRODUCT_LOOKUP, call);
+            return metrics.timeStage(PurchaseMetrics.STAGE_PRODUCT_LOOKUP,
+                    retry.retry(DownstreamResilience.PRODUCT_LOOKUP,
+                            hedging.hedge(DownstreamResilience.PRODUCT_LOOKUP, attempt)));
+        });
+    }
+}
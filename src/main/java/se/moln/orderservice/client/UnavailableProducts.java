@@ -0,0 +1,122 @@
+package se.moln.orderservice.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.moln.orderservice.dto.ProductResponse;
+import se.moln.orderservice.dto.PurchaseRequest;
+import se.moln.orderservice.exception.DownstreamError;
+import se.moln.orderservice.exception.DownstreamException;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Short-lived negative cache of products the product service just reported as missing (404) or at zero stock.
+ * <p>
+ * A purchase with such a product in its cart is rejected before any lookup or reservation, with the same status
+ * (404 or 409) it would have ended in, so the other items in the cart are neither reserved nor returned. Entries
+ * expire after {@code orders.products.negative-cache.ttl}, which bounds how long a restocked or newly created
+ * product can still be refused. {@code orders.products.fast-failed} counts the rejected purchases and
+ * {@code orders.products.calls.saved} the downstream calls they would at most have made.
+ */
+@Component
+public class UnavailableProducts {
+
+    public enum Reason {
+        MISSING(DownstreamError.PRODUCT_NOT_FOUND),
+        OUT_OF_STOCK(DownstreamError.INSUFFICIENT_STOCK);
+
+        private final DownstreamError error;
+
+        Reason(DownstreamError error) {
+            this.error = error;
+        }
+
+        public DownstreamException exception(UUID productId, String correlationId) {
+            return DownstreamException.local(error, "productId=" + productId, correlationId);
+        }
+    }
+
+    private final boolean enabled;
+    private final Cache<UUID, Reason> unavailable;
+    private final Map<Reason, Counter> fastFailed = new EnumMap<>(Reason.class);
+    private final Counter lookupsSaved;
+    private final Counter reservationsSaved;
+    private final Counter returnsSaved;
+
+    public UnavailableProducts(MeterRegistry meterRegistry,
+                               @Value("${orders.products.negative-cache.enabled:true}") boolean enabled,
+                               @Value("${orders.products.negative-cache.ttl:10s}") Duration ttl,
+                               @Value("${orders.products.negative-cache.max-size:100000}") long maxSize) {
+        this.enabled = enabled;
+        this.unavailable = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxSize)
+                .build();
+        for (Reason reason : Reason.values()) {
+            fastFailed.put(reason, Counter.builder("orders.products.fast-failed")
+                    .description("Purchases rejected locally because a product was known to be missing or out of stock")
+                    .tag("reason", reason.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+        this.lookupsSaved = saved(meterRegistry, "product_lookup");
+        this.reservationsSaved = saved(meterRegistry, "inventory_reserve");
+        this.returnsSaved = saved(meterRegistry, "inventory_return");
+    }
+
+    private static Counter saved(MeterRegistry meterRegistry, String call) {
+        return Counter.builder("orders.products.calls.saved")
+                .description("Downstream calls fast-failed purchases did not make (upper bound)")
+                .tag("call", call)
+                .register(meterRegistry);
+    }
+
+    /**
+     * The rejection for a cart that contains a product known to be unavailable, or null when the cart may go
+     * ahead.
+     */
+    public DownstreamException reject(List<PurchaseRequest.OrderItemRequest> items, String correlationId) {
+        if (!enabled) {
+            return null;
+        }
+        for (PurchaseRequest.OrderItemRequest item : items) {
+            Reason reason = unavailable.getIfPresent(item.productId());
+            if (reason != null) {
+                fastFailed.get(reason).increment();
+                // Utan snabbavslaget slås alla upp, de andra reserveras och lämnas sedan tillbaka
+                lookupsSaved.increment(items.size());
+                reservationsSaved.increment(items.size() - 1);
+                returnsSaved.increment(items.size() - 1);
+                return reason.exception(item.productId(), correlationId);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remembers a looked-up product at zero stock; returns the rejection for it, or null when it has stock.
+     */
+    public DownstreamException found(UUID productId, ProductResponse product, String correlationId) {
+        if (!enabled || product.stockQuantity() > 0) {
+            return null;
+        }
+        unavailable.put(productId, Reason.OUT_OF_STOCK);
+        return Reason.OUT_OF_STOCK.exception(productId, correlationId);
+    }
+
+    /**
+     * Remembers a product the product service answered 404 for.
+     */
+    public void failed(UUID productId, Throwable err) {
+        if (enabled && err instanceof DownstreamException de && de.getError() == DownstreamError.PRODUCT_NOT_FOUND) {
+            unavailable.put(productId, Reason.MISSING);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package se.moln.orderservice.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+
+/**
+ * CBOR ({@code application/cbor}) and Smile ({@code application/x-jackson-smile}) next to JSON, chosen by the
+ * caller's {@code Accept} header.
+ * <p>
+ * Both mappers are copies of the application's JSON {@link ObjectMapper}, so modules, date handling and
+ * {@code spring.jackson.*} settings are the same in every format. UUIDs go on the wire as 16 raw bytes and
+ * Smile back-references repeated field names and short strings, which is where most of the saving on order
+ * history comes from.
+ */
+@Configuration
+public class BinaryCodecConfig {
+
+    public static final String APPLICATION_CBOR_VALUE = MediaType.APPLICATION_CBOR_VALUE;
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    @Bean
+    public CodecCustomizer binaryCodecCustomizer(ObjectMapper objectMapper) {
+        ObjectMapper cbor = objectMapper.copyWith(new CBORFactory());
+        ObjectMapper smile = objectMapper.copyWith(new SmileFactory());
+        return configurer -> {
+            configurer.customCodecs().register(new Jackson2CborEncoder(cbor));
+            configurer.customCodecs().register(new Jackson2CborDecoder(cbor));
+            // Smile finns redan bland standardkodekerna; ersätt den så att den delar JSON-inställningarna
+            configurer.defaultCodecs().jackson2SmileEncoder(new Jackson2SmileEncoder(smile));
+            configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smile));
+        };
+    }
+}
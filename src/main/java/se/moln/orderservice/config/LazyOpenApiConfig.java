@@ -0,0 +1,40 @@
+package se.moln.orderservice.config;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Optional startup mode that leaves springdoc's beans uncreated until something needs them, normally the first
+ * request to {@code /v3/api-docs} or the Swagger UI. Off unless {@code orders.startup.lazy-openapi=true}.
+ * <p>
+ * Handler mappings only need the bean types, so the endpoints are still registered. Post-processors are created
+ * eagerly whatever their definition says. With Spring AOT the switch is read when the application is processed,
+ * not when it starts.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "orders.startup.lazy-openapi", havingValue = "true")
+public class LazyOpenApiConfig {
+
+    private static final String SPRINGDOC_PACKAGE = "org.springdoc.";
+
+    @Bean
+    static BeanFactoryPostProcessor lazyOpenApiBeans() {
+        return beanFactory -> {
+            for (String name : beanFactory.getBeanDefinitionNames()) {
+                BeanDefinition definition = beanFactory.getBeanDefinition(name);
+                String declaringClass = definition.getBeanClassName();
+                // @Bean-metoder har ingen klass på definitionen, bara konfigurationen som skapar dem
+                if (declaringClass == null && definition.getFactoryBeanName() != null
+                        && beanFactory.containsBeanDefinition(definition.getFactoryBeanName())) {
+                    declaringClass = beanFactory.getBeanDefinition(definition.getFactoryBeanName()).getBeanClassName();
+                }
+                if (declaringClass != null && declaringClass.startsWith(SPRINGDOC_PACKAGE)) {
+                    definition.setLazyInit(true);
+                }
+            }
+        };
+    }
+}
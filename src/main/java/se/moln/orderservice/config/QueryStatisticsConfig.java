@@ -0,0 +1,30 @@
+package se.moln.orderservice.config;
+
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import se.moln.orderservice.metrics.QueryStatistics;
+import se.moln.orderservice.metrics.QueryStatisticsIntegrator;
+import se.moln.orderservice.metrics.QueryStatisticsSessionListener;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Installs the Hibernate listeners behind {@link QueryStatistics}: a per-session listener that times statements
+ * and an integrator that counts entity loads and lazy collection fetches.
+ */
+@Configuration
+public class QueryStatisticsConfig {
+
+    @Bean
+    public HibernatePropertiesCustomizer queryStatistics(@Value("${orders.db.slow-statement-threshold:200ms}") Duration slowStatement) {
+        QueryStatistics.slowStatementThreshold(slowStatement);
+        return properties -> {
+            properties.put("hibernate.session.events.auto", QueryStatisticsSessionListener.class.getName());
+            properties.put("hibernate.integrator_provider", (IntegratorProvider) () -> List.of(new QueryStatisticsIntegrator()));
+        };
+    }
+}
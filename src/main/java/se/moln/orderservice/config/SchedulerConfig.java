@@ -0,0 +1,40 @@
+package se.moln.orderservice.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Scheduler used for all blocking JPA work (saves, history and analytics queries).
+ * <p>
+ * {@code orders.blocking.mode=bounded-elastic} (default) uses Reactor's shared bounded elastic pool,
+ * which caps at 10 x cores platform threads and queues beyond that.
+ * {@code orders.blocking.mode=virtual-threads} runs every task on its own virtual thread instead;
+ * concurrency is then limited only by the JDBC pool ({@code spring.datasource.hikari.maximum-pool-size}),
+ * so size the pool for the load you want to admit.
+ */
+@Configuration
+public class SchedulerConfig {
+
+    public static final String BOUNDED_ELASTIC = "bounded-elastic";
+    public static final String VIRTUAL_THREADS = "virtual-threads";
+
+    @Bean(destroyMethod = "dispose")
+    public Scheduler repositoryScheduler(@Value("${orders.blocking.mode:bounded-elastic}") String mode) {
+        String normalized = mode.trim();
+        if (VIRTUAL_THREADS.equalsIgnoreCase(normalized)) {
+            return Schedulers.fromExecutorService(Executors.newVirtualThreadPerTaskExecutor(), "orders-repository-vt");
+        }
+        if (BOUNDED_ELASTIC.equalsIgnoreCase(normalized)) {
+            // Delad instans, dispose() på den cachade wrappern är en no-op
+            return Schedulers.boundedElastic();
+        }
+        // En felstavning ska stoppa uppstarten, inte tyst ge det andra läget
+        throw new IllegalArgumentException("Unknown orders.blocking.mode '" + mode + "', expected "
+                + BOUNDED_ELASTIC + " or " + VIRTUAL_THREADS);
+    }
+}
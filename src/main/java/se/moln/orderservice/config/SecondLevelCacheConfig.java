@@ -0,0 +1,64 @@
+package se.moln.orderservice.config;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.time.Duration;
+import java.util.OptionalLong;
+
+/**
+ * Optional Hibernate second-level cache for {@link Order}, its {@code orderItems} collection and {@link OrderItem},
+ * backed by a local Caffeine JCache. Off unless {@code orders.cache.enabled=true}.
+ * <p>
+ * Regions are created here with bounded sizes and a time-to-live. Status changes are set-based {@code UPDATE}s,
+ * which make Hibernate drop the order region on the instance that ran them; other instances only notice when the
+ * TTL expires, so {@code orders.cache.ttl} is the staleness bound between instances. Hit and miss counts per
+ * region are published by Spring Boot's Hibernate metrics when {@code orders.cache.statistics=true}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "orders.cache.enabled", havingValue = "true")
+public class SecondLevelCacheConfig {
+
+    @Bean(destroyMethod = "close")
+    public CacheManager hibernateCacheManager(@Value("${orders.cache.orders.max-size:10000}") long ordersMaxSize,
+                                              @Value("${orders.cache.items.max-size:50000}") long itemsMaxSize,
+                                              @Value("${orders.cache.ttl:5m}") Duration ttl) {
+        CacheManager manager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName())
+                .getCacheManager(URI.create("orders-l2"), SecondLevelCacheConfig.class.getClassLoader());
+        manager.createCache(Order.CACHE_REGION, region(ordersMaxSize, ttl));
+        // Samlingen lagrar bara id:n, raderna själva ligger i order-items
+        manager.createCache(Order.ITEMS_CACHE_REGION, region(ordersMaxSize, ttl));
+        manager.createCache(OrderItem.CACHE_REGION, region(itemsMaxSize, ttl));
+        return manager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer secondLevelCache(CacheManager hibernateCacheManager,
+                                                          @Value("${orders.cache.statistics:true}") boolean statistics) {
+        return properties -> {
+            properties.put("hibernate.cache.use_second_level_cache", true);
+            properties.put("hibernate.cache.region.factory_class", "jcache");
+            properties.put("hibernate.javax.cache.cache_manager", hibernateCacheManager);
+            properties.put("hibernate.javax.cache.missing_cache_strategy", "fail");
+            properties.put("hibernate.generate_statistics", statistics);
+        };
+    }
+
+    private static CaffeineConfiguration<Object, Object> region(long maxSize, Duration ttl) {
+        CaffeineConfiguration<Object, Object> config = new CaffeineConfiguration<>();
+        config.setMaximumSize(OptionalLong.of(maxSize));
+        config.setExpireAfterWrite(OptionalLong.of(ttl.toNanos()));
+        config.setStatisticsEnabled(true);
+        return config;
+    }
+}
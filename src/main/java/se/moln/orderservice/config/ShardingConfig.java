@@ -0,0 +1,63 @@
+package se.moln.orderservice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import se.moln.orderservice.shard.ShardRouter;
+import se.moln.orderservice.shard.ShardRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Order storage split over {@code orders.sharding.count} databases, active when the count is above 1.
+ * <p>
+ * Shard 0 is the database of {@code spring.datasource.url}, the others come from
+ * {@code orders.sharding.url-template} with {@code {shard}} replaced by the shard number; all share credentials
+ * and pool settings. JPA and JDBC see one {@link ShardRoutingDataSource}, and Flyway migrates every shard.
+ */
+@Configuration
+@ConditionalOnExpression("${orders.sharding.count:1} > 1")
+public class ShardingConfig {
+
+    @Bean
+    @Primary
+    public ShardRoutingDataSource dataSource(DataSourceProperties properties,
+                                             ShardRouter router,
+                                             @Value("${orders.sharding.url-template}") String urlTemplate,
+                                             @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+                                             @Value("${spring.datasource.hikari.connection-timeout:5000}") long connectionTimeout) {
+        List<DataSource> shards = new ArrayList<>();
+        for (int shard = 0; shard < router.count(); shard++) {
+            HikariDataSource pool = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+            if (shard > 0) {
+                pool.setJdbcUrl(urlTemplate.replace("{shard}", Integer.toString(shard)));
+            }
+            pool.setPoolName("orders-shard-" + shard);
+            pool.setMaximumPoolSize(poolSize);
+            pool.setConnectionTimeout(connectionTimeout);
+            shards.add(pool);
+        }
+        return new ShardRoutingDataSource(shards);
+    }
+
+    @Bean
+    public FlywayMigrationStrategy migrateEveryShard(ShardRoutingDataSource dataSource) {
+        return flyway -> {
+            for (DataSource shard : dataSource.shards()) {
+                Flyway.configure()
+                        .configuration(flyway.getConfiguration())
+                        .dataSource(shard)
+                        .load()
+                        .migrate();
+            }
+        };
+    }
+}
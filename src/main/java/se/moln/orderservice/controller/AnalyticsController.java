@@ -8,34 +8,58 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import se.moln.orderservice.archive.OrderArchive;
+import se.moln.orderservice.config.BinaryCodecConfig;
+import se.moln.orderservice.metrics.QueryStatistics;
 import se.moln.orderservice.model.Order;
 import se.moln.orderservice.model.OrderItem;
 import se.moln.orderservice.model.OrderStatus;
 import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.service.ResourceVersions;
+import se.moln.orderservice.shard.ShardRouter;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.OffsetDateTime;
 import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 @RestController
 @RequiredArgsConstructor
 public class AnalyticsController {
 
+    // Ordrar som räknas som sålda: lagda och avslutade, inte annullerade
+    static final Set<OrderStatus> SOLD = EnumSet.of(OrderStatus.CREATED, OrderStatus.COMPLETED);
+
     private final OrderRepository orders;
+    private final Scheduler repositoryScheduler;
+    private final ResourceVersions versions;
+    private final ShardRouter shards;
+    private final OrderArchive archive;
 
-    @GetMapping("/analytics/monthly-kpis")
+    @GetMapping(path = "/analytics/monthly-kpis", produces = {MediaType.APPLICATION_JSON_VALUE,
+            BinaryCodecConfig.APPLICATION_CBOR_VALUE, BinaryCodecConfig.APPLICATION_SMILE_VALUE})
     @Operation(
             summary = "Enkel analytics",
             description = "Returnerar antal sålda enheter, intäkter och mest populär produkt för angiven månad (standard är innevarande månad).",
             responses = {
+                    @ApiResponse(responseCode = "304", description = "Oförändrad sedan If-None-Match"),
                     @ApiResponse(responseCode = "200", description = "OK", content = @Content(
                             schema = @Schema(implementation = MonthlyKpisResponse.class),
                             examples = @ExampleObject(name = "Example",
@@ -55,9 +79,10 @@ public class AnalyticsController {
                     ))
             }
     )
-    public MonthlyKpisResponse monthlyKpis(
+    public Mono<ResponseEntity<MonthlyKpisResponse>> monthlyKpis(
             @RequestParam(required = false) Integer year,
-            @RequestParam(required = false) @Min(1) @Max(12) Integer month
+            @RequestParam(required = false) @Min(1) @Max(12) Integer month,
+            ServerWebExchange exchange
     ) {
         // No authentication required
 
@@ -70,17 +95,45 @@ public class AnalyticsController {
         OffsetDateTime from = ym.atDay(1).atStartOfDay().atOffset(offset);
         OffsetDateTime to = ym.plusMonths(1).atDay(1).atStartOfDay().atOffset(offset);
 
-        // Hämta endast CREATED ordrar inom intervallet
-        List<Order> created = orders.findByStatusAndOrderDateBetween(OrderStatus.CREATED, from, to);
+        // Versionen täcker alla ordrar i månaden: en annullering ändrar också nyckeltalen
+        return versions.orderDateRange(from, to)
+                .flatMap(etag -> exchange.checkNotModified(etag)
+                        ? Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).<MonthlyKpisResponse>build())
+                        // Hämta sålda ordrar inom intervallet från alla shards; en avslutad order är fortfarande såld
+                        : shards.gather(shard -> QueryStatistics.measured("monthly-kpis",
+                                        () -> orders.findByStatusInAndOrderDateBetween(SOLD, from, to)), repositoryScheduler)
+                        .map(perShard -> perShard.stream().flatMap(List::stream).toList())
+                        // Arkiverade ordrar var också sålda; utan dem skulle arkiveringen ändra gamla månader
+                        .zipWith(archivedSold(from, to), (live, archived) -> {
+                            List<Order> sold = new ArrayList<>(live);
+                            sold.addAll(archived);
+                            return sold;
+                        })
+                        .map(sold -> ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT).body(toKpis(ym, sold))));
+    }
+
+    private Mono<List<Order>> archivedSold(OffsetDateTime from, OffsetDateTime to) {
+        if (!archive.hasSegments()) {
+            return Mono.just(List.of());
+        }
+        return Mono.fromCallable(() -> {
+            List<Order> sold = new ArrayList<>();
+            archive.scan(o -> SOLD.contains(o.getStatus()) && o.getOrderDate() != null
+                            && !o.getOrderDate().isBefore(from) && !o.getOrderDate().isAfter(to))
+                    .forEachRemaining(sold::add);
+            return sold;
+        }).subscribeOn(repositoryScheduler);
+    }
 
+    private MonthlyKpisResponse toKpis(YearMonth ym, List<Order> sold) {
         // unitsSold = summa av alla item.quantity
-        int unitsSold = created.stream()
+        int unitsSold = sold.stream()
                 .flatMap(o -> o.getOrderItems().stream())
                 .mapToInt(OrderItem::getQuantity)
                 .sum();
 
         // revenue = summa av order.totalAmount
-        BigDecimal revenue = created.stream()
+        BigDecimal revenue = sold.stream()
                 .map(o -> o.getTotalAmount() == null ? BigDecimal.ZERO : o.getTotalAmount())
                 .reduce(BigDecimal.ZERO, BigDecimal::add)
                 .setScale(2, RoundingMode.HALF_UP);
@@ -89,7 +142,7 @@ public class AnalyticsController {
         record Agg(BigDecimal revenue, int units, String name) {
         }
         Map<UUID, Agg> byProduct = new HashMap<>();
-        for (Order o : created) {
+        for (Order o : sold) {
             for (OrderItem it : o.getOrderItems()) {
                 UUID pid = it.getProductId();
                 BigDecimal line = (it.getPriceAtPurchase() == null ? BigDecimal.ZERO : it.getPriceAtPurchase())
@@ -0,0 +1,66 @@
+package se.moln.orderservice.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.ExampleObject;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+import se.moln.orderservice.dto.PurchaseRequest;
+import se.moln.orderservice.dto.PurchaseStatusResponse;
+import se.moln.orderservice.service.AsyncPurchaseService;
+
+import java.net.URI;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/api/orders")
+public class AsyncPurchaseController {
+
+    private final AsyncPurchaseService asyncPurchaseService;
+
+    public AsyncPurchaseController(AsyncPurchaseService asyncPurchaseService) {
+        this.asyncPurchaseService = asyncPurchaseService;
+    }
+
+    @PostMapping(path = "/purchase/async", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(
+            summary = "Ta emot köp asynkront",
+            description = "Validerar köpet, sparar det i en lokal journal och svarar direkt med 202 och order-id. "
+                    + "Reservation och sparande sker i bakgrunden; följ statusen via Location-headern."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "202", description = "Köpet är mottaget (PENDING)",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = PurchaseStatusResponse.class),
+                            examples = @ExampleObject(name = "Accepted",
+                                    value = "{\n  \"orderId\": \"3fa85f64-5717-4562-b3fc-2c963f66afa6\",\n  \"status\": \"PENDING\",\n  \"orderNumber\": \"ORD-ABC12345DEF0\"\n}"))),
+            @ApiResponse(responseCode = "400", description = "Ogiltig förfrågan")
+    })
+    public Mono<ResponseEntity<PurchaseStatusResponse>> purchaseAsync(@RequestBody PurchaseRequest purchaseRequest) {
+        // No authentication required - pass null as token
+        return asyncPurchaseService.accept(purchaseRequest, null)
+                .map(accepted -> ResponseEntity.accepted()
+                        .location(URI.create("/api/orders/" + accepted.orderId() + "/status"))
+                        .body(accepted));
+    }
+
+    @GetMapping(path = "/{orderId}/status", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Hämta orderstatus", description = "PENDING tills köpet är behandlat, sedan CREATED eller FAILED (med problem).")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "OK",
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = PurchaseStatusResponse.class),
+                            examples = @ExampleObject(name = "Failed",
+                                    value = "{\n  \"orderId\": \"3fa85f64-5717-4562-b3fc-2c963f66afa6\",\n  \"status\": \"FAILED\",\n  \"orderNumber\": \"ORD-ABC12345DEF0\",\n  \"problem\": {\"type\": \"about:blank\", \"title\": \"Conflict\", \"status\": 409, \"detail\": \"Insufficient stock\"}\n}"))),
+            @ApiResponse(responseCode = "404", description = "Ordern hittades inte")
+    })
+    public Mono<ResponseEntity<PurchaseStatusResponse>> status(@PathVariable UUID orderId) {
+        return asyncPurchaseService.status(orderId)
+                .map(ResponseEntity::ok);
+    }
+}
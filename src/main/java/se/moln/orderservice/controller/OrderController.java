@@ -7,25 +7,37 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import se.moln.orderservice.config.BinaryCodecConfig;
+import se.moln.orderservice.dto.BulkPurchaseResult;
 import se.moln.orderservice.dto.OrderHistoryDto;
 import se.moln.orderservice.dto.PurchaseRequest;
 import se.moln.orderservice.dto.PurchaseResponse;
 import se.moln.orderservice.service.OrderService;
+import se.moln.orderservice.service.ResourceVersions;
 
 import java.util.List;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/orders")
 public class OrderController {
 
     private final OrderService orderService;
+    private final ResourceVersions versions;
 
-    public OrderController(OrderService orderService) {
+    public OrderController(OrderService orderService, ResourceVersions versions) {
         this.orderService = orderService;
+        this.versions = versions;
     }
 
     @PostMapping(path = "/purchase", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
@@ -62,12 +74,36 @@ public class OrderController {
                 .map(ResponseEntity::ok);
     }
 
-    @GetMapping(path = "/history", produces = MediaType.APPLICATION_JSON_VALUE)
+    @PostMapping(path = "/purchase/bulk",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE},
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(
+            summary = "Genomför många köp",
+            description = "Tar emot en JSON-array eller NDJSON-ström av köp och kör dem genom samma flöde som /purchase med begränsad parallellitet. "
+                    + "Svarar med en NDJSON-rad per köp i den ordning de blir klara; index anger köpets position i indata."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Resultat per köp",
+                    content = @Content(mediaType = "application/x-ndjson",
+                            schema = @Schema(implementation = BulkPurchaseResult.class),
+                            examples = @ExampleObject(name = "BulkPurchaseResult",
+                                    value = "{\"index\":1,\"success\":true,\"order\":{\"orderId\":\"3fa85f64-5717-4562-b3fc-2c963f66afa6\",\"orderNumber\":\"ORD-ABC12345DEF0\",\"totalAmount\":12999}}\n"
+                                            + "{\"index\":0,\"success\":false,\"problem\":{\"type\":\"about:blank\",\"title\":\"Conflict\",\"status\":409,\"detail\":\"Insufficient stock\"}}")))
+    })
+    public Flux<BulkPurchaseResult> purchaseBulk(@RequestBody Flux<PurchaseRequest> purchaseRequests) {
+        // No authentication required - pass null as token
+        return orderService.purchaseAll(purchaseRequests, null);
+    }
+
+    @GetMapping(path = "/history", produces = {MediaType.APPLICATION_JSON_VALUE,
+            BinaryCodecConfig.APPLICATION_CBOR_VALUE, BinaryCodecConfig.APPLICATION_SMILE_VALUE})
     @Operation(
             summary = "Hämta orderhistorik",
-            description = "Returnerar paginerad lista av användarens ordrar med orderrader."
+            description = "Returnerar paginerad lista av användarens ordrar med orderrader. "
+                    + "Skicka Accept: application/cbor eller application/x-jackson-smile för ett kompakt binärt svar."
     )
     @ApiResponses({
+            @ApiResponse(responseCode = "304", description = "Oförändrad sedan If-None-Match"),
             @ApiResponse(responseCode = "200", description = "OK",
                     content = @Content(mediaType = "application/json",
                             schema = @Schema(implementation = OrderHistoryDto.class),
@@ -75,9 +111,20 @@ public class OrderController {
                                     value = "[{\n  \"id\": \"3fa85f64-5717-4562-b3fc-2c963f66afa6\",\n  \"orderNumber\": \"ORD-ABC12345\",\n  \"totalAmount\": 25998,\n  \"status\": \"CREATED\",\n  \"orderDate\": \"2025-09-12T10:15:30Z\",\n  \"items\": [{\n    \"productId\": \"aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaa3\",\n    \"productName\": \"iPhone 16 Pro\",\n    \"quantity\": 2,\n    \"priceAtPurchase\": 12999\n  }]\n}]")))
     })
     public Mono<ResponseEntity<List<OrderHistoryDto>>> history(
-            @Parameter(description = "Sida (0-baserad)") @RequestParam(defaultValue = "0") int page,
-            @Parameter(description = "Radsstorlek") @RequestParam(defaultValue = "200") int size) {
-        return orderService.getOrderHistory(null, page, size)
-                .map(ResponseEntity::ok);
+            @Parameter(description = "Sida (0-baserad)") @RequestParam(defaultValue = "0") @Min(0) @Max(OrderService.MAX_HISTORY_WINDOW) int page,
+            @Parameter(description = "Radsstorlek") @RequestParam(defaultValue = "200") @Min(1) @Max(OrderService.MAX_HISTORY_PAGE_SIZE) int size,
+            @Parameter(hidden = true) @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            ServerWebExchange exchange) {
+        // Utan token: alla ordrar (för test); med token: användarens historik, från läsmodellen när den är på
+        String token = authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)
+                ? authorization.substring(7).trim()
+                : null;
+        return Mono.fromSupplier(() -> Optional.ofNullable(orderService.historyUser(token)))
+                .flatMap(user -> versions.history(user.orElse(null))
+                        // Oförändrad data ger 304 utan historikfråga och utan serialisering
+                        .flatMap(etag -> exchange.checkNotModified(etag)
+                                ? Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT, HttpHeaders.AUTHORIZATION).<List<OrderHistoryDto>>build())
+                                : orderService.history(user.orElse(null), page, size)
+                                .map(body -> ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT, HttpHeaders.AUTHORIZATION).body(body))));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,53 @@
+package se.moln.orderservice.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import se.moln.orderservice.events.OrderEvent;
+import se.moln.orderservice.events.OrderEventBus;
+
+import java.time.Duration;
+
+@RestController
+@RequestMapping("/api/orders")
+public class OrderEventController {
+
+    private final OrderEventBus eventBus;
+    private final int maxBufferSize;
+    private final Duration heartbeat;
+
+    public OrderEventController(OrderEventBus eventBus,
+                                @Value("${orders.events.sse.max-buffer-size:4096}") int maxBufferSize,
+                                @Value("${orders.events.sse.heartbeat:15s}") Duration heartbeat) {
+        this.eventBus = eventBus;
+        this.maxBufferSize = maxBufferSize;
+        this.heartbeat = heartbeat;
+    }
+
+    @GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(
+            summary = "Prenumerera på orderhändelser",
+            description = "Server-Sent Events med nya ordrar (ORDER_CREATED) och statusändringar (STATUS_CHANGED). "
+                    + "Varje prenumerant har en egen buffert; en långsam klient tappar händelser enligt policy i stället för att bromsa andra."
+    )
+    public Flux<ServerSentEvent<OrderEvent>> events(
+            @Parameter(description = "DROP_OLDEST, DROP_LATEST eller LATEST") @RequestParam(defaultValue = "DROP_OLDEST") OrderEventBus.Policy policy,
+            @Parameter(description = "Buffertstorlek för den här prenumeranten") @RequestParam(defaultValue = "256") int bufferSize) {
+        if (bufferSize < 1 || bufferSize > maxBufferSize) {
+            throw new IllegalArgumentException("bufferSize must be between 1 and " + maxBufferSize);
+        }
+        Flux<ServerSentEvent<OrderEvent>> events = eventBus.subscribe("sse", policy, bufferSize)
+                .map(e -> ServerSentEvent.builder(e)
+                        .event(e.type().name())
+                        .id(e.orderId().toString())
+                        .build());
+        // Kommentarsrader håller anslutningen vid liv genom proxies när det är tyst
+        Flux<ServerSentEvent<OrderEvent>> heartbeats = Flux.interval(heartbeat)
+                .map(tick -> ServerSentEvent.<OrderEvent>builder().comment("heartbeat").build());
+        return Flux.merge(events, heartbeats);
+    }
+}
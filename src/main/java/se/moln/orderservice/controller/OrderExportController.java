@@ -0,0 +1,64 @@
+package se.moln.orderservice.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.service.OrderExportService;
+
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+
+@RestController
+@RequestMapping("/api/orders")
+public class OrderExportController {
+
+    private static final MediaType TEXT_CSV = new MediaType("text", "csv", StandardCharsets.UTF_8);
+    private static final MediaType APPLICATION_GZIP = new MediaType("application", "gzip");
+
+    private final OrderExportService exportService;
+
+    public OrderExportController(OrderExportService exportService) {
+        this.exportService = exportService;
+    }
+
+    @GetMapping("/export")
+    @Operation(
+            summary = "Exportera ordrar som CSV",
+            description = "Strömmar alla orderrader med from <= orderDate < to som CSV, en rad per orderrad. "
+                    + "Läses med en databasmarkör och skrivs direkt till svaret, så minnet är konstant oavsett storlek. "
+                    + "Arkiverade ordrar i intervallet kommer efter de aktiva."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "CSV-fil (eller .csv.gz med gzip=true)"),
+            @ApiResponse(responseCode = "400", description = "from måste vara före to")
+    })
+    public ResponseEntity<Flux<DataBuffer>> export(
+            @Parameter(description = "Från och med (ISO-8601)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+            @Parameter(description = "Till, exklusive (ISO-8601)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to,
+            @Parameter(description = "Bara ordrar med denna status") @RequestParam(required = false) OrderStatus status,
+            @Parameter(description = "Komprimera filen med gzip") @RequestParam(defaultValue = "false") boolean gzip,
+            ServerHttpResponse response) {
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("from must be before to");
+        }
+        String filename = "orders-" + from.toLocalDate() + "-" + to.toLocalDate() + (gzip ? ".csv.gz" : ".csv");
+        return ResponseEntity.ok()
+                .contentType(gzip ? APPLICATION_GZIP : TEXT_CSV)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .body(exportService.export(from, to, status, gzip, response.bufferFactory()));
+    }
+}
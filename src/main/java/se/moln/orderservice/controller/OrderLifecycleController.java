@@ -0,0 +1,70 @@
+package se.moln.orderservice.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+import se.moln.orderservice.dto.BulkTransitionRequest;
+import se.moln.orderservice.dto.BulkTransitionResult;
+import se.moln.orderservice.dto.OrderStatusResponse;
+import se.moln.orderservice.service.OrderLifecycleService;
+
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/api/orders")
+public class OrderLifecycleController {
+
+    private final OrderLifecycleService lifecycleService;
+
+    public OrderLifecycleController(OrderLifecycleService lifecycleService) {
+        this.lifecycleService = lifecycleService;
+    }
+
+    @PostMapping(path = "/{orderId}/complete", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Slutför order", description = "Flyttar en CREATED-order till COMPLETED.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Ordern är slutförd"),
+            @ApiResponse(responseCode = "404", description = "Ordern hittades inte"),
+            @ApiResponse(responseCode = "409", description = "Ordern är inte längre CREATED")
+    })
+    public Mono<ResponseEntity<OrderStatusResponse>> complete(@PathVariable UUID orderId) {
+        return lifecycleService.complete(orderId)
+                .map(ResponseEntity::ok);
+    }
+
+    @PostMapping(path = "/{orderId}/cancel", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Annullera order", description = "Flyttar en CREATED-order till CANCELLED och returnerar lagret.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Ordern är annullerad"),
+            @ApiResponse(responseCode = "404", description = "Ordern hittades inte"),
+            @ApiResponse(responseCode = "409", description = "Ordern är inte längre CREATED")
+    })
+    public Mono<ResponseEntity<OrderStatusResponse>> cancel(@PathVariable UUID orderId) {
+        return lifecycleService.cancel(orderId)
+                .map(ResponseEntity::ok);
+    }
+
+    @PostMapping(path = "/bulk/complete", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(
+            summary = "Slutför många ordrar",
+            description = "Slutför angivna ordrar (orderIds) eller alla CREATED-ordrar lagda före createdBefore. Körs i chunkar med mängdbaserade UPDATE."
+    )
+    public Mono<ResponseEntity<BulkTransitionResult>> completeAll(@RequestBody BulkTransitionRequest request) {
+        return lifecycleService.completeAll(request)
+                .map(ResponseEntity::ok);
+    }
+
+    @PostMapping(path = "/bulk/cancel", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(
+            summary = "Annullera många ordrar",
+            description = "Annullerar angivna ordrar (orderIds) eller alla CREATED-ordrar lagda före createdBefore. Lagret returneras per produkt och chunk."
+    )
+    public Mono<ResponseEntity<BulkTransitionResult>> cancelAll(@RequestBody BulkTransitionRequest request) {
+        return lifecycleService.cancelAll(request)
+                .map(ResponseEntity::ok);
+    }
+}
@@ -0,0 +1,24 @@
+package se.moln.orderservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.http.ProblemDetail;
+
+/**
+ * One line of the bulk purchase NDJSON response. {@code index} is the position of the request in the
+ * submitted stream, since results are written in completion order.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BulkPurchaseResult(
+        long index,
+        boolean success,
+        PurchaseResponse order,
+        ProblemDetail problem
+) {
+    public static BulkPurchaseResult success(long index, PurchaseResponse order) {
+        return new BulkPurchaseResult(index, true, order, null);
+    }
+
+    public static BulkPurchaseResult failure(long index, ProblemDetail problem) {
+        return new BulkPurchaseResult(index, false, null, problem);
+    }
+}
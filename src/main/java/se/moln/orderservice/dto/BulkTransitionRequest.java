@@ -0,0 +1,14 @@
+package se.moln.orderservice.dto;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Selects the orders for a bulk status transition: either an explicit list of ids,
+ * or every CREATED order placed before {@code createdBefore}.
+ */
+public record BulkTransitionRequest(
+        List<UUID> orderIds,
+        OffsetDateTime createdBefore
+) {}
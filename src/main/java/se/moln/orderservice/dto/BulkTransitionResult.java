@@ -0,0 +1,12 @@
+package se.moln.orderservice.dto;
+
+import se.moln.orderservice.model.OrderStatus;
+
+public record BulkTransitionResult(
+        OrderStatus status,
+        long transitioned,
+        int chunks,
+        int inventoryReturnFailures,
+        long elapsedMillis,
+        double ordersPerSecond
+) {}
@@ -0,0 +1,10 @@
+package se.moln.orderservice.dto;
+
+import se.moln.orderservice.model.OrderStatus;
+
+import java.util.UUID;
+
+public record OrderStatusResponse(
+        UUID orderId,
+        OrderStatus status
+) {}
@@ -0,0 +1,21 @@
+package se.moln.orderservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.http.ProblemDetail;
+import se.moln.orderservice.model.OrderStatus;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Status of an asynchronously accepted purchase. {@code totalAmount} is set once the order is CREATED,
+ * {@code problem} only when it FAILED.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PurchaseStatusResponse(
+        UUID orderId,
+        OrderStatus status,
+        String orderNumber,
+        BigDecimal totalAmount,
+        ProblemDetail problem
+) {}
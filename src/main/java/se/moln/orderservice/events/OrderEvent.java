@@ -0,0 +1,36 @@
+package se.moln.orderservice.events;
+
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderStatus;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * Something that happened to an order, published on the {@link OrderEventBus} after it was committed.
+ * Status changes from bulk transitions only carry id and new status.
+ */
+public record OrderEvent(
+        Type type,
+        UUID orderId,
+        UUID userId,
+        String orderNumber,
+        OrderStatus status,
+        BigDecimal totalAmount,
+        OffsetDateTime occurredAt
+) {
+    public enum Type {
+        ORDER_CREATED,
+        STATUS_CHANGED
+    }
+
+    public static OrderEvent created(Order order) {
+        return new OrderEvent(Type.ORDER_CREATED, order.getId(), order.getUserId(), order.getOrderNumber(),
+                order.getStatus(), order.getTotalAmount(), OffsetDateTime.now());
+    }
+
+    public static OrderEvent statusChanged(UUID orderId, OrderStatus status) {
+        return new OrderEvent(Type.STATUS_CHANGED, orderId, null, null, status, null, OffsetDateTime.now());
+    }
+}
@@ -0,0 +1,110 @@
+package se.moln.orderservice.events;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stream of {@link OrderEvent}s.
+ * <p>
+ * Publishing never blocks and never waits for subscribers: the sink is a best-effort multicast and every
+ * subscriber gets its own bounded buffer with an overflow {@link Policy}. A slow subscriber therefore only loses
+ * its own events (counted in {@code orders.events.dropped}), never slows down a purchase or other subscribers.
+ * Subscribers are served on the parallel scheduler, so even a subscriber that blocks cannot stall the publisher;
+ * blocking work (database writes) should still hop to its own scheduler.
+ */
+@Component
+public class OrderEventBus {
+
+    public enum Policy {
+        /** Keep the newest events, drop the oldest buffered one on overflow. */
+        DROP_OLDEST,
+        /** Keep what is buffered, drop new events on overflow. */
+        DROP_LATEST,
+        /** Only keep the most recent event; for dashboards that just need the current state. */
+        LATEST
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(OrderEventBus.class);
+
+    private static final int DELIVERY_PREFETCH = 16;
+
+    private final Sinks.Many<OrderEvent> sink = Sinks.many().multicast().directBestEffort();
+    private final MeterRegistry meterRegistry;
+    private final Counter published;
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final Map<String, Counter> failures = new ConcurrentHashMap<>();
+
+    public OrderEventBus(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.published = Counter.builder("orders.events.published")
+                .description("Order events published on the in-process bus")
+                .register(meterRegistry);
+        Gauge.builder("orders.events.subscribers", subscribers, AtomicInteger::get)
+                .description("Current order event subscribers")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Hands the event to the current subscribers. Never throws and never waits: it is called on the save path,
+     * and an order that is stored must not fail because of the bus. An event that could not be emitted (e.g. two
+     * threads published at the same instant) is counted in {@code orders.events.failed}; the read model repairs
+     * what it missed on its next catch-up.
+     */
+    public void publish(OrderEvent event) {
+        published.increment();
+        Sinks.EmitResult result;
+        try {
+            result = sink.tryEmitNext(event);
+        } catch (RuntimeException e) {
+            log.warn("Order event {} for {} could not be published", event.type(), event.orderId(), e);
+            failed("ERROR").increment();
+            return;
+        }
+        // Inga prenumeranter är normalfallet, inget fel
+        if (result.isFailure() && result != Sinks.EmitResult.FAIL_ZERO_SUBSCRIBER) {
+            log.debug("Order event {} for {} not emitted: {}", event.type(), event.orderId(), result);
+            failed(result.name()).increment();
+        }
+    }
+
+    private Counter failed(String result) {
+        return failures.computeIfAbsent(result, r -> Counter.builder("orders.events.failed")
+                .description("Order events that could not be emitted to subscribers")
+                .tag("result", r)
+                .register(meterRegistry));
+    }
+
+    /**
+     * Subscribes with a private buffer of {@code bufferSize} events. {@code name} tags the drop metrics and should
+     * be low-cardinality (e.g. "sse", "read-model").
+     */
+    public Flux<OrderEvent> subscribe(String name, Policy policy, int bufferSize) {
+        Counter dropped = Counter.builder("orders.events.dropped")
+                .description("Order events a slow subscriber did not keep up with")
+                .tag("subscriber", name)
+                .register(meterRegistry);
+        Flux<OrderEvent> events = sink.asFlux();
+        Flux<OrderEvent> buffered = switch (policy) {
+            case DROP_OLDEST -> events.onBackpressureBuffer(bufferSize, e -> dropped.increment(), BufferOverflowStrategy.DROP_OLDEST);
+            case DROP_LATEST -> events.onBackpressureBuffer(bufferSize, e -> dropped.increment(), BufferOverflowStrategy.DROP_LATEST);
+            // En buffert på ett element som byter ut det äldsta = onBackpressureLatest, men med räknade tapp
+            case LATEST -> events.onBackpressureBuffer(1, e -> dropped.increment(), BufferOverflowStrategy.DROP_OLDEST);
+        };
+        return buffered
+                .publishOn(Schedulers.parallel(), DELIVERY_PREFETCH)
+                .doOnSubscribe(s -> subscribers.incrementAndGet())
+                .doFinally(signal -> subscribers.decrementAndGet());
+    }
+}
@@ -0,0 +1,12 @@
+package se.moln.orderservice.exception;
+
+/**
+ * Thrown when a request's deadline has passed before its work was done. Carries no stack trace: it is an
+ * expected outcome under load and must stay cheap to create.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message, null, false, false);
+    }
+}
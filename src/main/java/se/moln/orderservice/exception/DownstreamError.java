@@ -0,0 +1,67 @@
+package se.moln.orderservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import se.moln.orderservice.resilience.DownstreamResilience;
+
+/**
+ * The expected ways a downstream call ends badly, each with the status and detail the client gets. The mapping
+ * from endpoint and downstream status is fixed, so turning an error into a response is a switch and a string
+ * concatenation.
+ */
+public enum DownstreamError {
+
+    PRODUCT_NOT_FOUND(HttpStatus.NOT_FOUND, "Product not found"),
+    INSUFFICIENT_STOCK(HttpStatus.CONFLICT, "Insufficient stock"),
+    INVALID_REQUEST(HttpStatus.BAD_REQUEST, "Invalid request"),
+    PRODUCT_SERVICE_ERROR(HttpStatus.BAD_GATEWAY, "Product service error"),
+    INVENTORY_SERVICE_ERROR(HttpStatus.BAD_GATEWAY, "Inventory service error");
+
+    private final HttpStatus status;
+    private final String detail;
+
+    DownstreamError(HttpStatus status, String detail) {
+        this.status = status;
+        this.detail = detail;
+    }
+
+    public HttpStatus status() {
+        return status;
+    }
+
+    /**
+     * What a downstream {@code status} from {@code endpoint} (a {@link DownstreamResilience} endpoint name) means
+     * for the client. 400, 404 and 409 are answers about the request and passed on; anything else is the
+     * dependency's problem and becomes 502.
+     */
+    public static DownstreamError of(String endpoint, int status) {
+        return switch (status) {
+            case 400 -> INVALID_REQUEST;
+            case 404 -> PRODUCT_NOT_FOUND;
+            case 409 -> INSUFFICIENT_STOCK;
+            default -> DownstreamResilience.PRODUCT_LOOKUP.equals(endpoint) ? PRODUCT_SERVICE_ERROR : INVENTORY_SERVICE_ERROR;
+        };
+    }
+
+    /**
+     * {@code "<detail> | <context> | cid=<correlation id>"}, leaving out the parts that are missing.
+     */
+    public String detail(String context, String correlationId) {
+        boolean hasContext = context != null && !context.isBlank();
+        if (!hasContext && correlationId == null) {
+            return detail;
+        }
+        StringBuilder sb = new StringBuilder(detail.length() + 64).append(detail);
+        if (hasContext) {
+            sb.append(" | ").append(context);
+        }
+        if (correlationId != null) {
+            sb.append(" | cid=").append(correlationId);
+        }
+        return sb.toString();
+    }
+
+    public ProblemDetail problem(String context, String correlationId) {
+        return ProblemDetail.forStatusAndDetail(status, detail(context, correlationId));
+    }
+}
@@ -0,0 +1,80 @@
+package se.moln.orderservice.exception;
+
+import org.springframework.http.ProblemDetail;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.publisher.Mono;
+
+/**
+ * A downstream call that ended in one of the {@link DownstreamError}s, or a purchase refused locally for the same
+ * reason. Carries no stack trace and builds its message only when asked: out-of-stock and not-found answers are
+ * expected outcomes and must stay as cheap as a success.
+ */
+public class DownstreamException extends RuntimeException {
+
+    private final DownstreamError error;
+    private final int downstreamStatus;
+    private final String context;
+    private final String correlationId;
+
+    public DownstreamException(DownstreamError error, int downstreamStatus, String context, String correlationId) {
+        super(null, null, false, false);
+        this.error = error;
+        this.downstreamStatus = downstreamStatus;
+        this.context = context;
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * Refused without asking the dependency, e.g. a product known to be out of stock.
+     */
+    public static DownstreamException local(DownstreamError error, String context, String correlationId) {
+        return new DownstreamException(error, 0, context, correlationId);
+    }
+
+    /**
+     * For {@code WebClient.ResponseSpec#onStatus}: reads the error body and maps the status. Used instead of the
+     * default {@code WebClientResponseException}, which fills in a stack trace for every 404 and 409.
+     */
+    public static Mono<DownstreamException> from(String endpoint, ClientResponse response, String correlationId) {
+        int status = response.statusCode().value();
+        return response.bodyToMono(String.class)
+                .defaultIfEmpty("")
+                .map(body -> new DownstreamException(DownstreamError.of(endpoint, status), status, body, correlationId));
+    }
+
+    public DownstreamError getError() {
+        return error;
+    }
+
+    /**
+     * Status the dependency answered with, 0 when the request was refused locally.
+     */
+    public int getDownstreamStatus() {
+        return downstreamStatus;
+    }
+
+    public boolean isServerError() {
+        return downstreamStatus >= 500;
+    }
+
+    /**
+     * Whether the answer was about the request (4xx or a local refusal) rather than a sign of an unhealthy
+     * dependency.
+     */
+    public boolean isClientError() {
+        return downstreamStatus < 500 && downstreamStatus != 429;
+    }
+
+    public String getContext() {
+        return context;
+    }
+
+    public ProblemDetail toProblemDetail() {
+        return error.problem(context, correlationId);
+    }
+
+    @Override
+    public String getMessage() {
+        return error.detail(context, correlationId);
+    }
+}
@@ -1,11 +1,16 @@
 package se.moln.orderservice.exception;
 
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.http.ProblemDetail;
 
+import java.util.concurrent.TimeoutException;
+
 @RestControllerAdvice
 public class GlobalExceptionHandler {
 
@@ -15,6 +20,39 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(ex.getStatusCode()).body(pd);
     }
 
+    @ExceptionHandler(ServiceOverloadedException.class)
+    public ResponseEntity<ProblemDetail> handleOverloaded(ServiceOverloadedException ex) {
+        ProblemDetail pd = ProblemDetail.forStatusAndDetail(org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage());
+        return ResponseEntity.status(org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE)
+                .header(org.springframework.http.HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, ex.getRetryAfter().toSeconds())))
+                .body(pd);
+    }
+
+    @ExceptionHandler(DownstreamException.class)
+    public ResponseEntity<ProblemDetail> handleDownstream(DownstreamException ex) {
+        // Förberäknad mall: ingen stackspårning, ingen reflektion, bara status och en sammansatt detail
+        ProblemDetail pd = ex.toProblemDetail();
+        return ResponseEntity.status(pd.getStatus()).body(pd);
+    }
+
+    @ExceptionHandler(WebClientResponseException.class)
+    public ResponseEntity<ProblemDetail> handleUnmappedDownstream(WebClientResponseException ex) {
+        ProblemDetail pd = ProblemDetails.from(ex);
+        return ResponseEntity.status(pd.getStatus()).body(pd);
+    }
+
+    @ExceptionHandler({CallNotPermittedException.class, BulkheadFullException.class})
+    public ResponseEntity<ProblemDetail> handleDownstreamUnavailable(RuntimeException ex) {
+        ProblemDetail pd = ProblemDetails.from(ex);
+        return ResponseEntity.status(pd.getStatus()).body(pd);
+    }
+
+    @ExceptionHandler({TimeoutException.class, DeadlineExceededException.class})
+    public ResponseEntity<ProblemDetail> handleDownstreamTimeout(Exception ex) {
+        ProblemDetail pd = ProblemDetails.from(ex);
+        return ResponseEntity.status(pd.getStatus()).body(pd);
+    }
+
     @ExceptionHandler(IllegalArgumentException.class)
     public ResponseEntity<ProblemDetail> handleIllegalArgument(IllegalArgumentException ex) {
         ProblemDetail pd = ProblemDetail.forStatusAndDetail(org.springframework.http.HttpStatus.BAD_REQUEST, ex.getMessage());
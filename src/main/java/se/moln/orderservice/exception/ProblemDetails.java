@@ -0,0 +1,48 @@
+package se.moln.orderservice.exception;
+
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Maps a failed purchase to the problem detail the client would have received from the single purchase endpoint.
+ */
+public final class ProblemDetails {
+
+    private ProblemDetails() {
+    }
+
+    public static ProblemDetail from(Throwable err) {
+        if (err instanceof DownstreamException de) {
+            return de.toProblemDetail();
+        }
+        if (err instanceof ResponseStatusException rse) {
+            return ProblemDetail.forStatusAndDetail(rse.getStatusCode(), rse.getReason());
+        }
+        if (err instanceof WebClientResponseException wcre) {
+            String body = wcre.getResponseBodyAsString();
+            return ProblemDetail.forStatusAndDetail(wcre.getStatusCode(), body.isBlank() ? wcre.getStatusText() : body);
+        }
+        if (err instanceof ServiceOverloadedException) {
+            return ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, err.getMessage());
+        }
+        if (err instanceof CallNotPermittedException || err instanceof BulkheadFullException) {
+            return ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, "Product service unavailable, try again later");
+        }
+        if (err instanceof DeadlineExceededException) {
+            return ProblemDetail.forStatusAndDetail(HttpStatus.GATEWAY_TIMEOUT, err.getMessage());
+        }
+        if (err instanceof TimeoutException) {
+            return ProblemDetail.forStatusAndDetail(HttpStatus.GATEWAY_TIMEOUT, "Product service did not answer in time");
+        }
+        if (err instanceof IllegalArgumentException) {
+            return ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, err.getMessage());
+        }
+        return ProblemDetail.forStatusAndDetail(HttpStatus.INTERNAL_SERVER_ERROR, "Purchase failed");
+    }
+}
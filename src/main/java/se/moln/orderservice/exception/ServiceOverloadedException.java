@@ -0,0 +1,21 @@
+package se.moln.orderservice.exception;
+
+import java.time.Duration;
+
+/**
+ * Thrown when admission control sheds a request. Carries no stack trace: it is an expected outcome
+ * under load and must stay cheap to create.
+ */
+public class ServiceOverloadedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public ServiceOverloadedException(String message, Duration retryAfter) {
+        super(message, null, false, false);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,113 @@
+package se.moln.orderservice.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import se.moln.orderservice.exception.DownstreamException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer instrumentation for the purchase pipeline.
+ * <p>
+ * Every downstream call and the order save are timed per stage and tagged with the outcome,
+ * so the Prometheus endpoint shows both where the time goes and how many calls fail where.
+ */
+@Component
+public class PurchaseMetrics {
+
+    public static final String STAGE_PRODUCT_LOOKUP = "product_lookup";
+    public static final String STAGE_INVENTORY_RESERVE = "inventory_reserve";
+    public static final String STAGE_ORDER_SAVE = "order_save";
+    public static final String STAGE_INVENTORY_RETURN = "inventory_return";
+
+    private final MeterRegistry registry;
+    private final Timer saveQueueDelay;
+    private final Counter rollbacks;
+    private final Counter compensationFailures;
+    private final Counter speculativeCompensations;
+
+    public PurchaseMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.saveQueueDelay = Timer.builder("orders.purchase.save.queue")
+                .description("Time an order save waits for a blocking worker thread")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.rollbacks = Counter.builder("orders.purchase.rollbacks")
+                .description("Purchases whose reserved stock had to be returned")
+                .register(registry);
+        this.compensationFailures = Counter.builder("orders.purchase.compensation.failures")
+                .description("Inventory returns that failed during a rollback")
+                .register(registry);
+        this.speculativeCompensations = Counter.builder("orders.purchase.speculative.compensations")
+                .description("Speculative reservations returned because the product lookup failed")
+                .register(registry);
+    }
+
+    /**
+     * Times a whole purchase, from the first product lookup until the order is saved or has failed.
+     */
+    public <T> Mono<T> timePurchase(Mono<T> purchase) {
+        return time("orders.purchase", null, purchase);
+    }
+
+    /**
+     * Times a single pipeline stage, tagged with stage name and outcome.
+     */
+    public <T> Mono<T> timeStage(String stage, Mono<T> call) {
+        return time("orders.purchase.stage", stage, call);
+    }
+
+    public void recordSaveQueueDelay(long nanos) {
+        saveQueueDelay.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void rollback() {
+        rollbacks.increment();
+    }
+
+    public void compensationFailure() {
+        compensationFailures.increment();
+    }
+
+    public void speculativeCompensation() {
+        speculativeCompensations.increment();
+    }
+
+    public MeterRegistry registry() {
+        return registry;
+    }
+
+    private <T> Mono<T> time(String name, String stage, Mono<T> call) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(registry);
+            return call
+                    .doOnSuccess(v -> stop(sample, name, stage, "success"))
+                    .doOnError(err -> stop(sample, name, stage, outcome(err)))
+                    .doOnCancel(() -> stop(sample, name, stage, "cancelled"));
+        });
+    }
+
+    private void stop(Timer.Sample sample, String name, String stage, String outcome) {
+        Timer.Builder builder = Timer.builder(name)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram();
+        if (stage != null) {
+            builder.tag("stage", stage);
+        }
+        sample.stop(builder.register(registry));
+    }
+
+    static String outcome(Throwable err) {
+        if (err instanceof DownstreamException de) {
+            return de.isClientError() ? "client_error" : "server_error";
+        }
+        if (err instanceof WebClientResponseException wcre) {
+            return wcre.getStatusCode().is4xxClientError() ? "client_error" : "server_error";
+        }
+        return "error";
+    }
+}
@@ -0,0 +1,109 @@
+package se.moln.orderservice.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+/**
+ * Per-endpoint database statistics: statements executed, entities loaded, lazy collection fetches and slow
+ * statements for one unit of repository work.
+ * <p>
+ * Work wrapped in {@link #measured} runs with a thread-local scope; Hibernate's session and event listeners
+ * ({@link QueryStatisticsSessionListener}, {@link QueryStatisticsIntegrator}) count into it. When the work ends the
+ * counts are recorded as {@code orders.db.*} summaries tagged with the endpoint, in the global registry that
+ * Spring Boot's registry is part of. Work outside a scope is not counted.
+ */
+public final class QueryStatistics {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryStatistics.class);
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+    private static volatile long slowStatementNanos = Duration.ofMillis(200).toNanos();
+
+    private QueryStatistics() {
+    }
+
+    public static void slowStatementThreshold(Duration threshold) {
+        slowStatementNanos = threshold.toNanos();
+    }
+
+    /**
+     * Wraps repository work so that the statements it runs are counted for {@code endpoint}.
+     */
+    public static <T> Callable<T> measured(String endpoint, Callable<T> work) {
+        return () -> {
+            Scope previous = CURRENT.get();
+            Scope scope = new Scope(endpoint);
+            CURRENT.set(scope);
+            try {
+                return work.call();
+            } finally {
+                if (previous == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previous);
+                }
+                scope.record(Metrics.globalRegistry);
+            }
+        };
+    }
+
+    static void statementExecuted(long nanos) {
+        Scope scope = CURRENT.get();
+        if (scope == null) {
+            return;
+        }
+        scope.statements++;
+        if (nanos >= slowStatementNanos) {
+            scope.slowStatements++;
+            log.warn("Slow statement for {}: {} ms", scope.endpoint, nanos / 1_000_000);
+        }
+    }
+
+    static void entityLoaded() {
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            scope.entitiesLoaded++;
+        }
+    }
+
+    static void collectionFetched() {
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            scope.collectionsFetched++;
+        }
+    }
+
+    // Används bara av en tråd åt gången, räknarna behöver inte vara atomära
+    private static final class Scope {
+        private final String endpoint;
+        private long statements;
+        private long slowStatements;
+        private long entitiesLoaded;
+        private long collectionsFetched;
+
+        Scope(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        void record(MeterRegistry registry) {
+            summary(registry, "orders.db.statements", "JDBC statements per unit of repository work").record(statements);
+            summary(registry, "orders.db.entities.loaded", "Entities loaded per unit of repository work").record(entitiesLoaded);
+            summary(registry, "orders.db.collections.fetched", "Lazy collections fetched per unit of repository work").record(collectionsFetched);
+            if (slowStatements > 0) {
+                registry.counter("orders.db.statements.slow", "endpoint", endpoint).increment(slowStatements);
+            }
+        }
+
+        private DistributionSummary summary(MeterRegistry registry, String name, String description) {
+            return DistributionSummary.builder(name)
+                    .description(description)
+                    .tag("endpoint", endpoint)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package se.moln.orderservice.metrics;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.InitializeCollectionEvent;
+import org.hibernate.event.spi.InitializeCollectionEventListener;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PostLoadEventListener;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+/**
+ * Counts entity loads and lazy collection initialisations for {@link QueryStatistics}. Collections fetched in the
+ * same query as their owner (entity graphs, join fetch) do not count; a growing collection count per request is
+ * the N+1 signature.
+ */
+public class QueryStatisticsIntegrator implements Integrator {
+
+    @Override
+    public void integrate(Metadata metadata, BootstrapContext bootstrapContext, SessionFactoryImplementor sessionFactory) {
+        EventListenerRegistry listeners = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        listeners.appendListeners(EventType.POST_LOAD, (PostLoadEventListener) (PostLoadEvent event) -> QueryStatistics.entityLoaded());
+        listeners.appendListeners(EventType.INIT_COLLECTION,
+                (InitializeCollectionEventListener) (InitializeCollectionEvent event) -> QueryStatistics.collectionFetched());
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+        // Lyssnarna försvinner med sessionsfabriken
+    }
+}
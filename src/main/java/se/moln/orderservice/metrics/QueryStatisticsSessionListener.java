@@ -0,0 +1,33 @@
+package se.moln.orderservice.metrics;
+
+import org.hibernate.SessionEventListener;
+
+/**
+ * Times every JDBC statement (and batch) of a session for {@link QueryStatistics}.
+ * Hibernate creates one instance per session, through {@code hibernate.session.events.auto}.
+ */
+public class QueryStatisticsSessionListener implements SessionEventListener {
+
+    private long statementStart;
+    private long batchStart;
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        statementStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        QueryStatistics.statementExecuted(System.nanoTime() - statementStart);
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        batchStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        QueryStatistics.statementExecuted(System.nanoTime() - batchStart);
+    }
+}
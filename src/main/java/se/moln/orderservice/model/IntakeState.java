@@ -0,0 +1,8 @@
+package se.moln.orderservice.model;
+
+public enum IntakeState {
+    ACCEPTED,
+    PROCESSING,
+    DONE,
+    FAILED
+}
@@ -1,18 +1,33 @@
 package se.moln.orderservice.model;
 
 import jakarta.persistence.*;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.UUID;
 
+/**
+ * Equality is identity: two instances are equal when they have the same id, never by comparing fields or items.
+ * The hash code is constant per class so that an order keeps its hash when persisting assigns the id.
+ */
 @Entity
 @Table(name = "orders")
-@Data
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Order.CACHE_REGION)
+@Getter
+@Setter
+@ToString(exclude = "orderItems")
 @NoArgsConstructor
 public class Order {
+    public static final String CACHE_REGION = "orders";
+    public static final String ITEMS_CACHE_REGION = "orders.items";
+
     @Id
     @GeneratedValue(strategy = GenerationType.UUID)
     private UUID id;
@@ -22,7 +37,29 @@ public class Order {
     private OffsetDateTime orderDate;
     @Enumerated(EnumType.STRING)
     private OrderStatus status;
+    // Versionen för villkorade GET (ETag); sätts vid varje insert och update
+    private OffsetDateTime lastModified;
 
     @OneToMany(mappedBy = "order", cascade = CascadeType.ALL, orphanRemoval = true)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Order.ITEMS_CACHE_REGION)
     private List<OrderItem> orderItems;
-}
\ No newline at end of file
+
+    @PrePersist
+    @PreUpdate
+    void touch() {
+        lastModified = OffsetDateTime.now();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof Order other && id != null && id.equals(other.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Order.class.hashCode();
+    }
+}
@@ -0,0 +1,59 @@
+package se.moln.orderservice.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Persistable;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * One order in the history read model, with its items embedded as Smile. {@code sourceModified} is the
+ * {@code last_modified} of the order the row was projected from.
+ */
+@Entity
+@Table(name = "order_history")
+@Data
+@NoArgsConstructor
+public class OrderHistoryEntry implements Persistable<UUID> {
+    @Id
+    private UUID orderId;
+    private UUID userId;
+    private String orderNumber;
+    @Enumerated(EnumType.STRING)
+    private OrderStatus status;
+    private BigDecimal totalAmount;
+    private OffsetDateTime orderDate;
+    private byte[] items;
+    private OffsetDateTime sourceModified;
+    private OffsetDateTime projectedAt;
+
+    // Nya rader sparas med persist direkt, utan den SELECT som merge gör för ett satt id
+    @Transient
+    private boolean fresh;
+
+    public static OrderHistoryEntry create(UUID orderId) {
+        OrderHistoryEntry entry = new OrderHistoryEntry();
+        entry.setOrderId(orderId);
+        entry.setFresh(true);
+        return entry;
+    }
+
+    @Override
+    public UUID getId() {
+        return orderId;
+    }
+
+    @Override
+    public boolean isNew() {
+        return fresh;
+    }
+
+    @PostLoad
+    @PostPersist
+    void stored() {
+        fresh = false;
+    }
+}
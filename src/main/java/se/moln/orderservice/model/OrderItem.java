@@ -1,16 +1,29 @@
 package se.moln.orderservice.model;
 
 import jakarta.persistence.*;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import java.math.BigDecimal;
 import java.util.UUID;
 
+/**
+ * Identity-based equality like {@link Order}; the back reference is left out of {@code toString}.
+ */
 @Entity
 @Table(name = "order_items")
-@Data
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = OrderItem.CACHE_REGION)
+@Getter
+@Setter
+@ToString(exclude = "order")
 @NoArgsConstructor
 public class OrderItem {
+    public static final String CACHE_REGION = "order-items";
+
     @Id
     @GeneratedValue(strategy = GenerationType.UUID)
     private UUID id;
@@ -22,4 +35,17 @@ public class OrderItem {
     @ManyToOne
     @JoinColumn(name = "order_id")
     private Order order;
-}
\ No newline at end of file
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof OrderItem other && id != null && id.equals(other.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return OrderItem.class.hashCode();
+    }
+}
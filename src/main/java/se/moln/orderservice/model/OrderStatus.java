@@ -1,7 +1,11 @@
 package se.moln.orderservice.model;
 
 public enum OrderStatus {
+    // Mottagen via /purchase/async, lager ännu inte reserverat
+    PENDING,
     CREATED,
     COMPLETED,
-    CANCELLED
+    CANCELLED,
+    // Asynkront köp som inte gick att genomföra
+    FAILED
 }
@@ -0,0 +1,45 @@
+package se.moln.orderservice.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * Journal entry for an asynchronously accepted purchase. Shares its id with the PENDING order it belongs to.
+ * Equality is identity by {@code orderId}, like {@link Order}; the payload is left out of {@code toString}.
+ */
+@Entity
+@Table(name = "purchase_intake")
+@Getter
+@Setter
+@ToString(exclude = "payload")
+@NoArgsConstructor
+public class PurchaseIntake {
+    @Id
+    private UUID orderId;
+    @Lob
+    private String payload;
+    @Enumerated(EnumType.STRING)
+    private IntakeState state;
+    private Integer problemStatus;
+    private String problemDetail;
+    private OffsetDateTime acceptedAt;
+    private OffsetDateTime updatedAt;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof PurchaseIntake other && orderId != null && orderId.equals(other.getOrderId());
+    }
+
+    @Override
+    public int hashCode() {
+        return PurchaseIntake.class.hashCode();
+    }
+}
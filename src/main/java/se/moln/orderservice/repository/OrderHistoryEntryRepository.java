@@ -0,0 +1,30 @@
+package se.moln.orderservice.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import se.moln.orderservice.model.OrderHistoryEntry;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface OrderHistoryEntryRepository extends JpaRepository<OrderHistoryEntry, UUID> {
+
+    // En tabell, ett index: ingen join mot order_items
+    @Query("select e from OrderHistoryEntry e where e.userId = :userId order by e.orderDate desc, e.orderId")
+    List<OrderHistoryEntry> findNewestByUserId(@Param("userId") UUID userId, Pageable pageable);
+
+    @Query("select count(e) as count, max(e.sourceModified) as lastModified from OrderHistoryEntry e where e.userId = :userId")
+    OrderRepository.DataVersion versionByUserId(@Param("userId") UUID userId);
+
+    @Query("select max(e.sourceModified) from OrderHistoryEntry e")
+    OffsetDateTime lastSourceModified();
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from OrderHistoryEntry e where e.orderId in :orderIds")
+    int deleteByOrderIdIn(@Param("orderIds") Collection<UUID> orderIds);
+}
@@ -1,23 +1,95 @@
 package se.moln.orderservice.repository;
 
-import org.springframework.data.domain.Page;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import se.moln.orderservice.model.Order;
 import se.moln.orderservice.model.OrderStatus;
 
 import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
 public interface OrderRepository extends JpaRepository<Order, UUID> {
     List<Order> findByUserIdOrderByOrderDateDesc(UUID userId);
 
+    // Historik: först en sida id:n (indexet räcker), sedan ordrarna med rader via findByIdIn.
+    // En entity graph direkt på en sida skulle paginera i minnet.
+    @Query("select o.id from Order o order by o.orderDate desc, o.id")
+    List<UUID> findIdsNewestFirst(Pageable pageable);
+
+    @Query("select o.id from Order o where o.userId = :userId order by o.orderDate desc, o.id")
+    List<UUID> findIdsByUserIdNewestFirst(@Param("userId") UUID userId, Pageable pageable);
+
+    //används av analytics. Hämtar sålda ordrar (CREATED och COMPLETED) i intervallet och laddar orderItems
     @EntityGraph(attributePaths = {"orderItems"})
-    Page<Order> findByUserId(UUID userId, Pageable pageable);
+    List<Order> findByStatusInAndOrderDateBetween(Collection<OrderStatus> statuses, OffsetDateTime from, OffsetDateTime to);
+
+    // Livscykel: statusövergångar görs som mängdbaserade UPDATE, aldrig load-modify-save per order
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Order o set o.status = :to, o.lastModified = offset datetime where o.id in :ids and o.status = :from")
+    int transitionStatus(@Param("ids") Collection<UUID> ids, @Param("from") OrderStatus from, @Param("to") OrderStatus to);
+
+    @Query("select o.id from Order o where o.status = :status and o.orderDate < :before order by o.orderDate")
+    List<UUID> findIdsByStatusAndOrderDateBefore(@Param("status") OrderStatus status, @Param("before") OffsetDateTime before, Pageable pageable);
+
+    // Låser raderna så att en annullering bara returnerar lager för ordrar den faktiskt flyttar
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select o.id from Order o where o.id in :ids and o.status = :status")
+    List<UUID> lockIdsByStatus(@Param("ids") Collection<UUID> ids, @Param("status") OrderStatus status);
+
+    @Query("select i.productId as productId, sum(i.quantity) as quantity from OrderItem i where i.order.id in :orderIds group by i.productId")
+    List<ProductQuantity> sumQuantitiesByProduct(@Param("orderIds") Collection<UUID> orderIds);
+
+    // Arkivering: äldsta ordrar i sluttillstånd först, sedan hela ordrar med rader i en fråga
+    @Query("select o.id from Order o where o.status in :statuses and o.orderDate < :before order by o.orderDate")
+    List<UUID> findIdsByStatusInAndOrderDateBefore(@Param("statuses") Collection<OrderStatus> statuses, @Param("before") OffsetDateTime before, Pageable pageable);
 
-    //används av analytics. Hämtar COMPLETED ordrar i intervallet och laddar orderItems
     @EntityGraph(attributePaths = {"orderItems"})
-    List<Order> findByStatusAndOrderDateBetween(OrderStatus status, OffsetDateTime from, OffsetDateTime to);
+    List<Order> findByIdIn(Collection<UUID> ids);
+
+    // Ikapphämtning av läsmodellen: ordrar i ändringsordning, nyckelbaserad paginering på (lastModified, id)
+    @Query("select o.id from Order o where o.lastModified >= :from and o.lastModified < :until order by o.lastModified, o.id")
+    List<UUID> findIdsModifiedFrom(@Param("from") OffsetDateTime from, @Param("until") OffsetDateTime until, Pageable pageable);
+
+    @Query("select o.id from Order o where (o.lastModified > :after or (o.lastModified = :after and o.id > :afterId))"
+            + " and o.lastModified < :until order by o.lastModified, o.id")
+    List<UUID> findIdsModifiedAfter(@Param("after") OffsetDateTime after, @Param("afterId") UUID afterId,
+                                    @Param("until") OffsetDateTime until, Pageable pageable);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from OrderItem i where i.order.id in :orderIds")
+    int deleteItemsByOrderIdIn(@Param("orderIds") Collection<UUID> orderIds);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Order o where o.id in :ids")
+    int deleteByIdIn(@Param("ids") Collection<UUID> ids);
+
+    // Billiga versioner för ETag: varje insert, statusändring och borttagning ändrar antal eller max(lastModified)
+    @Query("select count(o) as count, max(o.lastModified) as lastModified from Order o")
+    DataVersion version();
+
+    @Query("select count(o) as count, max(o.lastModified) as lastModified from Order o where o.userId = :userId")
+    DataVersion versionByUserId(@Param("userId") UUID userId);
+
+    @Query("select count(o) as count, max(o.lastModified) as lastModified from Order o where o.orderDate between :from and :to")
+    DataVersion versionByOrderDateBetween(@Param("from") OffsetDateTime from, @Param("to") OffsetDateTime to);
+
+    interface DataVersion {
+        long getCount();
+
+        OffsetDateTime getLastModified();
+    }
+
+    interface ProductQuantity {
+        UUID getProductId();
+
+        Long getQuantity();
+    }
 }
@@ -0,0 +1,34 @@
+package se.moln.orderservice.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import se.moln.orderservice.model.IntakeState;
+import se.moln.orderservice.model.PurchaseIntake;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface PurchaseIntakeRepository extends JpaRepository<PurchaseIntake, UUID> {
+
+    @Query("select i.orderId from PurchaseIntake i where i.state = :state order by i.acceptedAt")
+    List<UUID> findIdsByState(@Param("state") IntakeState state);
+
+    // Villkorad övergång: bara en worker kan ta ett ACCEPTED-köp
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update PurchaseIntake i set i.state = :to, i.updatedAt = :now where i.orderId = :id and i.state = :from")
+    int transition(@Param("id") UUID id, @Param("from") IntakeState from, @Param("to") IntakeState to, @Param("now") OffsetDateTime now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update PurchaseIntake i set i.state = :state, i.problemStatus = :problemStatus, i.problemDetail = :problemDetail, "
+            + "i.updatedAt = :now where i.orderId = :id")
+    int finish(@Param("id") UUID id, @Param("state") IntakeState state, @Param("problemStatus") Integer problemStatus,
+               @Param("problemDetail") String problemDetail, @Param("now") OffsetDateTime now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from PurchaseIntake i where i.orderId in :orderIds")
+    int deleteByOrderIdIn(@Param("orderIds") Collection<UUID> orderIds);
+}
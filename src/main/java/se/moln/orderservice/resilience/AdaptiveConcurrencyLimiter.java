@@ -0,0 +1,153 @@
+package se.moln.orderservice.resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import se.moln.orderservice.exception.DownstreamException;
+import se.moln.orderservice.exception.ServiceOverloadedException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Global AIMD concurrency limit in front of the purchase pipeline.
+ * <p>
+ * A purchase is admitted only while fewer than {@code limit} are in flight; everything else is rejected at once
+ * with {@link ServiceOverloadedException} instead of queueing. The limit grows by roughly one per window of fast
+ * completions and is cut by {@code backoff-ratio} whenever a purchase is slower than {@code latency-threshold}
+ * or fails in a way that signals downstream overload (5xx, timeouts, connection errors).
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+    private final Duration retryAfter;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter rejected;
+    private double limit; // guarded by this
+
+    public AdaptiveConcurrencyLimiter(MeterRegistry meterRegistry,
+                                      @Value("${orders.admission.enabled:true}") boolean enabled,
+                                      @Value("${orders.admission.initial-limit:50}") int initialLimit,
+                                      @Value("${orders.admission.min-limit:5}") int minLimit,
+                                      @Value("${orders.admission.max-limit:500}") int maxLimit,
+                                      @Value("${orders.admission.latency-threshold:2s}") Duration latencyThreshold,
+                                      @Value("${orders.admission.backoff-ratio:0.9}") double backoffRatio,
+                                      @Value("${orders.admission.retry-after:1s}") Duration retryAfter) {
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.retryAfter = retryAfter;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+
+        Gauge.builder("orders.admission.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Current adaptive concurrency limit for purchases")
+                .register(meterRegistry);
+        Gauge.builder("orders.admission.inflight", inFlight, AtomicInteger::get)
+                .description("Purchases currently in flight")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("orders.admission.rejected")
+                .description("Purchases rejected by admission control")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code work} if there is room under the current limit, otherwise fails fast.
+     */
+    public <T> Mono<T> guard(Mono<T> work) {
+        if (!enabled) {
+            return work;
+        }
+        return Mono.defer(() -> {
+            if (!tryAcquire()) {
+                rejected.increment();
+                return Mono.error(new ServiceOverloadedException("Too many concurrent purchases, try again later", retryAfter));
+            }
+            long startedAt = System.nanoTime();
+            AtomicBoolean released = new AtomicBoolean();
+            return work
+                    .doOnSuccess(v -> {
+                        if (released.compareAndSet(false, true)) {
+                            release(System.nanoTime() - startedAt);
+                        }
+                    })
+                    .doOnError(err -> {
+                        if (released.compareAndSet(false, true)) {
+                            if (isOverloadSignal(err)) {
+                                releaseDropped();
+                            } else {
+                                release(System.nanoTime() - startedAt);
+                            }
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        if (released.compareAndSet(false, true)) {
+                            inFlight.decrementAndGet();
+                        }
+                    });
+        });
+    }
+
+    public synchronized double getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) getLimit()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release(long rttNanos) {
+        int wasInFlight = inFlight.getAndDecrement();
+        synchronized (this) {
+            if (rttNanos > latencyThresholdNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (wasInFlight * 2 >= limit) {
+                // Öka bara när gränsen faktiskt används, annars växer den utan att ha prövats
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+        }
+    }
+
+    void releaseDropped() {
+        inFlight.decrementAndGet();
+        synchronized (this) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        }
+    }
+
+    private static boolean isOverloadSignal(Throwable err) {
+        if (err instanceof DownstreamException de) {
+            return de.isServerError();
+        }
+        if (err instanceof WebClientResponseException wcre) {
+            return wcre.getStatusCode().is5xxServerError();
+        }
+        return err instanceof TimeoutException || err instanceof WebClientRequestException;
+    }
+}
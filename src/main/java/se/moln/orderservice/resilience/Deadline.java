@@ -0,0 +1,58 @@
+package se.moln.orderservice.resilience;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+
+/**
+ * Point in time after which nobody is waiting for the result of a request any more.
+ * <p>
+ * Carried in the Reactor context under {@link #CONTEXT_KEY}. Downstream calls only get the time that is left and
+ * forward it in {@link #HEADER}, so every hop can give up at the same moment as the original caller.
+ */
+public final class Deadline {
+
+    public static final String HEADER = "X-Request-Timeout-Ms";
+    public static final String CONTEXT_KEY = "deadline";
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static Deadline after(Duration budget) {
+        return new Deadline(System.nanoTime() + budget.toNanos());
+    }
+
+    /**
+     * Deadline of the current request, or {@code null} if it has none.
+     */
+    public static Deadline from(ContextView ctx) {
+        return ctx.getOrDefault(CONTEXT_KEY, null);
+    }
+
+    /**
+     * Removes the deadline, for work that must finish even after the caller gave up (compensations).
+     */
+    public static Context clear(Context ctx) {
+        return ctx.delete(CONTEXT_KEY);
+    }
+
+    public Duration remaining() {
+        long left = deadlineNanos - System.nanoTime();
+        return left > 0 ? Duration.ofNanos(left) : Duration.ZERO;
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Remaining budget rounded up to whole milliseconds, as sent in {@link #HEADER}.
+     */
+    public long remainingMillis() {
+        return (remaining().toNanos() + 999_999) / 1_000_000;
+    }
+}
@@ -0,0 +1,52 @@
+package se.moln.orderservice.resilience;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiPredicate;
+
+/**
+ * Reactor {@link Retry} with "decorrelated jitter" backoff: each sleep is drawn uniformly from
+ * {@code [base, 3 * previous sleep]} and capped at {@code maxDelay}. Compared with plain exponential backoff the
+ * retries of many clients spread out instead of arriving in synchronized waves.
+ * <p>
+ * {@code shouldRetry} gets the failure and the number of the retry about to be made (1-based) and alone decides
+ * whether it happens, so callers can cap attempts, classify errors and spend a retry budget there.
+ */
+public class DecorrelatedJitterRetry extends Retry {
+
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    private final BiPredicate<Throwable, Long> shouldRetry;
+
+    public DecorrelatedJitterRetry(Duration baseDelay, Duration maxDelay, BiPredicate<Throwable, Long> shouldRetry) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.shouldRetry = shouldRetry;
+    }
+
+    @Override
+    public Publisher<?> generateCompanion(Flux<RetrySignal> retrySignals) {
+        // Anropas en gång per prenumeration, så föregående sömn är per anrop
+        long[] previousSleepNanos = {baseDelay.toNanos()};
+        return retrySignals.concatMap(signal -> {
+            long retry = signal.totalRetries() + 1;
+            if (!shouldRetry.test(signal.failure(), retry)) {
+                return Mono.error(signal.failure());
+            }
+            long sleep = nextSleepNanos(previousSleepNanos[0]);
+            previousSleepNanos[0] = sleep;
+            return Mono.delay(Duration.ofNanos(sleep));
+        });
+    }
+
+    long nextSleepNanos(long previousSleepNanos) {
+        long base = baseDelay.toNanos();
+        long upper = Math.max(base + 1, previousSleepNanos * 3);
+        return Math.min(maxDelay.toNanos(), ThreadLocalRandom.current().nextLong(base, upper));
+    }
+}
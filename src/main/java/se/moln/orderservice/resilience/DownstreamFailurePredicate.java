@@ -0,0 +1,26 @@
+package se.moln.orderservice.resilience;
+
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import se.moln.orderservice.exception.DownstreamException;
+
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+/**
+ * Decides which downstream errors count against a circuit breaker. Only signs of an unhealthy dependency do
+ * (5xx, timeouts, connection errors); 404 and 409 are normal answers and must not open the breaker.
+ */
+public class DownstreamFailurePredicate implements Predicate<Throwable> {
+
+    @Override
+    public boolean test(Throwable err) {
+        if (err instanceof DownstreamException de) {
+            return de.isServerError();
+        }
+        if (err instanceof WebClientResponseException wcre) {
+            return wcre.getStatusCode().is5xxServerError();
+        }
+        return err instanceof TimeoutException || err instanceof WebClientRequestException;
+    }
+}
@@ -0,0 +1,75 @@
+package se.moln.orderservice.resilience;
+
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import se.moln.orderservice.exception.DeadlineExceededException;
+
+import java.time.Duration;
+
+/**
+ * Wraps every downstream call in a per-endpoint bulkhead, a timeout and a circuit breaker.
+ * <p>
+ * Breakers and bulkheads are configured under {@code resilience4j.*.instances.<endpoint>}. Separate bulkheads
+ * keep a slow {@code /return} from using up the concurrency that {@code /purchase} needs.
+ */
+@Component
+public class DownstreamResilience {
+
+    public static final String PRODUCT_LOOKUP = "productLookup";
+    public static final String INVENTORY_RESERVE = "inventoryReserve";
+    public static final String INVENTORY_RETURN = "inventoryReturn";
+
+    private final CircuitBreakerRegistry circuitBreakers;
+    private final BulkheadRegistry bulkheads;
+    private final Duration timeout;
+
+    public DownstreamResilience(CircuitBreakerRegistry circuitBreakers,
+                                BulkheadRegistry bulkheads,
+                                @Value("${orders.downstream.timeout:3s}") Duration timeout) {
+        this.circuitBreakers = circuitBreakers;
+        this.bulkheads = bulkheads;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Decorates one attempt. With a {@link Deadline} in the context the timeout is cut to the time that is left,
+     * and a call whose deadline has already passed is not sent at all. Running out of deadline fails with
+     * {@link DeadlineExceededException}, which does not count against the breaker: the dependency was not slow,
+     * the caller was out of time.
+     */
+    public <T> Mono<T> decorate(String endpoint, Mono<T> call) {
+        return decorate(endpoint, call, true);
+    }
+
+    /**
+     * Decorates a call that changes state downstream (a stock reservation). An expired deadline still keeps it
+     * from being sent, but once sent it gets the whole {@code orders.downstream.timeout}: cut off at the deadline,
+     * nobody would know whether it was applied, and a purchase that gave up could not undo it.
+     */
+    public <T> Mono<T> decorateOnceSent(String endpoint, Mono<T> call) {
+        return decorate(endpoint, call, false);
+    }
+
+    private <T> Mono<T> decorate(String endpoint, Mono<T> call, boolean cutAtDeadline) {
+        return Mono.deferContextual(ctx -> {
+            Deadline deadline = Deadline.from(ctx);
+            Mono<T> bounded = call.transformDeferred(BulkheadOperator.of(bulkheads.bulkhead(endpoint)));
+            if (deadline == null) {
+                bounded = bounded.timeout(timeout);
+            } else if (deadline.isExpired()) {
+                return Mono.error(new DeadlineExceededException("Deadline passed before calling " + endpoint));
+            } else if (cutAtDeadline && deadline.remaining().compareTo(timeout) < 0) {
+                bounded = bounded.timeout(deadline.remaining(),
+                        Mono.error(() -> new DeadlineExceededException("Deadline passed while calling " + endpoint)));
+            } else {
+                bounded = bounded.timeout(timeout);
+            }
+            return bounded.transformDeferred(CircuitBreakerOperator.of(circuitBreakers.circuitBreaker(endpoint)));
+        });
+    }
+}
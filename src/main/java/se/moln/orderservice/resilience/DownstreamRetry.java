@@ -0,0 +1,121 @@
+package se.moln.orderservice.resilience;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import se.moln.orderservice.exception.DownstreamException;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Retries for idempotent downstream calls (product lookup, inventory return), with decorrelated jitter and a
+ * per-endpoint {@link RequestBudget}.
+ * <p>
+ * Only failures that a second attempt can fix are retried: 5xx, 429, timeouts and connection errors. 4xx answers,
+ * an open circuit breaker, a full bulkhead and a passed {@link Deadline} fail at once. Every decision is counted in
+ * {@code orders.downstream.retries} tagged with endpoint, reason and outcome.
+ */
+@Component
+public class DownstreamRetry {
+
+    static final String OUTCOME_RETRIED = "retried";
+    static final String OUTCOME_BUDGET_EXHAUSTED = "budget_exhausted";
+    static final String OUTCOME_ATTEMPTS_EXHAUSTED = "attempts_exhausted";
+    static final String OUTCOME_DEADLINE = "deadline";
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int maxRetries;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    private final double budgetRatio;
+    private final int budgetBurst;
+    private final Map<String, RequestBudget> budgets = new ConcurrentHashMap<>();
+
+    public DownstreamRetry(MeterRegistry meterRegistry,
+                           @Value("${orders.retry.enabled:true}") boolean enabled,
+                           @Value("${orders.retry.max-retries:2}") int maxRetries,
+                           @Value("${orders.retry.base-delay:50ms}") Duration baseDelay,
+                           @Value("${orders.retry.max-delay:1s}") Duration maxDelay,
+                           @Value("${orders.retry.budget-ratio:0.1}") double budgetRatio,
+                           @Value("${orders.retry.budget-burst:10}") int budgetBurst) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.budgetRatio = budgetRatio;
+        this.budgetBurst = budgetBurst;
+    }
+
+    /**
+     * Resubscribes to {@code call} on retryable failures. Only use for idempotent calls.
+     */
+    public <T> Mono<T> retry(String endpoint, Mono<T> call) {
+        if (!enabled || maxRetries < 1) {
+            return call;
+        }
+        RequestBudget budget = budgets.computeIfAbsent(endpoint, e -> new RequestBudget(budgetRatio, budgetBurst));
+        return Mono.deferContextual(ctx -> {
+            Deadline deadline = Deadline.from(ctx);
+            budget.deposit();
+            return call.retryWhen(new DecorrelatedJitterRetry(baseDelay, maxDelay, (err, retry) -> {
+                String reason = reason(err);
+                if (reason == null) {
+                    return false;
+                }
+                if (retry > maxRetries) {
+                    count(endpoint, reason, OUTCOME_ATTEMPTS_EXHAUSTED);
+                    return false;
+                }
+                if (deadline != null && deadline.remaining().compareTo(baseDelay) <= 0) {
+                    count(endpoint, reason, OUTCOME_DEADLINE);
+                    return false;
+                }
+                if (!budget.tryWithdraw()) {
+                    count(endpoint, reason, OUTCOME_BUDGET_EXHAUSTED);
+                    return false;
+                }
+                count(endpoint, reason, OUTCOME_RETRIED);
+                return true;
+            }));
+        });
+    }
+
+    /**
+     * Why {@code err} is worth a retry, or {@code null} if it is not.
+     */
+    static String reason(Throwable err) {
+        if (err instanceof DownstreamException de) {
+            if (de.getDownstreamStatus() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+                return "too_many_requests";
+            }
+            return de.isServerError() ? "server_error" : null;
+        }
+        if (err instanceof WebClientResponseException wcre) {
+            if (wcre.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+                return "too_many_requests";
+            }
+            return wcre.getStatusCode().is5xxServerError() ? "server_error" : null;
+        }
+        if (err instanceof TimeoutException) {
+            return "timeout";
+        }
+        if (err instanceof WebClientRequestException) {
+            return "io";
+        }
+        return null;
+    }
+
+    private void count(String endpoint, String reason, String outcome) {
+        meterRegistry.counter("orders.downstream.retries", "endpoint", endpoint, "reason", reason, "outcome", outcome)
+                .increment();
+    }
+}
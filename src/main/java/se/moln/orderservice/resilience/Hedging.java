@@ -0,0 +1,144 @@
+package se.moln.orderservice.resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hedged requests for idempotent downstream calls.
+ * <p>
+ * Each attempt is timed in {@code orders.downstream.attempt}, which keeps a live percentile over the last
+ * couple of minutes; a primary cancelled by a faster hedge counts with the time it had waited. When an attempt has not answered after that percentile ({@code orders.hedging.percentile},
+ * never less than {@code min-delay}) a second attempt is sent and whichever answers first wins; the other is
+ * cancelled. Hedges are paid from a shared {@link RequestBudget}, so they stay a small share of the traffic.
+ * <p>
+ * Compare {@code orders.downstream.attempt} (single attempts) with {@code orders.purchase.stage} (what the
+ * purchase actually waited) to see the tail latency saved; {@code orders.hedging.sent/won} show the hedge rate.
+ */
+@Component
+public class Hedging {
+
+    static final int MIN_SAMPLES = 20;
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final double percentile;
+    private final Duration minDelay;
+    private final RequestBudget budget;
+    private final Map<String, Timer> attemptTimers = new ConcurrentHashMap<>();
+
+    public Hedging(MeterRegistry meterRegistry,
+                   @Value("${orders.hedging.enabled:false}") boolean enabled,
+                   @Value("${orders.hedging.percentile:0.95}") double percentile,
+                   @Value("${orders.hedging.min-delay:20ms}") Duration minDelay,
+                   @Value("${orders.hedging.budget-ratio:0.05}") double budgetRatio,
+                   @Value("${orders.hedging.budget-burst:10}") int budgetBurst) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.budget = new RequestBudget(budgetRatio, budgetBurst);
+
+        Gauge.builder("orders.hedging.budget", budget, RequestBudget::available)
+                .description("Hedge tokens currently available")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code attempt} and, if it is slower than the tracked percentile, races it against a second
+     * subscription. {@code attempt} must be safe to subscribe to more than once.
+     */
+    public <T> Mono<T> hedge(String endpoint, Mono<T> attempt) {
+        Mono<T> timed = timed(endpoint, attempt, true);
+        if (!enabled) {
+            return timed;
+        }
+        return Mono.defer(() -> {
+            budget.deposit();
+            Duration delay = hedgeDelay(endpoint);
+            if (delay == null) {
+                return timed;
+            }
+            Mono<Tuple2<Boolean, T>> primary = timed.map(v -> Tuples.of(false, v));
+            Mono<Tuple2<Boolean, T>> hedged = Mono.delay(delay)
+                    .then(Mono.defer(() -> {
+                        if (!budget.tryWithdraw()) {
+                            counter("orders.hedging.budget.exhausted", endpoint).increment();
+                            return Mono.<Tuple2<Boolean, T>>never();
+                        }
+                        counter("orders.hedging.sent", endpoint).increment();
+                        return timed(endpoint, attempt, false).map(v -> Tuples.of(true, v))
+                                // Ett fel i säkringen ska inte vinna över ett primärförsök som fortfarande pågår
+                                .onErrorResume(err -> Mono.never());
+                    }));
+            return Mono.firstWithSignal(primary, hedged)
+                    .map(winner -> {
+                        if (winner.getT1()) {
+                            counter("orders.hedging.won", endpoint).increment();
+                        }
+                        return winner.getT2();
+                    });
+        });
+    }
+
+    /**
+     * Delay before hedging, or {@code null} while there are too few samples to know what "slow" means.
+     */
+    Duration hedgeDelay(String endpoint) {
+        Timer timer = attemptTimer(endpoint);
+        if (timer.count() < MIN_SAMPLES) {
+            return null;
+        }
+        for (ValueAtPercentile p : timer.takeSnapshot().percentileValues()) {
+            if (p.percentile() == percentile) {
+                Duration observed = Duration.ofNanos((long) p.value(TimeUnit.NANOSECONDS));
+                return observed.compareTo(minDelay) > 0 ? observed : minDelay;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Times an attempt. A cancelled primary (usually one a hedge beat) is recorded with the time it had waited so
+     * far, a lower bound of its latency: leaving the slow attempts out would pull the percentile, and with it the
+     * hedge delay, down until hedging is limited only by the budget. A cancelled hedge is left out, it started late
+     * and its elapsed time says nothing about how slow the endpoint is.
+     */
+    private <T> Mono<T> timed(String endpoint, Mono<T> attempt, boolean recordCancel) {
+        return Mono.defer(() -> {
+            long started = System.nanoTime();
+            // doFinally körs en gång per försök, även om ett avslutat försök avbryts efteråt
+            return attempt.doFinally(signal -> {
+                if (signal != SignalType.CANCEL || recordCancel) {
+                    attemptTimer(endpoint).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            });
+        });
+    }
+
+    private Timer attemptTimer(String endpoint) {
+        return attemptTimers.computeIfAbsent(endpoint, e -> Timer.builder("orders.downstream.attempt")
+                .description("Latency of single downstream attempts")
+                .tag("endpoint", e)
+                .publishPercentiles(percentile)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    private Counter counter(String name, String endpoint) {
+        return meterRegistry.counter(name, "endpoint", endpoint);
+    }
+}
@@ -0,0 +1,54 @@
+package se.moln.orderservice.resilience;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket that caps extra downstream attempts (hedges, retries) to a share of the normal traffic.
+ * <p>
+ * Every original request deposits {@code ratio} tokens, every extra attempt withdraws a whole one. With a ratio of
+ * 0.1 extra attempts can never exceed about 10% of requests, plus a small burst of {@code maxTokens}, so they
+ * cannot multiply the load on a dependency that is already struggling.
+ */
+public class RequestBudget {
+
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+
+    public RequestBudget(double ratio, int maxTokens) {
+        if (ratio < 0 || maxTokens < 1) {
+            throw new IllegalArgumentException("ratio must be >= 0 and maxTokens >= 1");
+        }
+        this.deposit = Math.round(ratio * SCALE);
+        this.capacity = maxTokens * SCALE;
+        this.balance = new AtomicLong(capacity);
+    }
+
+    /**
+     * Records an original request.
+     */
+    public void deposit() {
+        balance.accumulateAndGet(deposit, (current, d) -> Math.min(capacity, current + d));
+    }
+
+    /**
+     * Takes one token for an extra attempt, or returns false when the budget is spent.
+     */
+    public boolean tryWithdraw() {
+        while (true) {
+            long current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+
+    public double available() {
+        return balance.get() / (double) SCALE;
+    }
+}
@@ -0,0 +1,177 @@
+package se.moln.orderservice.resilience;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets per key (user, IP, ...) in a bounded, striped map.
+ * <p>
+ * Each bucket is a single {@link AtomicLong} holding the moment it will be full again (the GCRA form of a token
+ * bucket), so taking a token is one map lookup and one CAS, without locks. Keys are spread over
+ * {@code stripes} maps of at most {@code maxEntries / stripes} buckets each. A bucket that has been full for
+ * {@code idle} carries no information and is evicted by {@link #evictIdle()}. A new key that finds its stripe
+ * full scans the stripe for idle buckets itself, but at most {@value #INLINE_EVICTIONS_PER_IDLE} times per
+ * {@code idle} and stripe; otherwise, and when the stripe is still full, new keys share one overflow bucket per
+ * limit instead of growing the map.
+ */
+public class TokenBuckets {
+
+    /** Marks a bucket removed by eviction; a caller that sees it looks the key up again. */
+    private static final long EVICTED = Long.MIN_VALUE;
+
+    private static final int INLINE_EVICTIONS_PER_IDLE = 8;
+
+    private final ConcurrentHashMap<Object, AtomicLong>[] stripes;
+    private final int mask;
+    private final int maxPerStripe;
+    private final long idleNanos;
+    private final long inlineEvictionGapNanos;
+    // Tidigaste tidpunkt då en ny nyckel får söka igenom sin fulla stripe efter inaktiva hinkar
+    private final AtomicLongArray nextInlineEviction;
+    private final LongSupplier nanoClock;
+
+    /**
+     * Rate and burst of one kind of bucket. {@code rate} is tokens per second, {@code burst} the bucket size.
+     */
+    public record Limit(String name, double rate, int burst) {
+
+        public Limit {
+            if (rate <= 0 || burst < 1) {
+                throw new IllegalArgumentException("rate must be > 0 and burst >= 1");
+            }
+        }
+
+        long intervalNanos() {
+            return Math.max(1, (long) (1_000_000_000L / rate));
+        }
+    }
+
+    /**
+     * Outcome of one {@link #tryAcquire}. {@code reset} is the time until the bucket is full again, and
+     * {@code retryAfter} how long a rejected caller has to wait for the next token (zero when allowed).
+     */
+    public record Decision(boolean allowed, int limit, int remaining, Duration reset, Duration retryAfter) {
+    }
+
+    @SuppressWarnings("unchecked")
+    public TokenBuckets(int stripes, int maxEntries, Duration idle, LongSupplier nanoClock) {
+        int n = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new ConcurrentHashMap[n];
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new ConcurrentHashMap<>();
+        }
+        this.mask = n - 1;
+        this.maxPerStripe = Math.max(1, maxEntries / n);
+        this.idleNanos = idle.toNanos();
+        this.inlineEvictionGapNanos = Math.max(1, idleNanos / INLINE_EVICTIONS_PER_IDLE);
+        this.nextInlineEviction = new AtomicLongArray(n);
+        long now = nanoClock.getAsLong();
+        for (int i = 0; i < n; i++) {
+            nextInlineEviction.set(i, now);
+        }
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Takes one token from the bucket of {@code key} under {@code limit}. {@code key} needs value equality and
+     * should include the limit when one principal has buckets under several limits.
+     */
+    public Decision tryAcquire(Object key, Limit limit) {
+        long interval = limit.intervalNanos();
+        long capacity = interval * limit.burst();
+        while (true) {
+            long now = nanoClock.getAsLong();
+            AtomicLong bucket = bucket(key, limit, now);
+            long full = bucket.get();
+            if (full == EVICTED) {
+                continue;
+            }
+            // Hinken är full igen vid 'full'; varje token flyttar den tidpunkten ett intervall framåt
+            long next = Math.max(full, now) + interval;
+            long debt = next - now;
+            if (debt > capacity) {
+                return new Decision(false, limit.burst(), 0, Duration.ofNanos(full - now), Duration.ofNanos(debt - capacity));
+            }
+            if (bucket.compareAndSet(full, next)) {
+                int remaining = (int) ((capacity - debt) / interval);
+                return new Decision(true, limit.burst(), remaining, Duration.ofNanos(debt), Duration.ZERO);
+            }
+        }
+    }
+
+    private AtomicLong bucket(Object key, Limit limit, long now) {
+        int index = spread(key.hashCode()) & mask;
+        ConcurrentHashMap<Object, AtomicLong> stripe = stripes[index];
+        AtomicLong bucket = stripe.get(key);
+        if (bucket != null && bucket.get() != EVICTED) {
+            return bucket;
+        }
+        if (bucket != null) {
+            stripe.remove(key, bucket);
+        }
+        if (stripe.size() >= maxPerStripe
+                && (!claimInlineEviction(index, now) || evictIdle(stripe, now) == 0 || stripe.size() >= maxPerStripe)) {
+            // Fullt: nya nycklar delar på en gemensam hink tills gamla har hunnit fyllas och rensas
+            return stripes[0].computeIfAbsent(new Overflow(limit.name()), k -> new AtomicLong(now));
+        }
+        return stripe.computeIfAbsent(key, k -> new AtomicLong(now));
+    }
+
+    /**
+     * True for the one caller that may scan stripe {@code index} now; the others skip the scan.
+     */
+    private boolean claimInlineEviction(int index, long now) {
+        long next = nextInlineEviction.get(index);
+        return now - next >= 0 && nextInlineEviction.compareAndSet(index, next, now + inlineEvictionGapNanos);
+    }
+
+    /**
+     * Removes buckets that have been full for longer than {@code idle}. Returns how many were removed.
+     */
+    public int evictIdle() {
+        long now = nanoClock.getAsLong();
+        int removed = 0;
+        for (ConcurrentHashMap<Object, AtomicLong> stripe : stripes) {
+            removed += evictIdle(stripe, now);
+        }
+        return removed;
+    }
+
+    private int evictIdle(ConcurrentHashMap<Object, AtomicLong> stripe, long now) {
+        int removed = 0;
+        for (var entry : stripe.entrySet()) {
+            if (entry.getKey() instanceof Overflow) {
+                continue;
+            }
+            AtomicLong bucket = entry.getValue();
+            long full = bucket.get();
+            // CAS till EVICTED först: en samtidig tryAcquire på samma hink misslyckas och slår upp nyckeln igen
+            if (full != EVICTED && now - full > idleNanos && bucket.compareAndSet(full, EVICTED)) {
+                stripe.remove(entry.getKey(), bucket);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Buckets currently held.
+     */
+    public long size() {
+        long size = 0;
+        for (ConcurrentHashMap<Object, AtomicLong> stripe : stripes) {
+            size += stripe.mappingCount();
+        }
+        return size;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private record Overflow(String limit) {
+    }
+}
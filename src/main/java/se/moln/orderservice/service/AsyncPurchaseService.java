@@ -0,0 +1,285 @@
+package se.moln.orderservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ProblemDetail;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.retry.Retry;
+import se.moln.orderservice.dto.PurchaseRequest;
+import se.moln.orderservice.dto.PurchaseStatusResponse;
+import se.moln.orderservice.events.OrderEvent;
+import se.moln.orderservice.events.OrderEventBus;
+import se.moln.orderservice.exception.ProblemDetails;
+import se.moln.orderservice.exception.ServiceOverloadedException;
+import se.moln.orderservice.model.IntakeState;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.model.PurchaseIntake;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.repository.PurchaseIntakeRepository;
+import se.moln.orderservice.shard.ShardRouter;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accept-then-confirm purchases.
+ * <p>
+ * {@link #accept} only validates the request and writes a PENDING order plus its {@link PurchaseIntake} journal
+ * row in one local transaction, so intake does not depend on the product service at all. A fixed pool of workers
+ * then runs each journaled purchase through the normal pipeline ({@link OrderService#fulfilPending}) and records
+ * the outcome; clients poll {@link #status}.
+ * <p>
+ * On startup ACCEPTED rows are queued again. Rows still in PROCESSING were interrupted mid-reservation and are
+ * failed rather than retried, because a reservation is not idempotent and may already have gone through.
+ * <p>
+ * The order and its journal row live on the user's shard; queued work carries the shard so that workers do not
+ * have to look for it.
+ */
+@Service
+public class AsyncPurchaseService {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncPurchaseService.class);
+
+    private final OrderService orderService;
+    private final OrderRepository orderRepository;
+    private final PurchaseIntakeRepository intakeRepository;
+    private final ShardRouter shards;
+    private final TransactionTemplate transactionTemplate;
+    private final Scheduler repositoryScheduler;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final OrderEventBus eventBus;
+    private final int workers;
+    private final int overloadRetries;
+
+    private final Sinks.Many<Queued> queue = Sinks.many().unicast().onBackpressureBuffer();
+    private final AtomicInteger queued = new AtomicInteger();
+    private Disposable worker;
+
+    public AsyncPurchaseService(OrderService orderService,
+                                OrderRepository orderRepository,
+                                PurchaseIntakeRepository intakeRepository,
+                                ShardRouter shards,
+                                TransactionTemplate transactionTemplate,
+                                Scheduler repositoryScheduler,
+                                ObjectMapper objectMapper,
+                                MeterRegistry meterRegistry,
+                                OrderEventBus eventBus,
+                                @Value("${orders.async.workers:8}") int workers,
+                                @Value("${orders.async.overload-retries:5}") int overloadRetries) {
+        this.orderService = orderService;
+        this.orderRepository = orderRepository;
+        this.intakeRepository = intakeRepository;
+        this.shards = shards;
+        this.transactionTemplate = transactionTemplate;
+        this.repositoryScheduler = repositoryScheduler;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.eventBus = eventBus;
+        this.workers = workers;
+        this.overloadRetries = overloadRetries;
+
+        Gauge.builder("orders.async.queued", queued, AtomicInteger::get)
+                .description("Accepted purchases waiting for a worker")
+                .register(meterRegistry);
+    }
+
+    public Mono<PurchaseStatusResponse> accept(PurchaseRequest request, String jwtToken) {
+        if (!OrderService.hasItems(request)) {
+            return Mono.error(new IllegalArgumentException(OrderService.EMPTY_PURCHASE));
+        }
+        if (request.items().stream().anyMatch(i -> i.productId() == null || i.quantity() < 1)) {
+            return Mono.error(new IllegalArgumentException("Every item needs a productId and a quantity of at least 1"));
+        }
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(request);
+        } catch (JsonProcessingException e) {
+            return Mono.error(new IllegalArgumentException("Purchase could not be serialized", e));
+        }
+
+        return Mono.fromCallable(() -> {
+                    Order order = orderService.newOrder(jwtToken, OrderStatus.PENDING);
+                    order.setTotalAmount(BigDecimal.ZERO);
+                    order.setOrderItems(new ArrayList<>());
+                    return shards.forUser(order.getUserId(), () -> transactionTemplate.execute(tx -> {
+                        Order saved = orderRepository.save(order);
+
+                        OffsetDateTime now = OffsetDateTime.now();
+                        PurchaseIntake intake = new PurchaseIntake();
+                        intake.setOrderId(saved.getId());
+                        intake.setPayload(payload);
+                        intake.setState(IntakeState.ACCEPTED);
+                        intake.setAcceptedAt(now);
+                        intake.setUpdatedAt(now);
+                        intakeRepository.save(intake);
+                        return saved;
+                    })).call();
+                })
+                .subscribeOn(repositoryScheduler)
+                // Köas först efter commit, så att en worker alltid hittar journalraden
+                .doOnNext(saved -> enqueue(new Queued(saved.getId(), shards.shardOf(saved.getUserId()))))
+                .map(saved -> new PurchaseStatusResponse(saved.getId(), OrderStatus.PENDING, saved.getOrderNumber(), null, null));
+    }
+
+    public Mono<PurchaseStatusResponse> status(UUID orderId) {
+        return shards.gather(shard -> () -> orderRepository.findById(orderId)
+                        .map(order -> {
+                            ProblemDetail problem = order.getStatus() == OrderStatus.FAILED
+                                    ? intakeRepository.findById(orderId).map(AsyncPurchaseService::problem).orElse(null)
+                                    : null;
+                            BigDecimal total = order.getStatus() == OrderStatus.PENDING || order.getStatus() == OrderStatus.FAILED
+                                    ? null
+                                    : order.getTotalAmount();
+                            return new PurchaseStatusResponse(order.getId(), order.getStatus(), order.getOrderNumber(), total, problem);
+                        })
+                        .orElse(null), repositoryScheduler)
+                .flatMap(found -> Mono.justOrEmpty(found.stream().findFirst()))
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found")));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        worker = queue.asFlux()
+                .doOnNext(work -> queued.decrementAndGet())
+                .flatMap(work -> process(work.orderId(), work.shard())
+                        .onErrorResume(err -> {
+                            log.error("Async purchase {} could not be processed", work.orderId(), err);
+                            return Mono.empty();
+                        }), workers)
+                .subscribe();
+        recover().subscribe(
+                n -> log.info("Requeued {} accepted purchases from the intake journal", n),
+                err -> log.error("Could not recover the purchase intake journal", err));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (worker != null) {
+            worker.dispose();
+        }
+    }
+
+    Mono<Integer> recover() {
+        return shards.gather(shard -> () -> recover(shard), repositoryScheduler)
+                .map(perShard -> perShard.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    private int recover(int shard) {
+        List<UUID> accepted = transactionTemplate.execute(tx -> {
+            List<UUID> interrupted = intakeRepository.findIdsByState(IntakeState.PROCESSING);
+            if (!interrupted.isEmpty()) {
+                log.warn("{} async purchases were interrupted while processing and are marked FAILED; "
+                        + "their reservations may need manual review: {}", interrupted.size(), interrupted);
+                OffsetDateTime now = OffsetDateTime.now();
+                for (UUID id : interrupted) {
+                    intakeRepository.finish(id, IntakeState.FAILED, HttpStatus.INTERNAL_SERVER_ERROR.value(),
+                            "Purchase was interrupted by a restart", now);
+                }
+                orderRepository.transitionStatus(interrupted, OrderStatus.PENDING, OrderStatus.FAILED);
+                interrupted.forEach(id -> eventBus.publish(OrderEvent.statusChanged(id, OrderStatus.FAILED)));
+            }
+            return intakeRepository.findIdsByState(IntakeState.ACCEPTED);
+        });
+        accepted.forEach(id -> enqueue(new Queued(id, shard)));
+        return accepted.size();
+    }
+
+    Mono<Void> process(UUID orderId, int shard) {
+        return claim(orderId, shard)
+                .flatMap(claimed -> Mono.fromCallable(() -> readPayload(claimed.payload()))
+                        .flatMap(request -> orderService.fulfilPending(claimed.order(), request)
+                                // Överbelastning är tillfällig; köpet väntar hellre än misslyckas
+                                .retryWhen(Retry.backoff(overloadRetries, Duration.ofSeconds(1))
+                                        .filter(ServiceOverloadedException.class::isInstance)
+                                        .onRetryExhaustedThrow((spec, signal) -> signal.failure())))
+                        .flatMap(resp -> done(orderId, shard))
+                        .onErrorResume(err -> fail(orderId, shard, ProblemDetails.from(err))));
+    }
+
+    /**
+     * Moves the journal row from ACCEPTED to PROCESSING and loads what the worker needs. Empty if another worker
+     * (or an earlier run) already took it.
+     */
+    private Mono<Claimed> claim(UUID orderId, int shard) {
+        return Mono.fromCallable(shards.onShard(shard, () -> transactionTemplate.execute(tx -> {
+                    if (intakeRepository.transition(orderId, IntakeState.ACCEPTED, IntakeState.PROCESSING, OffsetDateTime.now()) == 0) {
+                        return null;
+                    }
+                    PurchaseIntake intake = intakeRepository.findById(orderId).orElseThrow();
+                    Order order = orderRepository.findById(orderId).orElseThrow();
+                    return new Claimed(order, intake.getPayload());
+                })))
+                .subscribeOn(repositoryScheduler);
+    }
+
+    private Mono<Void> fail(UUID orderId, int shard, ProblemDetail problem) {
+        meterRegistry.counter("orders.async.completed", "outcome", "failed").increment();
+        return Mono.fromRunnable(() -> shards.runOn(shard, () -> transactionTemplate.execute(tx -> {
+                    intakeRepository.finish(orderId, IntakeState.FAILED, problem.getStatus(), truncate(problem.getDetail()), OffsetDateTime.now());
+                    return orderRepository.transitionStatus(List.of(orderId), OrderStatus.PENDING, OrderStatus.FAILED);
+                })))
+                .subscribeOn(repositoryScheduler)
+                .then(Mono.fromRunnable(() -> eventBus.publish(OrderEvent.statusChanged(orderId, OrderStatus.FAILED))));
+    }
+
+    private Mono<Void> done(UUID orderId, int shard) {
+        meterRegistry.counter("orders.async.completed", "outcome", "created").increment();
+        return Mono.fromRunnable(() -> shards.runOn(shard, () -> transactionTemplate.execute(tx ->
+                        intakeRepository.finish(orderId, IntakeState.DONE, null, null, OffsetDateTime.now()))))
+                .subscribeOn(repositoryScheduler)
+                .then();
+    }
+
+    private void enqueue(Queued work) {
+        queued.incrementAndGet();
+        queue.emitNext(work, Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100)));
+    }
+
+    private PurchaseRequest readPayload(String payload) {
+        try {
+            return objectMapper.readValue(payload, PurchaseRequest.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Corrupt intake payload", e);
+        }
+    }
+
+    private static ProblemDetail problem(PurchaseIntake intake) {
+        if (intake.getProblemStatus() == null) {
+            return null;
+        }
+        return ProblemDetail.forStatusAndDetail(HttpStatusCode.valueOf(intake.getProblemStatus()), intake.getProblemDetail());
+    }
+
+    private static String truncate(String detail) {
+        return detail == null || detail.length() <= 1000 ? detail : detail.substring(0, 1000);
+    }
+
+    private record Claimed(Order order, String payload) {
+    }
+
+    private record Queued(UUID orderId, int shard) {
+    }
+}
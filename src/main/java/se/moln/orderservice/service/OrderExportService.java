@@ -0,0 +1,303 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Scheduler;
+import se.moln.orderservice.archive.OrderArchive;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.shard.ShardRouter;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams all order lines in a date range as CSV, optionally gzipped.
+ * <p>
+ * Rows are read through a forward-only, read-only JDBC cursor with a fixed fetch size and written straight into
+ * response-sized byte chunks, without building entities. Chunks are produced on demand ({@link Flux#generate}),
+ * so memory stays at one fetch plus one chunk however large the export is. Each shard is read with its own cursor,
+ * one after the other, so rows are in date order per shard. Archived orders in the range follow the live rows.
+ */
+@Service
+public class OrderExportService {
+
+    static final String HEADER = "order_id,order_number,user_id,order_date,status,total_amount,"
+            + "product_id,product_name,quantity,price_at_purchase\n";
+
+    private static final String SQL = "SELECT o.id, o.order_number, o.user_id, o.order_date, o.status, o.total_amount, "
+            + "i.product_id, i.product_name, i.quantity, i.price_at_purchase "
+            + "FROM orders o LEFT JOIN order_items i ON i.order_id = o.id "
+            + "WHERE o.order_date >= ? AND o.order_date < ?";
+
+    private final DataSource dataSource;
+    private final OrderArchive archive;
+    private final ShardRouter shards;
+    private final Scheduler repositoryScheduler;
+    private final int fetchSize;
+    private final int chunkBytes;
+    private final Counter rows;
+    private final Timer duration;
+
+    public OrderExportService(DataSource dataSource,
+                              OrderArchive archive,
+                              ShardRouter shards,
+                              Scheduler repositoryScheduler,
+                              MeterRegistry meterRegistry,
+                              @Value("${orders.export.fetch-size:1000}") int fetchSize,
+                              @Value("${orders.export.chunk-bytes:65536}") int chunkBytes) {
+        this.dataSource = dataSource;
+        this.archive = archive;
+        this.shards = shards;
+        this.repositoryScheduler = repositoryScheduler;
+        this.fetchSize = fetchSize;
+        this.chunkBytes = chunkBytes;
+        this.rows = Counter.builder("orders.export.rows")
+                .description("Order lines written by CSV exports")
+                .register(meterRegistry);
+        this.duration = Timer.builder("orders.export.duration")
+                .description("Wall time of CSV exports, first row to last byte")
+                .register(meterRegistry);
+    }
+
+    /**
+     * CSV of every order line with {@code from <= order_date < to}, optionally only orders in {@code status}.
+     * Orders without lines produce one row with empty line columns.
+     */
+    public Flux<DataBuffer> export(OffsetDateTime from, OffsetDateTime to, OrderStatus status, boolean gzip,
+                                   DataBufferFactory bufferFactory) {
+        if (from == null || to == null || !from.isBefore(to)) {
+            return Flux.error(new IllegalArgumentException("from must be before to"));
+        }
+        return Flux.<DataBuffer, Export>generate(
+                        () -> open(from, to, status, gzip),
+                        (export, sink) -> {
+                            export.step(sink, bufferFactory, chunkBytes);
+                            return export;
+                        },
+                        Export::close)
+                .subscribeOn(repositoryScheduler);
+    }
+
+    private Export open(OffsetDateTime from, OffsetDateTime to, OrderStatus status, boolean gzip) throws Exception {
+        List<RowSource> sources = new ArrayList<>();
+        try {
+            for (int shard = 0; shard < shards.count(); shard++) {
+                sources.add(shards.onShard(shard, () -> openCursor(from, to, status)).call());
+            }
+            sources.add(archivedRows(from, to, status));
+            return new Export(sources, gzip);
+        } catch (Exception e) {
+            for (RowSource source : sources) {
+                source.close();
+            }
+            throw e;
+        }
+    }
+
+    private RowSource openCursor(OffsetDateTime from, OffsetDateTime to, OrderStatus status) throws SQLException {
+        String sql = SQL + (status != null ? " AND o.status = ?" : "") + " ORDER BY o.order_date, o.id";
+        Connection connection = dataSource.getConnection();
+        try {
+            // Utan autocommit streamar PostgreSQL m.fl. med fetch size i stället för att läsa in allt
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            statement.setObject(1, from);
+            statement.setObject(2, to);
+            if (status != null) {
+                statement.setString(3, status.name());
+            }
+            return new CursorRows(connection, statement, statement.executeQuery());
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private RowSource archivedRows(OffsetDateTime from, OffsetDateTime to, OrderStatus status) {
+        Iterator<Order> orders = archive.scan(o -> o.getOrderDate() != null
+                && !o.getOrderDate().isBefore(from) && o.getOrderDate().isBefore(to)
+                && (status == null || status == o.getStatus()));
+        return out -> {
+            if (!orders.hasNext()) {
+                return 0;
+            }
+            Order o = orders.next();
+            List<OrderItem> items = o.getOrderItems() == null ? List.of() : o.getOrderItems();
+            if (items.isEmpty()) {
+                writeRow(out, o.getId(), o.getOrderNumber(), o.getUserId(), o.getOrderDate(), o.getStatus().name(),
+                        o.getTotalAmount(), null, null, null, null);
+                return 1;
+            }
+            for (OrderItem i : items) {
+                writeRow(out, o.getId(), o.getOrderNumber(), o.getUserId(), o.getOrderDate(), o.getStatus().name(),
+                        o.getTotalAmount(), i.getProductId(), i.getProductName(), i.getQuantity(), i.getPriceAtPurchase());
+            }
+            return items.size();
+        };
+    }
+
+    static void writeRow(Writer out, UUID orderId, String orderNumber, UUID userId, OffsetDateTime orderDate, String status,
+                         BigDecimal total, UUID productId, String productName, Integer quantity, BigDecimal price) throws IOException {
+        field(out, orderId).write(',');
+        field(out, orderNumber).write(',');
+        field(out, userId).write(',');
+        field(out, orderDate).write(',');
+        field(out, status).write(',');
+        field(out, total == null ? null : total.toPlainString()).write(',');
+        field(out, productId).write(',');
+        field(out, productName).write(',');
+        field(out, quantity).write(',');
+        field(out, price == null ? null : price.toPlainString()).write('\n');
+    }
+
+    private static Writer field(Writer out, Object value) throws IOException {
+        if (value == null) {
+            return out;
+        }
+        String s = value.toString();
+        // RFC 4180: citera bara när det behövs, dubbla citattecken inuti
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            out.write(s);
+        } else {
+            out.write('"');
+            out.write(s.replace("\"", "\"\""));
+            out.write('"');
+        }
+        return out;
+    }
+
+    /**
+     * Writes rows for one order (or one cursor row) and returns how many were written; 0 when exhausted.
+     */
+    @FunctionalInterface
+    private interface RowSource extends AutoCloseable {
+        int writeNext(Writer out) throws Exception;
+
+        @Override
+        default void close() throws Exception {
+        }
+    }
+
+    private record CursorRows(Connection connection, PreparedStatement statement, ResultSet rs) implements RowSource {
+
+        @Override
+        public int writeNext(Writer out) throws Exception {
+            if (!rs.next()) {
+                return 0;
+            }
+            Integer quantity = rs.getObject(9) == null ? null : rs.getInt(9);
+            writeRow(out, rs.getObject(1, UUID.class), rs.getString(2), rs.getObject(3, UUID.class),
+                    rs.getObject(4, OffsetDateTime.class), rs.getString(5), rs.getBigDecimal(6),
+                    rs.getObject(7, UUID.class), rs.getString(8), quantity, rs.getBigDecimal(10));
+            return 1;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try (connection; statement; rs) {
+                connection.rollback();
+            }
+        }
+    }
+
+    /**
+     * Per-subscription state: the remaining row sources and the CSV writer over a reusable byte buffer.
+     */
+    private final class Export {
+        private final Deque<RowSource> sources;
+        private final ByteArrayOutputStream buffer;
+        private final Writer writer;
+        private final long started = System.nanoTime();
+        private boolean finished;
+
+        Export(List<RowSource> sources, boolean gzip) throws IOException {
+            this.sources = new ArrayDeque<>(sources);
+            this.buffer = new ByteArrayOutputStream(chunkBytes + 8192);
+            OutputStream target = gzip ? new GZIPOutputStream(buffer, 8192) : buffer;
+            this.writer = new OutputStreamWriter(target, StandardCharsets.UTF_8);
+            writer.write(HEADER);
+        }
+
+        void step(SynchronousSink<DataBuffer> sink, DataBufferFactory bufferFactory, int chunkBytes) {
+            if (finished) {
+                sink.complete();
+                return;
+            }
+            try {
+                long written = 0;
+                while (buffer.size() < chunkBytes && !sources.isEmpty()) {
+                    int n = sources.peek().writeNext(writer);
+                    if (n == 0) {
+                        sources.poll().close();
+                    } else {
+                        written += n;
+                        // Teckenkodaren buffrar internt; töm den regelbundet så att buffer.size() stämmer
+                        if (written % 64 == 0) {
+                            writer.flush();
+                        }
+                    }
+                }
+                if (sources.isEmpty()) {
+                    writer.close(); // avslutar gzip-strömmen
+                    finished = true;
+                    duration.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                } else {
+                    writer.flush();
+                }
+                rows.increment(written);
+                byte[] chunk = buffer.toByteArray();
+                buffer.reset();
+                if (chunk.length == 0 && finished) {
+                    sink.complete();
+                } else {
+                    sink.next(bufferFactory.wrap(chunk));
+                }
+            } catch (IOException e) {
+                sink.error(new UncheckedIOException(e));
+            } catch (Exception e) {
+                sink.error(e);
+            }
+        }
+
+        void close() {
+            for (RowSource source : sources) {
+                try {
+                    source.close();
+                } catch (Exception ignored) {
+                    // Exporten är redan avbruten eller klar
+                }
+            }
+        }
+    }
+}
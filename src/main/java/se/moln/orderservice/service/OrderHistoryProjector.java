@@ -0,0 +1,256 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import se.moln.orderservice.events.OrderEvent;
+import se.moln.orderservice.events.OrderEventBus;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderHistoryEntry;
+import se.moln.orderservice.repository.OrderHistoryEntryRepository;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.shard.ShardRouter;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link OrderHistoryReadModel} in step with the orders table.
+ * <p>
+ * Order events are batched and the affected orders are projected again from their current state, so events may
+ * arrive late or out of order. Created orders carry their user and are read from one shard; status changes do not
+ * and are looked up on every shard. Events are best effort, so a catch-up pass also walks the orders by
+ * {@code last_modified} and projects whatever the events missed: after a dropped event, an async purchase
+ * accepted without one, or a restart. The first pass starts {@code orders.readmodel.catch-up-overlap} before the
+ * newest projected change (or at the beginning, which is a full rebuild from the source tables) and only looks at
+ * changes older than {@code orders.readmodel.settle}, so transactions still committing are picked up next time.
+ * <p>
+ * Lag is published as {@code orders.readmodel.lag}, tagged {@code source=event} (event to projection) and
+ * {@code source=catch-up} (change to repair); {@code orders.readmodel.repaired} counts what catch-up fixed.
+ */
+@Component
+public class OrderHistoryProjector {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderHistoryProjector.class);
+    private static final OffsetDateTime BEGINNING = OffsetDateTime.of(1970, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    private final OrderHistoryReadModel readModel;
+    private final OrderRepository orderRepository;
+    private final OrderHistoryEntryRepository entries;
+    private final ShardRouter shards;
+    private final TransactionTemplate transactionTemplate;
+    private final Scheduler repositoryScheduler;
+    private final OrderEventBus eventBus;
+    private final int batchSize;
+    private final int bufferSize;
+    private final Duration settle;
+    private final Duration overlap;
+    private final Timer eventLag;
+    private final Timer catchUpLag;
+    private final Counter repaired;
+    private final Cursor[] cursors;
+    private Disposable subscription;
+
+    public OrderHistoryProjector(OrderHistoryReadModel readModel,
+                                 OrderRepository orderRepository,
+                                 OrderHistoryEntryRepository entries,
+                                 ShardRouter shards,
+                                 TransactionTemplate transactionTemplate,
+                                 Scheduler repositoryScheduler,
+                                 OrderEventBus eventBus,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${orders.readmodel.batch-size:500}") int batchSize,
+                                 @Value("${orders.readmodel.buffer-size:4096}") int bufferSize,
+                                 @Value("${orders.readmodel.settle:5s}") Duration settle,
+                                 @Value("${orders.readmodel.catch-up-overlap:5m}") Duration overlap) {
+        this.readModel = readModel;
+        this.orderRepository = orderRepository;
+        this.entries = entries;
+        this.shards = shards;
+        this.transactionTemplate = transactionTemplate;
+        this.repositoryScheduler = repositoryScheduler;
+        this.eventBus = eventBus;
+        this.batchSize = batchSize;
+        this.bufferSize = bufferSize;
+        this.settle = settle;
+        this.overlap = overlap;
+        this.eventLag = lagTimer(meterRegistry, "event");
+        this.catchUpLag = lagTimer(meterRegistry, "catch-up");
+        this.repaired = Counter.builder("orders.readmodel.repaired")
+                .description("History rows that catch-up created or corrected because an event was missed")
+                .register(meterRegistry);
+        this.cursors = new Cursor[shards.count()];
+    }
+
+    private static Timer lagTimer(MeterRegistry meterRegistry, String source) {
+        return Timer.builder("orders.readmodel.lag")
+                .description("Time from a change of an order until the history read model shows it")
+                .tag("source", source)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!readModel.enabled()) {
+            return;
+        }
+        subscription = eventBus.subscribe("read-model", OrderEventBus.Policy.DROP_OLDEST, bufferSize)
+                .bufferTimeout(batchSize, Duration.ofMillis(50))
+                .concatMap(batch -> Mono.fromRunnable(() -> projectEvents(batch))
+                        .subscribeOn(repositoryScheduler)
+                        .onErrorResume(err -> {
+                            // Catch-up tar det som missades här
+                            log.warn("Could not project {} order events into the history read model", batch.size(), err);
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    void projectEvents(List<OrderEvent> batch) {
+        Map<Integer, Set<UUID>> byShard = new HashMap<>();
+        for (OrderEvent event : batch) {
+            if (event.userId() != null) {
+                byShard.computeIfAbsent(shards.shardOf(event.userId()), s -> new LinkedHashSet<>()).add(event.orderId());
+            } else {
+                for (int shard = 0; shard < shards.count(); shard++) {
+                    byShard.computeIfAbsent(shard, s -> new LinkedHashSet<>()).add(event.orderId());
+                }
+            }
+        }
+        byShard.forEach((shard, ids) -> shards.runOn(shard, () -> upsert(ids, false)));
+        OffsetDateTime now = OffsetDateTime.now();
+        for (OrderEvent event : batch) {
+            eventLag.record(Duration.between(event.occurredAt(), now));
+        }
+    }
+
+    /**
+     * Projects everything the events missed. Runs shortly after startup and then every
+     * {@code orders.readmodel.catch-up-interval}; the read model is served once the first run has finished.
+     */
+    @Scheduled(initialDelayString = "${orders.readmodel.catch-up-initial-delay:PT5S}",
+            fixedDelayString = "${orders.readmodel.catch-up-interval:PT30S}")
+    public synchronized void catchUp() {
+        if (!readModel.enabled()) {
+            return;
+        }
+        try {
+            long total = 0;
+            for (int shard = 0; shard < shards.count(); shard++) {
+                total += catchUp(shard);
+            }
+            if (total > 0) {
+                log.info("History read model caught up on {} orders", total);
+            }
+            readModel.markReady();
+        } catch (RuntimeException e) {
+            log.warn("History read model catch-up failed, retrying on the next run", e);
+        }
+    }
+
+    private long catchUp(int shard) {
+        OffsetDateTime until = OffsetDateTime.now().minus(settle);
+        Cursor cursor = cursors[shard];
+        if (cursor == null) {
+            OffsetDateTime newest = shards.runOn(shard, entries::lastSourceModified);
+            cursor = new Cursor(newest == null ? BEGINNING : newest.minus(overlap), null);
+        }
+        long projected = 0;
+        while (true) {
+            Cursor from = cursor;
+            PageRequest page = PageRequest.of(0, batchSize);
+            List<UUID> ids = shards.runOn(shard, () -> from.orderId() == null
+                    ? orderRepository.findIdsModifiedFrom(from.modified(), until, page)
+                    : orderRepository.findIdsModifiedAfter(from.modified(), from.orderId(), until, page));
+            if (ids.isEmpty()) {
+                break;
+            }
+            List<Order> orders = shards.runOn(shard, () -> upsert(ids, true));
+            UUID last = ids.get(ids.size() - 1);
+            OffsetDateTime lastModified = orders.stream()
+                    .filter(o -> o.getId().equals(last))
+                    .map(Order::getLastModified)
+                    .findFirst()
+                    .orElse(from.modified());
+            cursor = new Cursor(lastModified, last);
+            projected += orders.size();
+            if (ids.size() < batchSize) {
+                break;
+            }
+        }
+        cursors[shard] = cursor;
+        return projected;
+    }
+
+    /**
+     * Projects the current state of {@code ids} on the bound shard in one transaction. Ids that are not on this
+     * shard are skipped.
+     */
+    private List<Order> upsert(Collection<UUID> ids, boolean catchUp) {
+        return transactionTemplate.execute(tx -> {
+            List<Order> orders = orderRepository.findByIdIn(ids);
+            if (orders.isEmpty()) {
+                return orders;
+            }
+            Map<UUID, OrderHistoryEntry> existing = new HashMap<>();
+            entries.findAllById(orders.stream().map(Order::getId).toList()).forEach(e -> existing.put(e.getOrderId(), e));
+            OffsetDateTime now = OffsetDateTime.now();
+            List<OrderHistoryEntry> changed = new ArrayList<>();
+            for (Order order : orders) {
+                OrderHistoryEntry entry = existing.get(order.getId());
+                boolean stale = entry == null || entry.getSourceModified() == null
+                        || (order.getLastModified() != null && entry.getSourceModified().isBefore(order.getLastModified()));
+                if (!stale) {
+                    continue;
+                }
+                if (entry == null) {
+                    entry = OrderHistoryEntry.create(order.getId());
+                }
+                readModel.project(order, entry, now);
+                changed.add(entry);
+                if (catchUp) {
+                    repaired.increment();
+                    if (order.getLastModified() != null) {
+                        catchUpLag.record(Duration.between(order.getLastModified(), now).toMillis(), TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+            entries.saveAll(changed);
+            return orders;
+        });
+    }
+
+    private record Cursor(OffsetDateTime modified, UUID orderId) {
+    }
+}
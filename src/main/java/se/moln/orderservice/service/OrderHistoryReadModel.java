@@ -0,0 +1,128 @@
+package se.moln.orderservice.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import se.moln.orderservice.dto.OrderHistoryDto;
+import se.moln.orderservice.dto.OrderItemDto;
+import se.moln.orderservice.metrics.QueryStatistics;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderHistoryEntry;
+import se.moln.orderservice.repository.OrderHistoryEntryRepository;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.shard.ShardRouter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Query side of order history: one {@link OrderHistoryEntry} per order, items embedded, read by
+ * {@code (user_id, order_date desc)} from a single table on the user's shard.
+ * <p>
+ * The {@link OrderHistoryProjector} keeps the rows up to date. History is only served from here when
+ * {@code orders.readmodel.enabled=true} and the projector has caught up once since startup; until then callers
+ * read the write model.
+ */
+@Service
+public class OrderHistoryReadModel {
+
+    private static final TypeReference<List<OrderItemDto>> ITEMS = new TypeReference<>() {
+    };
+
+    private final OrderHistoryEntryRepository entries;
+    private final ShardRouter shards;
+    private final Scheduler repositoryScheduler;
+    private final ObjectMapper smile;
+    private final boolean enabled;
+    private volatile boolean ready;
+
+    public OrderHistoryReadModel(OrderHistoryEntryRepository entries,
+                                 ShardRouter shards,
+                                 Scheduler repositoryScheduler,
+                                 ObjectMapper objectMapper,
+                                 @Value("${orders.readmodel.enabled:true}") boolean enabled) {
+        this.entries = entries;
+        this.shards = shards;
+        this.repositoryScheduler = repositoryScheduler;
+        this.smile = objectMapper.copyWith(new SmileFactory());
+        this.enabled = enabled;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether history is served from the read model.
+     */
+    public boolean serves() {
+        return enabled && ready;
+    }
+
+    void markReady() {
+        ready = true;
+    }
+
+    /**
+     * One page of a user's history, newest first.
+     */
+    public Mono<List<OrderHistoryDto>> newest(UUID userId, PageRequest page) {
+        return Mono.fromCallable(shards.forUser(userId, QueryStatistics.measured("history",
+                        () -> entries.findNewestByUserId(userId, page))))
+                .subscribeOn(repositoryScheduler)
+                .map(rows -> rows.stream().map(this::toDto).toList());
+    }
+
+    public Mono<OrderRepository.DataVersion> version(UUID userId) {
+        return Mono.fromCallable(shards.forUser(userId, () -> entries.versionByUserId(userId)))
+                .subscribeOn(repositoryScheduler);
+    }
+
+    /**
+     * Copies the current state of {@code order} into {@code entry}.
+     */
+    void project(Order order, OrderHistoryEntry entry, OffsetDateTime now) {
+        entry.setUserId(order.getUserId());
+        entry.setOrderNumber(order.getOrderNumber());
+        entry.setStatus(order.getStatus());
+        entry.setTotalAmount(order.getTotalAmount());
+        entry.setOrderDate(order.getOrderDate());
+        entry.setItems(encode(order.getOrderItems() == null ? List.of() : order.getOrderItems().stream()
+                .map(oi -> new OrderItemDto(oi.getProductId(), oi.getProductName(), oi.getQuantity(), oi.getPriceAtPurchase()))
+                .toList()));
+        entry.setSourceModified(order.getLastModified());
+        entry.setProjectedAt(now);
+    }
+
+    OrderHistoryDto toDto(OrderHistoryEntry entry) {
+        return new OrderHistoryDto(entry.getOrderId(), entry.getOrderNumber(), entry.getTotalAmount(), entry.getStatus(),
+                entry.getOrderDate(), decode(entry.getItems()));
+    }
+
+    private byte[] encode(List<OrderItemDto> items) {
+        try {
+            return smile.writeValueAsBytes(items);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<OrderItemDto> decode(byte[] items) {
+        if (items == null) {
+            return List.of();
+        }
+        try {
+            return smile.readValue(items, ITEMS);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import se.moln.orderservice.client.InventoryClient;
+import se.moln.orderservice.dto.BulkTransitionRequest;
+import se.moln.orderservice.dto.BulkTransitionResult;
+import se.moln.orderservice.dto.OrderStatusResponse;
+import se.moln.orderservice.events.OrderEvent;
+import se.moln.orderservice.events.OrderEventBus;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.shard.ShardRouter;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Moves orders out of CREATED, one at a time or in bulk.
+ * <p>
+ * Every transition locks a chunk of CREATED ids and moves them with one set-based {@code UPDATE}, so bulk runs
+ * never load entities. Cancelling a chunk returns its stock to inventory with one call per product, after the
+ * chunk has been committed. Each moved order is published as a status change on the {@link OrderEventBus}.
+ * <p>
+ * Order ids do not say which shard an order is on, so chunks of ids run on every shard; each shard moves only the
+ * ids it holds. Bulk runs by date drain one shard at a time.
+ */
+@Service
+public class OrderLifecycleService {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderLifecycleService.class);
+
+    private final OrderRepository orderRepository;
+    private final ShardRouter shards;
+    private final InventoryClient inventoryClient;
+    private final TransactionTemplate transactionTemplate;
+    private final Scheduler repositoryScheduler;
+    private final MeterRegistry meterRegistry;
+    private final OrderEventBus eventBus;
+    private final int chunkSize;
+    private final int returnConcurrency;
+    private final Counter inventoryReturnFailures;
+
+    public OrderLifecycleService(OrderRepository orderRepository,
+                                 ShardRouter shards,
+                                 InventoryClient inventoryClient,
+                                 TransactionTemplate transactionTemplate,
+                                 Scheduler repositoryScheduler,
+                                 MeterRegistry meterRegistry,
+                                 OrderEventBus eventBus,
+                                 @Value("${orders.lifecycle.chunk-size:500}") int chunkSize,
+                                 @Value("${orders.lifecycle.return-concurrency:8}") int returnConcurrency) {
+        this.orderRepository = orderRepository;
+        this.shards = shards;
+        this.inventoryClient = inventoryClient;
+        this.transactionTemplate = transactionTemplate;
+        this.repositoryScheduler = repositoryScheduler;
+        this.meterRegistry = meterRegistry;
+        this.eventBus = eventBus;
+        this.chunkSize = chunkSize;
+        this.returnConcurrency = returnConcurrency;
+        this.inventoryReturnFailures = Counter.builder("orders.lifecycle.inventory.return.failures")
+                .description("Inventory returns that failed after a cancellation")
+                .register(meterRegistry);
+    }
+
+    public Mono<OrderStatusResponse> complete(UUID orderId) {
+        return transitionOne(orderId, OrderStatus.COMPLETED);
+    }
+
+    public Mono<OrderStatusResponse> cancel(UUID orderId) {
+        return transitionOne(orderId, OrderStatus.CANCELLED);
+    }
+
+    public Mono<BulkTransitionResult> completeAll(BulkTransitionRequest request) {
+        return transitionAll(request, OrderStatus.COMPLETED);
+    }
+
+    public Mono<BulkTransitionResult> cancelAll(BulkTransitionRequest request) {
+        return transitionAll(request, OrderStatus.CANCELLED);
+    }
+
+    private Mono<OrderStatusResponse> transitionOne(UUID orderId, OrderStatus target) {
+        return transitionChunk(List.of(orderId), target)
+                .flatMap(chunk -> chunk.transitioned() > 0
+                        ? Mono.just(new OrderStatusResponse(orderId, target))
+                        : currentStatus(orderId)
+                        .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found")))
+                        .flatMap(current -> current == target
+                                // Samma övergång två gånger är ofarlig
+                                ? Mono.just(new OrderStatusResponse(orderId, current))
+                                : Mono.error(new ResponseStatusException(HttpStatus.CONFLICT,
+                                "Order is " + current + ", only CREATED orders can become " + target))));
+    }
+
+    private Mono<BulkTransitionResult> transitionAll(BulkTransitionRequest request, OrderStatus target) {
+        boolean byIds = request.orderIds() != null && !request.orderIds().isEmpty();
+        if (byIds == (request.createdBefore() != null)) {
+            return Mono.error(new IllegalArgumentException("Specify either orderIds or createdBefore"));
+        }
+
+        Flux<ChunkResult> chunks = byIds
+                ? Flux.fromIterable(request.orderIds()).distinct().buffer(chunkSize).concatMap(ids -> transitionChunk(ids, target))
+                : Flux.range(0, shards.count()).concatMap(shard -> drainCreatedBefore(shard, request.createdBefore(), target));
+
+        return Mono.defer(() -> {
+            long started = System.nanoTime();
+            return chunks.reduce(ChunkResult.EMPTY, ChunkResult::plus)
+                    .map(total -> {
+                        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+                        double perSecond = elapsedMillis == 0 ? total.transitioned() : total.transitioned() * 1000.0 / elapsedMillis;
+                        log.info("Bulk transition to {}: {} orders in {} chunks, {} ms", target, total.transitioned(), total.chunks(), elapsedMillis);
+                        return new BulkTransitionResult(target, total.transitioned(), total.chunks(), total.returnFailures(), elapsedMillis, perSecond);
+                    });
+        });
+    }
+
+    /**
+     * Repeatedly takes the oldest chunk of CREATED orders on one shard placed before the cutoff until none are left.
+     * Transitioned orders no longer match, so each round sees a fresh chunk. The rounds are a loop, not a chain of
+     * nested publishers, so a drain of any length runs in constant stack and operator depth.
+     */
+    private Flux<ChunkResult> drainCreatedBefore(int shard, OffsetDateTime before, OrderStatus target) {
+        Mono<ChunkResult> oneChunk = Mono.fromCallable(shards.onShard(shard,
+                        () -> orderRepository.findIdsByStatusAndOrderDateBefore(OrderStatus.CREATED, before, PageRequest.of(0, chunkSize))))
+                .subscribeOn(repositoryScheduler)
+                // EMPTY (noll chunkar) betyder att inget fanns kvar; en hittad chunk räknas alltid som en, även om inget låstes
+                .flatMap(ids -> ids.isEmpty()
+                        ? Mono.just(ChunkResult.EMPTY)
+                        : publish(Mono.fromCallable(shards.onShard(shard, () -> lockAndTransition(ids, target))).subscribeOn(repositoryScheduler), target));
+        return oneChunk.repeat()
+                .takeWhile(chunk -> chunk.chunks() > 0);
+    }
+
+    private Mono<ChunkResult> transitionChunk(List<UUID> ids, OrderStatus target) {
+        return publish(shards.gather(shard -> () -> lockAndTransition(ids, target), repositoryScheduler).map(Transition::merge), target);
+    }
+
+    private Transition lockAndTransition(List<UUID> ids, OrderStatus target) {
+        return transactionTemplate.execute(tx -> {
+            // De låsta id:na är exakt de ordrar som flyttas: bara de får händelser och lagerretur
+            List<UUID> locked = orderRepository.lockIdsByStatus(ids, OrderStatus.CREATED);
+            if (locked.isEmpty()) {
+                return Transition.NONE;
+            }
+            Map<UUID, Integer> returns = new LinkedHashMap<>();
+            if (target == OrderStatus.CANCELLED) {
+                for (OrderRepository.ProductQuantity q : orderRepository.sumQuantitiesByProduct(locked)) {
+                    returns.put(q.getProductId(), Math.toIntExact(q.getQuantity()));
+                }
+            }
+            orderRepository.transitionStatus(locked, OrderStatus.CREATED, target);
+            return new Transition(locked, returns);
+        });
+    }
+
+    private Mono<ChunkResult> publish(Mono<Transition> transition, OrderStatus target) {
+        return transition
+                .doOnNext(t -> t.orderIds().forEach(id -> eventBus.publish(OrderEvent.statusChanged(id, target))))
+                .flatMap(t -> returnInventory(t.returns())
+                        .map(failures -> counted(target, new ChunkResult(t.orderIds().size(), 1, failures))));
+    }
+
+    private Mono<Integer> returnInventory(Map<UUID, Integer> quantities) {
+        return Flux.fromIterable(quantities.entrySet())
+                .flatMap(e -> inventoryClient.returnStock(e.getKey(), e.getValue(), null)
+                        .thenReturn(0)
+                        .onErrorResume(err -> {
+                            log.warn("Could not return {} x {} to inventory after cancellation", e.getValue(), e.getKey(), err);
+                            inventoryReturnFailures.increment();
+                            return Mono.just(1);
+                        }), returnConcurrency)
+                .reduce(0, Integer::sum);
+    }
+
+    private Mono<OrderStatus> currentStatus(UUID orderId) {
+        return shards.gather(shard -> () -> orderRepository.findById(orderId).map(Order::getStatus).orElse(null), repositoryScheduler)
+                .flatMap(found -> Mono.justOrEmpty(found.stream().findFirst()));
+    }
+
+    private ChunkResult counted(OrderStatus target, ChunkResult chunk) {
+        meterRegistry.counter("orders.lifecycle.transitions", "to", target.name()).increment(chunk.transitioned());
+        return chunk;
+    }
+
+    private record Transition(List<UUID> orderIds, Map<UUID, Integer> returns) {
+        static final Transition NONE = new Transition(List.of(), Map.of());
+
+        static Transition merge(List<Transition> perShard) {
+            if (perShard.size() == 1) {
+                return perShard.get(0);
+            }
+            List<UUID> orderIds = new ArrayList<>();
+            Map<UUID, Integer> returns = new LinkedHashMap<>();
+            for (Transition t : perShard) {
+                orderIds.addAll(t.orderIds());
+                t.returns().forEach((productId, qty) -> returns.merge(productId, qty, Integer::sum));
+            }
+            return new Transition(orderIds, returns);
+        }
+    }
+
+    private record ChunkResult(long transitioned, int chunks, int returnFailures) {
+        static final ChunkResult EMPTY = new ChunkResult(0, 0, 0);
+
+        ChunkResult plus(ChunkResult other) {
+            return new ChunkResult(transitioned + other.transitioned, chunks + other.chunks, returnFailures + other.returnFailures);
+        }
+    }
+}
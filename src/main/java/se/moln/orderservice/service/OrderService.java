@@ -2,175 +2,462 @@ package se.moln.orderservice.service;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Signal;
+import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
+import reactor.util.context.ContextView;
+import se.moln.orderservice.archive.OrderArchive;
+import se.moln.orderservice.client.InventoryClient;
+import se.moln.orderservice.client.ProductClient;
+import se.moln.orderservice.client.UnavailableProducts;
 import se.moln.orderservice.dto.*;
+import se.moln.orderservice.events.OrderEvent;
+import se.moln.orderservice.events.OrderEventBus;
+import se.moln.orderservice.exception.DeadlineExceededException;
+import se.moln.orderservice.exception.DownstreamException;
+import se.moln.orderservice.exception.ProblemDetails;
+import se.moln.orderservice.metrics.PurchaseMetrics;
+import se.moln.orderservice.metrics.QueryStatistics;
 import se.moln.orderservice.model.Order;
 import se.moln.orderservice.model.OrderItem;
 import se.moln.orderservice.model.OrderStatus;
 import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.resilience.AdaptiveConcurrencyLimiter;
+import se.moln.orderservice.resilience.Deadline;
+import se.moln.orderservice.shard.ShardRouter;
+import se.moln.orderservice.web.CorrelationIdFilter;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 @Service
 public class OrderService {
 
-    private final WebClient.Builder webClientBuilder;
+    static final String EMPTY_PURCHASE = "Purchase must contain at least one item";
+
+    /** Largest page of history served in one request. */
+    public static final int MAX_HISTORY_PAGE_SIZE = 500;
+
+    /**
+     * Deepest position in the history that can be paged to. A merged page reads {@code (page + 1) * size} orders
+     * from every source, so this bounds the work and memory of one history request.
+     */
+    public static final int MAX_HISTORY_WINDOW = 10_000;
+
+    // Produktuppslag återanvänds inom en bulk-batch, men aldrig längre än så här
+    private static final Duration BULK_LOOKUP_TTL = Duration.ofMinutes(5);
+
+    private final ProductClient productClient;
+    private final InventoryClient inventoryClient;
+    private final UnavailableProducts unavailableProducts;
     private final OrderRepository orderRepository;
-    private final String userServiceUrl;
-    private final String productServiceUrl;
+    private final OrderArchive archive;
+    private final OrderHistoryReadModel readModel;
+    private final ShardRouter shards;
     private final JwtService jwtService;
+    private final PurchaseMetrics metrics;
+    private final OrderEventBus eventBus;
+    private final AdaptiveConcurrencyLimiter admissionLimiter;
+    private final Scheduler repositoryScheduler;
+    private final int bulkConcurrency;
+    private final int bulkPrefetch;
+    private final boolean speculativeReservation;
+    private final Duration defaultDeadline;
 
-    public OrderService(WebClient.Builder webClientBuilder,
+    public OrderService(ProductClient productClient,
+                        InventoryClient inventoryClient,
+                        UnavailableProducts unavailableProducts,
                         OrderRepository orderRepository,
-                        @Value("${userservice.url}") String userServiceUrl,
-                        @Value("${productservice.url}") String productServiceUrl,
-                        JwtService jwtService) {
-        this.webClientBuilder = webClientBuilder;
+                        OrderArchive archive,
+                        OrderHistoryReadModel readModel,
+                        ShardRouter shards,
+                        JwtService jwtService,
+                        PurchaseMetrics metrics,
+                        OrderEventBus eventBus,
+                        AdaptiveConcurrencyLimiter admissionLimiter,
+                        Scheduler repositoryScheduler,
+                        @Value("${orders.bulk.concurrency:16}") int bulkConcurrency,
+                        @Value("${orders.bulk.prefetch:64}") int bulkPrefetch,
+                        @Value("${orders.purchase.speculative-reservation:false}") boolean speculativeReservation,
+                        @Value("${orders.deadline.default:10s}") Duration defaultDeadline) {
+        this.productClient = productClient;
+        this.inventoryClient = inventoryClient;
+        this.unavailableProducts = unavailableProducts;
         this.orderRepository = orderRepository;
-        this.userServiceUrl = userServiceUrl;
-        this.productServiceUrl = productServiceUrl;
+        this.archive = archive;
+        this.readModel = readModel;
+        this.shards = shards;
         this.jwtService = jwtService;
+        this.metrics = metrics;
+        this.eventBus = eventBus;
+        this.admissionLimiter = admissionLimiter;
+        this.repositoryScheduler = repositoryScheduler;
+        this.bulkConcurrency = bulkConcurrency;
+        this.bulkPrefetch = bulkPrefetch;
+        this.speculativeReservation = speculativeReservation;
+        this.defaultDeadline = defaultDeadline;
     }
 
     public Mono<PurchaseResponse> purchaseProduct(PurchaseRequest request, String jwtToken) {
+        return purchase(request, jwtToken, productId -> productClient.fetch(productId, jwtToken));
+    }
+
+    /**
+     * Runs a stream of purchases through the same pipeline with bounded concurrency and emits one result per
+     * request in completion order. Product lookups are shared across the batch; client errors (e.g. 404) are
+     * reused as well, server errors are not so a transient failure only affects the orders that hit it.
+     */
+    public Flux<BulkPurchaseResult> purchaseAll(Flux<PurchaseRequest> requests, String jwtToken) {
+        return Flux.defer(() -> {
+            Map<UUID, Mono<ProductResponse>> products = new ConcurrentHashMap<>();
+            Function<UUID, Mono<ProductResponse>> lookup = productId -> products.computeIfAbsent(productId,
+                    id -> productClient.fetch(id, jwtToken).cache(
+                            prod -> BULK_LOOKUP_TTL,
+                            err -> isClientError(err) ? BULK_LOOKUP_TTL : Duration.ZERO,
+                            () -> Duration.ZERO));
+
+            return requests
+                    .limitRate(bulkPrefetch)
+                    .index()
+                    .flatMap(indexed -> Mono.defer(() -> purchase(indexed.getT2(), jwtToken, lookup))
+                            .map(resp -> BulkPurchaseResult.success(indexed.getT1(), resp))
+                            .onErrorResume(err -> Mono.just(BulkPurchaseResult.failure(indexed.getT1(), ProblemDetails.from(err)))),
+                            bulkConcurrency);
+        });
+    }
+
+    private Mono<PurchaseResponse> purchase(PurchaseRequest request, String jwtToken, Function<UUID, Mono<ProductResponse>> productLookup) {
+        if (!hasItems(request)) {
+            return Mono.error(new IllegalArgumentException(EMPTY_PURCHASE));
+        }
+        return fulfil(newOrder(jwtToken, OrderStatus.CREATED), request, jwtToken, productLookup);
+    }
+
+    static boolean hasItems(PurchaseRequest request) {
+        return request != null && request.items() != null && !request.items().isEmpty();
+    }
+
+    /**
+     * New, unsaved order header for the caller.
+     */
+    Order newOrder(String jwtToken, OrderStatus status) {
         // Temporarily allow null token for testing
         UUID userId = (jwtToken != null && !jwtToken.isBlank())
                 ? jwtService.extractUserId(jwtToken)
                 : UUID.randomUUID(); // Generate random UUID for testing
 
-        String correlationId = UUID.randomUUID().toString();
-        WebClient webClient = webClientBuilder.build();
-
         Order order = new Order();
         order.setUserId(userId);
-        order.setStatus(OrderStatus.CREATED);
+        order.setStatus(status);
         order.setOrderDate(OffsetDateTime.now());
         order.setOrderNumber(generateOrderNumber());
+        return order;
+    }
+
+    /**
+     * Runs the purchase pipeline for an order that was accepted asynchronously and is already saved as PENDING.
+     * The order row is updated in place, so its id stays the one the client got with {@code 202 Accepted}.
+     */
+    Mono<PurchaseResponse> fulfilPending(Order order, PurchaseRequest request) {
+        return fulfil(order, request, null, productId -> productClient.fetch(productId, null));
+    }
+
+    private Mono<PurchaseResponse> fulfil(Order order, PurchaseRequest request, String jwtToken,
+                                          Function<UUID, Mono<ProductResponse>> productLookup) {
+        Mono<PurchaseResponse> pipeline = Mono.deferContextual(ctx -> {
+                    Deadline deadline = Deadline.from(ctx);
+                    if (deadline.isExpired()) {
+                        return Mono.<PurchaseResponse>error(new DeadlineExceededException("Deadline passed before the purchase started"));
+                    }
+                    // Känt saknad eller slutsåld produkt: inget anrop alls, inte heller för resten av varukorgen
+                    String correlationId = CorrelationIdFilter.from(ctx);
+                    DownstreamException unavailable = unavailableProducts.reject(request.items(), correlationId);
+                    if (unavailable != null) {
+                        return Mono.<PurchaseResponse>error(unavailable);
+                    }
+                    // Skickade reservationer, så att allt som hunnit reserveras kan lämnas tillbaka om köpet avbryts
+                    Reservations reservations = new Reservations();
+                    return Flux.fromIterable(request.items())
+                            .flatMap(itemReq ->
+                                    lookupAndReserve(itemReq, jwtToken, correlationId, productLookup, reservations)
+                                            .map(prod -> {
+                                                OrderItem item = new OrderItem();
+                                                item.setProductId(itemReq.productId());
+                                                item.setQuantity(itemReq.quantity());
+                                                item.setPriceAtPurchase(prod.price());
+                                                item.setProductName(prod.name());
+                                                item.setOrder(order);
+                                                return item;
+                                            })
+                            )
+                            .collectList()
+                            .timeout(deadline.remaining(),
+                                    Mono.error(() -> new DeadlineExceededException("Deadline passed while reserving stock")))
+                            .flatMap(items -> {
+                                // Sista chansen att ge upp: ett sparat köp går inte att ångra
+                                if (deadline.isExpired()) {
+                                    return Mono.error(new DeadlineExceededException("Deadline passed before the order was saved"));
+                                }
+                                order.setOrderItems(items);
+
+                                BigDecimal total = items.stream()
+                                        .map(i -> i.getPriceAtPurchase().multiply(BigDecimal.valueOf(i.getQuantity())))
+                                        .reduce(BigDecimal.ZERO, BigDecimal::add);
+
+                                order.setTotalAmount(total);
+                                order.setStatus(OrderStatus.CREATED);
 
-        return Flux.fromIterable(request.items())
-                .flatMap(itemReq ->
-                        // hämta produktinfo
-                        webClient.get()
-                                .uri(productServiceUrl + "/api/products/{id}", itemReq.productId())
-                                .headers(headers -> {
-                                    if (jwtToken != null && !jwtToken.isBlank()) {
-                                        headers.add(HttpHeaders.AUTHORIZATION, "Bearer " + jwtToken);
-                                    }
-                                    headers.add(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
-                                    headers.add("X-Correlation-Id", correlationId);
-                                })
-                                .retrieve()
-                                .bodyToMono(ProductResponse.class)
-                                .flatMap(prod ->
-                                        // reservera lagret
-                                        webClient.post()
-                                                .uri(productServiceUrl + "/api/inventory/{id}/purchase", itemReq.productId())
-                                                .headers(headers -> {
-                                                    if (jwtToken != null && !jwtToken.isBlank()) {
-                                                        headers.add(HttpHeaders.AUTHORIZATION, "Bearer " + jwtToken);
-                                                    }
-                                                    headers.add(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
-                                                    headers.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
-                                                    headers.add("X-Correlation-Id", correlationId);
-                                                })
-                                                .bodyValue(new InventoryPurchaseRequest(itemReq.quantity()))
-                                                .retrieve()
-                                                .toBodilessEntity()
-                                                .thenReturn(prod)
-                                )
-                                .map(prod -> {
-                                    OrderItem item = new OrderItem();
-                                    item.setProductId(itemReq.productId());
-                                    item.setQuantity(itemReq.quantity());
-                                    item.setPriceAtPurchase(prod.price());
-                                    item.setProductName(prod.name());
-                                    item.setOrder(order);
-                                    return item;
-                                })
-                )
-                .collectList()
-                .flatMap(items -> {
-                    order.setOrderItems(items);
-
-                    BigDecimal total = items.stream()
-                            .map(i -> i.getPriceAtPurchase().multiply(BigDecimal.valueOf(i.getQuantity())))
-                            .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-                    order.setTotalAmount(total);
-
-                    return Mono.fromCallable(() -> orderRepository.save(order))
-                            .subscribeOn(Schedulers.boundedElastic())
-                            .map(saved -> new PurchaseResponse(saved.getId(), saved.getOrderNumber(), saved.getTotalAmount()))
-                            .onErrorResume(err -> {
-                                // Rollback: returnera alla reserverade produkter
-                                return Flux.fromIterable(order.getOrderItems())
-                                        .flatMap(item ->
-                                                webClient.post()
-                                                        .uri(productServiceUrl + "/api/inventory/{id}/return", item.getProductId())
-                                                        .headers(headers -> {
-                                                            if (jwtToken != null && !jwtToken.isBlank()) {
-                                                                headers.add(HttpHeaders.AUTHORIZATION, "Bearer " + jwtToken);
-                                                            }
-                                                            headers.add(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
-                                                            headers.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
-                                                            headers.add("X-Correlation-Id", correlationId);
-                                                        })
-                                                        .bodyValue(new InventoryPurchaseRequest(item.getQuantity()))
-                                                        .retrieve()
-                                                        .toBodilessEntity()
-                                                        .onErrorResume(refundErr -> Mono.empty())
-                                        )
-                                        .then(Mono.error(err));
-                            });
+                                return metrics.timeStage(PurchaseMetrics.STAGE_ORDER_SAVE, saveOrder(order))
+                                        .doOnNext(saved -> eventBus.publish(OrderEvent.created(saved)))
+                                        .map(saved -> new PurchaseResponse(saved.getId(), saved.getOrderNumber(), saved.getTotalAmount()));
+                            })
+                            // Rollback: returnera allt som reserverats, oavsett vilket steg som föll
+                            .onErrorResume(err -> compensate(reservations, jwtToken, deadline, ctx).then(Mono.error(err)));
+                })
+                .contextWrite(ctx -> ctx.hasKey(Deadline.CONTEXT_KEY) ? ctx : ctx.put(Deadline.CONTEXT_KEY, Deadline.after(defaultDeadline)));
+
+        // Admission control först: avvisade köp ska inte öppna några anrop nedströms
+        return admissionLimiter.guard(pipeline)
+                .transform(metrics::timePurchase)
+                .contextWrite(CorrelationIdFilter::ensure);
+    }
+
+    /**
+     * Returns the stock of every reservation that took effect, including those whose reserve call was still in
+     * flight when the purchase gave up. Runs without the request deadline: the caller may be gone, but the stock
+     * still has to go back. The purchase waits for it at most until its own deadline; after that the compensation
+     * finishes on its own.
+     */
+    private Mono<Void> compensate(Reservations reservations, String jwtToken, Deadline deadline, ContextView ctx) {
+        Mono<Void> compensation = reservations.abandon()
+                .flatMap(toReturn -> {
+                    if (toReturn.isEmpty()) {
+                        return Mono.<Void>empty();
+                    }
+                    metrics.rollback();
+                    return Flux.fromIterable(toReturn)
+                            .flatMap(reservation -> returnStock(reservation, jwtToken))
+                            .then();
+                })
+                .contextWrite(Deadline::clear)
+                .contextWrite(ctx)
+                // Kompensationen får inte köras på repository-tråden: när sparningen felar snabbt kan
+                // subscribeOn avbryta (interrupt) den tråden medan returen fortfarande väntar på bulkhead
+                .subscribeOn(Schedulers.parallel())
+                .cache();
+        compensation.subscribe();
+        return deadline.isExpired() ? Mono.empty() : compensation.timeout(deadline.remaining(), Mono.empty());
+    }
+
+    private Mono<Void> returnStock(Reservations.Reservation reservation, String jwtToken) {
+        return inventoryClient.returnStock(reservation.productId(), reservation.quantity(), jwtToken)
+                .onErrorResume(refundErr -> {
+                    metrics.compensationFailure();
+                    return Mono.empty();
                 });
     }
 
+    /**
+     * Looks up the product and reserves stock for one item. Normally the reservation waits for the lookup; with
+     * {@code orders.purchase.speculative-reservation} both are sent at once, which saves one round trip per item.
+     * A speculative reservation whose lookup fails (or finds nothing) is returned before the error is passed on.
+     * Products found missing or at zero stock are remembered in {@link UnavailableProducts}; without speculation a
+     * product at zero stock is refused without trying to reserve it.
+     */
+    private Mono<ProductResponse> lookupAndReserve(PurchaseRequest.OrderItemRequest itemReq, String jwtToken, String correlationId,
+                                                   Function<UUID, Mono<ProductResponse>> productLookup,
+                                                   Reservations reservations) {
+        UUID productId = itemReq.productId();
+        Mono<ProductResponse> lookup = productLookup.apply(productId)
+                .doOnError(err -> unavailableProducts.failed(productId, err));
+        Mono<Reservations.Reservation> reserve = Mono.defer(() -> reservations.reserve(productId, itemReq.quantity(),
+                inventoryClient.reserve(productId, itemReq.quantity(), jwtToken)));
+        if (!speculativeReservation) {
+            // hämta produktinfo, reservera sedan lagret
+            return lookup.flatMap(prod -> {
+                DownstreamException outOfStock = unavailableProducts.found(productId, prod, correlationId);
+                return outOfStock != null
+                        ? Mono.error(outOfStock)
+                        : reserve.thenReturn(prod);
+            });
+        }
+
+        // Båda anropen körs klart oavsett utfall, så vi vet alltid om reservationen gick igenom;
+        // lagersaldot från uppslaget sparas bara, reservationen har redan avgjort saken
+        return Mono.zip(lookup.doOnNext(prod -> unavailableProducts.found(productId, prod, correlationId)).materialize(),
+                        reserve.materialize())
+                .flatMap(signals -> {
+                    Signal<ProductResponse> product = signals.getT1();
+                    Signal<Reservations.Reservation> reservation = signals.getT2();
+                    if (reservation.isOnError()) {
+                        return product.isOnError() ? Mono.error(product.getThrowable()) : Mono.error(reservation.getThrowable());
+                    }
+                    if (product.hasValue()) {
+                        return Mono.just(product.get());
+                    }
+                    Mono<ProductResponse> outcome = product.isOnError() ? Mono.error(product.getThrowable()) : Mono.empty();
+                    // Har köpet redan gett upp lämnar kompensationen tillbaka reservationen i stället
+                    if (!reservations.release(reservation.get())) {
+                        return outcome;
+                    }
+                    metrics.speculativeCompensation();
+                    return returnStock(reservation.get(), jwtToken).then(outcome);
+                });
+    }
+
+    /**
+     * Saves the order on its user's shard on a blocking worker and records how long the save waited for a thread.
+     */
+    private Mono<Order> saveOrder(Order order) {
+        return Mono.defer(() -> {
+            long enqueuedAt = System.nanoTime();
+            return Mono.fromCallable(shards.forUser(order.getUserId(), QueryStatistics.measured("purchase", () -> {
+                        metrics.recordSaveQueueDelay(System.nanoTime() - enqueuedAt);
+                        return orderRepository.save(order);
+                    })))
+                    .subscribeOn(repositoryScheduler);
+        });
+    }
+
 
     public Mono<List<OrderHistoryDto>> getOrderHistory(String jwtToken, int page, int size) {
+        return history(historyUser(jwtToken), page, size);
+    }
+
+    /**
+     * User whose history {@code jwtToken} asks for, or {@code null} for all orders when there is no token.
+     */
+    public UUID historyUser(String jwtToken) {
         // Temporarily allow null token for testing - return all orders
-        if (jwtToken == null || jwtToken.isBlank()) {
+        return jwtToken == null || jwtToken.isBlank() ? null : jwtService.extractUserId(jwtToken);
+    }
+
+    /**
+     * One page of the history of {@code userId}, or of all orders when it is {@code null}.
+     */
+    public Mono<List<OrderHistoryDto>> history(UUID userId, int page, int size) {
+        if (page < 0 || size < 1 || size > MAX_HISTORY_PAGE_SIZE || (long) (page + 1) * size > MAX_HISTORY_WINDOW) {
+            return Mono.error(new IllegalArgumentException("History paging is limited to " + MAX_HISTORY_PAGE_SIZE
+                    + " orders per page and the newest " + MAX_HISTORY_WINDOW + " orders"));
+        }
+        if (userId == null) {
             // Return all orders when no auth (for testing)
-            return Mono.fromCallable(() -> orderRepository.findAll(PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "orderDate"))))
-                    .subscribeOn(Schedulers.boundedElastic())
-                    .map(pageObj -> pageObj.getContent().stream().map(o -> new OrderHistoryDto(
-                            o.getId(),
-                            o.getOrderNumber(),
-                            o.getTotalAmount(),
-                            o.getStatus(),
-                            o.getOrderDate(),
-                            o.getOrderItems().stream().map(oi -> new OrderItemDto(
-                                    oi.getProductId(), oi.getProductName(), oi.getQuantity(), oi.getPriceAtPurchase()
-                            )).toList()
-                    )).toList());
+            if (archive.hasSegments() || shards.count() > 1) {
+                return mergedHistory(window -> liveHistory(null, window), null, page, size);
+            }
+            return liveHistory(null, PageRequest.of(page, size));
         }
 
-        UUID userId = jwtService.extractUserId(jwtToken);
-        return Mono.fromCallable(() ->  orderRepository.findByUserId(userId, PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "orderDate")))
-                )
-                .subscribeOn(Schedulers.boundedElastic())
-                .map(pageObj -> pageObj.getContent().stream().map(o -> new OrderHistoryDto(
-                        o.getId(),
-                        o.getOrderNumber(),
-                        o.getTotalAmount(),
-                        o.getStatus(),
-                        o.getOrderDate(),
-                        o.getOrderItems().stream().map(oi -> new OrderItemDto(
-                                oi.getProductId(), oi.getProductName(), oi.getQuantity(), oi.getPriceAtPurchase()
-                        )).toList()
-                )).toList());
+        // Läsmodellen har en färdig rad per order; ingen join och ingen entitetsmappning
+        Function<PageRequest, Mono<List<OrderHistoryDto>>> live = readModel.serves()
+                ? window -> readModel.newest(userId, window)
+                : window -> liveHistory(userId, window);
+        if (archive.hasSegments()) {
+            return mergedHistory(live, userId, page, size);
+        }
+        return live.apply(PageRequest.of(page, size));
+    }
+
+    private Mono<List<OrderHistoryDto>> liveHistory(UUID userIdOrNull, PageRequest page) {
+        return liveOrders(userIdOrNull, page)
+                .map(orders -> orders.stream().map(OrderService::toHistoryDto).toList());
+    }
+
+    /**
+     * Newest orders of one user from that user's shard, or of all users from every shard. Results from several
+     * shards are concatenated, not merged; callers that need one page across shards go through
+     * {@link #mergedHistory}.
+     */
+    private Mono<List<Order>> liveOrders(UUID userIdOrNull, PageRequest page) {
+        if (userIdOrNull != null) {
+            Callable<List<Order>> work = QueryStatistics.measured("history", () -> newestOrders(userIdOrNull, page));
+            return Mono.fromCallable(shards.forUser(userIdOrNull, work))
+                    .subscribeOn(repositoryScheduler);
+        }
+        return shards.gather(shard -> QueryStatistics.measured("history", () -> newestOrders(null, page)), repositoryScheduler)
+                .map(perShard -> perShard.stream().flatMap(List::stream).toList());
+    }
+
+    /**
+     * One page of orders with their items, newest first, in two statements: the page of ids from the index,
+     * then those orders with the entity graph. Fetching the graph for a page directly would page in memory.
+     */
+    private List<Order> newestOrders(UUID userIdOrNull, PageRequest page) {
+        List<UUID> ids = userIdOrNull == null
+                ? orderRepository.findIdsNewestFirst(page)
+                : orderRepository.findIdsByUserIdNewestFirst(userIdOrNull, page);
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<UUID, Order> byId = new HashMap<>();
+        orderRepository.findByIdIn(ids).forEach(o -> byId.put(o.getId(), o));
+        return ids.stream().map(byId::get).filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * History across shards and the archive. Archived orders are always older than the archival cutoff but not
+     * necessarily older than every live order, and no shard knows about the others, so every source contributes
+     * its newest {@code (page + 1) * size} orders and the page is cut from the merge. {@link #history} keeps that
+     * window within {@link #MAX_HISTORY_WINDOW}.
+     */
+    private Mono<List<OrderHistoryDto>> mergedHistory(Function<PageRequest, Mono<List<OrderHistoryDto>>> live,
+                                                      UUID userIdOrNull, int page, int size) {
+        int window = (page + 1) * size;
+        Mono<List<OrderHistoryDto>> archived = archive.hasSegments()
+                ? Mono.fromCallable(() -> archive.newest(userIdOrNull, window)).subscribeOn(repositoryScheduler)
+                .map(orders -> orders.stream().map(OrderService::toHistoryDto).toList())
+                : Mono.just(List.of());
+        return Mono.zip(live.apply(PageRequest.of(0, window)), archived)
+                .map(sources -> {
+                    // Ett avbrutet arkiveringspass kan lämna samma order på båda ställena
+                    Map<UUID, OrderHistoryDto> byId = new LinkedHashMap<>();
+                    sources.getT1().forEach(o -> byId.put(o.id(), o));
+                    sources.getT2().forEach(o -> byId.putIfAbsent(o.id(), o));
+                    return byId.values().stream()
+                            .sorted(Comparator.comparing(OrderHistoryDto::orderDate, Comparator.nullsLast(Comparator.<OffsetDateTime>reverseOrder())))
+                            .skip((long) page * size)
+                            .limit(size)
+                            .toList();
+                });
+    }
+
+    private static OrderHistoryDto toHistoryDto(Order o) {
+        return new OrderHistoryDto(
+                o.getId(),
+                o.getOrderNumber(),
+                o.getTotalAmount(),
+                o.getStatus(),
+                o.getOrderDate(),
+                o.getOrderItems().stream().map(oi -> new OrderItemDto(
+                        oi.getProductId(), oi.getProductName(), oi.getQuantity(), oi.getPriceAtPurchase()
+                )).toList()
+        );
+    }
+
+    private static boolean isClientError(Throwable err) {
+        if (err instanceof DownstreamException de) {
+            return de.isClientError();
+        }
+        return err instanceof WebClientResponseException wcre && wcre.getStatusCode().is4xxClientError();
     }
 
     private String generateOrderNumber() {
-        return "ORD-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        // 12 hex-tecken: order_number har ett unikt index och 8 tecken krockar redan vid några tiotusen ordrar
+        return "ORD-" + UUID.randomUUID().toString().replace("-", "").substring(0, 12).toUpperCase();
     }
 }
\ No newline at end of file
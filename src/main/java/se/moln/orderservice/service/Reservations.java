@@ -0,0 +1,106 @@
+package se.moln.orderservice.service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stock reservations of one purchase, tracked from the moment the reserve call is sent.
+ * <p>
+ * A reserve call that is already on its way is never cancelled with the purchase: whether the product service
+ * applied it would then be unknown, and its stock could not be returned. Every call runs on its own subscription
+ * and the purchase only stops waiting for it. {@link #abandon} waits until every sent call has answered and hands
+ * out the reservations that took effect, each one exactly once, also when some of them were already given back
+ * through {@link #release}.
+ */
+final class Reservations {
+
+    private enum State { SENT, RESERVED, REFUSED, RETURNED }
+
+    static final class Reservation {
+
+        private final UUID productId;
+        private final int quantity;
+        private final AtomicReference<State> state = new AtomicReference<>(State.SENT);
+        private final Sinks.Empty<Void> answered = Sinks.empty();
+
+        private Reservation(UUID productId, int quantity) {
+            this.productId = productId;
+            this.quantity = quantity;
+        }
+
+        UUID productId() {
+            return productId;
+        }
+
+        int quantity() {
+            return quantity;
+        }
+    }
+
+    private final List<Reservation> sent = new ArrayList<>();
+    private boolean abandoned;
+
+    /**
+     * Sends {@code call} and emits the reservation once it has been applied, or fails with the call's error.
+     * Cancelling the returned Mono stops waiting, not the call. Nothing is sent after {@link #abandon}.
+     */
+    Mono<Reservation> reserve(UUID productId, int quantity, Mono<Void> call) {
+        return Mono.deferContextual(ctx -> {
+            Reservation reservation = new Reservation(productId, quantity);
+            synchronized (this) {
+                if (abandoned) {
+                    // Köpet har redan gett upp och ingen väntar på svaret; skicka inget
+                    return Mono.never();
+                }
+                sent.add(reservation);
+            }
+            call.contextWrite(ctx).subscribe(null,
+                    err -> {
+                        reservation.state.set(State.REFUSED);
+                        reservation.answered.tryEmitError(err);
+                    },
+                    () -> {
+                        reservation.state.compareAndSet(State.SENT, State.RESERVED);
+                        reservation.answered.tryEmitEmpty();
+                    });
+            return reservation.answered.asMono().thenReturn(reservation);
+        });
+    }
+
+    /**
+     * Takes a reservation back for the caller to return its stock, e.g. when the item is dropped from the cart.
+     * False if it is no longer held (refused, or already handed out).
+     */
+    boolean release(Reservation reservation) {
+        return reservation.state.compareAndSet(State.RESERVED, State.RETURNED);
+    }
+
+    /**
+     * Stops sending reservations, waits for every sent call to answer and emits the reservations whose stock has
+     * to go back. Takes as long as the slowest call in flight, which is bounded by the downstream timeout.
+     */
+    Mono<List<Reservation>> abandon() {
+        List<Reservation> inFlight;
+        synchronized (this) {
+            abandoned = true;
+            inFlight = List.copyOf(sent);
+        }
+        return Flux.fromIterable(inFlight)
+                .flatMap(reservation -> reservation.answered.asMono().onErrorResume(err -> Mono.empty()))
+                .then(Mono.fromSupplier(() -> {
+                    List<Reservation> toReturn = new ArrayList<>();
+                    for (Reservation reservation : inFlight) {
+                        if (release(reservation)) {
+                            toReturn.add(reservation);
+                        }
+                    }
+                    return toReturn;
+                }));
+    }
+}
@@ -0,0 +1,88 @@
+package se.moln.orderservice.service;
+
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import se.moln.orderservice.archive.OrderArchive;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.shard.ShardRouter;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Weak ETags for read endpoints, derived from one aggregate query ({@code count} and {@code max(last_modified)})
+ * instead of the data itself. Any insert, status change or deletion of a matching order changes the tag, and the
+ * tag comes from the database, so every instance agrees on it. Versions over several shards add up the counts and
+ * take the latest modification. A user's history served from the {@link OrderHistoryReadModel} is versioned by
+ * the read model, so a tag never runs ahead of the body it is sent with.
+ */
+@Service
+public class ResourceVersions {
+
+    private final OrderRepository orderRepository;
+    private final OrderArchive archive;
+    private final OrderHistoryReadModel readModel;
+    private final ShardRouter shards;
+    private final Scheduler repositoryScheduler;
+
+    public ResourceVersions(OrderRepository orderRepository, OrderArchive archive, OrderHistoryReadModel readModel,
+                            ShardRouter shards, Scheduler repositoryScheduler) {
+        this.orderRepository = orderRepository;
+        this.archive = archive;
+        this.readModel = readModel;
+        this.shards = shards;
+        this.repositoryScheduler = repositoryScheduler;
+    }
+
+    /**
+     * Version of the order history of one user, or of all orders when {@code userId} is null.
+     */
+    public Mono<String> history(UUID userId) {
+        Mono<OrderRepository.DataVersion> version;
+        if (userId == null) {
+            version = shards.gather(shard -> orderRepository::version, repositoryScheduler).map(ResourceVersions::combine);
+        } else if (readModel.serves()) {
+            version = readModel.version(userId);
+        } else {
+            version = Mono.fromCallable(shards.forUser(userId, () -> orderRepository.versionByUserId(userId))).subscribeOn(repositoryScheduler);
+        }
+        // Arkiverade ordrar ingår i historiken; ett nytt segment flyttar ordrar men ändrar inte innehållet
+        return version.map(v -> etag("h", v, archive.orderCount()));
+    }
+
+    /**
+     * Version of the orders placed in {@code [from, to]}, the input of the monthly KPIs.
+     */
+    public Mono<String> orderDateRange(OffsetDateTime from, OffsetDateTime to) {
+        return shards.gather(shard -> () -> orderRepository.versionByOrderDateBetween(from, to), repositoryScheduler)
+                // Nyckeltalen räknar med arkivet; en order som arkiveras flyttar en rad men ändrar inte summan
+                .map(perShard -> etag("k", combine(perShard), archive.orderCount()));
+    }
+
+    static OrderRepository.DataVersion combine(List<OrderRepository.DataVersion> perShard) {
+        if (perShard.size() == 1) {
+            return perShard.get(0);
+        }
+        long count = perShard.stream().mapToLong(OrderRepository.DataVersion::getCount).sum();
+        OffsetDateTime lastModified = perShard.stream()
+                .map(OrderRepository.DataVersion::getLastModified)
+                .filter(Objects::nonNull)
+                .max(Comparator.naturalOrder())
+                .orElse(null);
+        return new Combined(count, lastModified);
+    }
+
+    private record Combined(long getCount, OffsetDateTime getLastModified) implements OrderRepository.DataVersion {
+    }
+
+    static String etag(String kind, OrderRepository.DataVersion v, long archived) {
+        long modified = v.getLastModified() == null ? 0 : ChronoUnit.MICROS.between(Instant.EPOCH, v.getLastModified().toInstant());
+        return "W/\"" + kind + "-" + Long.toString(v.getCount() + archived, 36) + "-" + Long.toString(modified, 36) + "\"";
+    }
+}
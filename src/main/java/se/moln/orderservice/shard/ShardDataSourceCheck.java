@@ -0,0 +1,22 @@
+package se.moln.orderservice.shard;
+
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * Refuses to start when {@code orders.sharding.count} asks for several shards but the primary DataSource is a
+ * single database. With Spring AOT the sharding configuration is chosen when the image is built, so an image built
+ * for one shard and started with {@code ORDER_SHARDS} above 1 would otherwise put every shard's orders in shard 0.
+ */
+@Component
+public class ShardDataSourceCheck {
+
+    public ShardDataSourceCheck(ShardRouter router, DataSource dataSource) {
+        if (router.count() > 1 && !(dataSource instanceof ShardRoutingDataSource)) {
+            throw new IllegalStateException("orders.sharding.count is " + router.count()
+                    + " but the DataSource is not sharded; with AOT, build with --build-arg ORDER_SHARDS="
+                    + router.count());
+        }
+    }
+}
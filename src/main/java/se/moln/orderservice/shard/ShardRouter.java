@@ -0,0 +1,135 @@
+package se.moln.orderservice.shard;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Maps users to order shards and binds repository work to a shard.
+ * <p>
+ * A user's orders all live on shard {@link #shardOf}, a jump consistent hash of the user id over
+ * {@code orders.sharding.count} shards. Work wrapped in {@link #forUser} or {@link #onShard} runs with the shard
+ * bound to the current thread; {@link ShardRoutingDataSource} hands out connections to that shard, so the binding
+ * has to be in place before the transaction starts. Work that is not bound runs on shard 0. Queries that are not
+ * per user scatter with {@link #gather} and merge the per-shard results themselves.
+ * <p>
+ * Resharding: growing from N to N + 1 shards moves only the users whose jump hash changes, about 1/(N + 1) of
+ * them, and always onto the new shard. Shard 0 is the original single database, so going from one shard to
+ * several leaves every order where it is until it is moved. To reshard, add the new shard's URL, copy the orders
+ * (and their items and intake rows) of each moved user from its old shard, raise {@code orders.sharding.count}
+ * and delete the copied rows from the old shards. Until the count is raised nothing reads the copies, and after
+ * that nothing reads the originals.
+ */
+@Component
+public class ShardRouter {
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private final int count;
+
+    public ShardRouter(@Value("${orders.sharding.count:1}") int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("orders.sharding.count must be at least 1");
+        }
+        this.count = count;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Shard that holds the orders of {@code userId}; shard 0 for orders without a user.
+     */
+    public int shardOf(UUID userId) {
+        if (userId == null || count == 1) {
+            return 0;
+        }
+        return jump(userId.getMostSignificantBits() ^ userId.getLeastSignificantBits(), count);
+    }
+
+    public <T> Callable<T> forUser(UUID userId, Callable<T> work) {
+        return onShard(shardOf(userId), work);
+    }
+
+    public <T> Callable<T> onShard(int shard, Callable<T> work) {
+        checkShard(shard);
+        return () -> {
+            Integer previous = CURRENT.get();
+            CURRENT.set(shard);
+            try {
+                return work.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * Runs {@code work} with {@code shard} bound, for callers that are already on a blocking thread.
+     */
+    public <T> T runOn(int shard, Supplier<T> work) {
+        checkShard(shard);
+        Integer previous = CURRENT.get();
+        CURRENT.set(shard);
+        try {
+            return work.get();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * Runs the work of every shard in parallel on {@code scheduler} and collects the results in shard order.
+     * Shards whose work returns {@code null} contribute nothing.
+     */
+    public <T> Mono<List<T>> gather(IntFunction<Callable<T>> work, Scheduler scheduler) {
+        return Flux.range(0, count)
+                .flatMapSequential(shard -> Mono.fromCallable(onShard(shard, work.apply(shard))).subscribeOn(scheduler))
+                .collectList();
+    }
+
+    /**
+     * Shard bound to the current thread, or {@code null} outside {@link #forUser}, {@link #onShard} and {@link #runOn}.
+     */
+    static Integer current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Jump consistent hash (Lamping and Veach): a bucket in {@code [0, buckets)} such that growing the bucket count
+     * by one moves a key only into the new bucket, and only with probability {@code 1 / buckets}.
+     */
+    static int jump(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    private void checkShard(int shard) {
+        if (shard < 0 || shard >= count) {
+            throw new IllegalArgumentException("No shard " + shard + ", there are " + count);
+        }
+    }
+
+    private static void restore(Integer previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
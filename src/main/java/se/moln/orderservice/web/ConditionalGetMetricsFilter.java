@@ -0,0 +1,91 @@
+package se.moln.orderservice.web;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts GET responses that carry an ETag as {@code not_modified} (304) or {@code modified} (full body), and
+ * estimates the bytes a 304 saved from the size of the last full body sent for the same URL and ETag.
+ * Sizes are before response compression.
+ */
+@Component
+public class ConditionalGetMetricsFilter implements WebFilter {
+
+    private static final int MAX_TRACKED = 1024;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter bytesSaved;
+    // Senaste fulla svarsstorlek per URL och ETag, begränsad LRU
+    private final Map<String, Long> lastBodySize = Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_TRACKED;
+        }
+    });
+
+    public ConditionalGetMetricsFilter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.bytesSaved = Counter.builder("orders.http.conditional.bytes.saved")
+                .description("Response body bytes not sent thanks to 304 Not Modified (uncompressed)")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (exchange.getRequest().getMethod() != HttpMethod.GET) {
+            return chain.filter(exchange);
+        }
+        String url = exchange.getRequest().getURI().getRawPath() + "?" + exchange.getRequest().getURI().getRawQuery();
+        String path = exchange.getRequest().getPath().value();
+        ServerHttpResponse response = exchange.getResponse();
+        AtomicLong written = new AtomicLong();
+
+        ServerHttpResponseDecorator decorated = new ServerHttpResponseDecorator(response) {
+            @Override
+            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                return super.writeWith(Flux.from(body).doOnNext(buffer -> written.addAndGet(buffer.readableByteCount())));
+            }
+        };
+        decorated.beforeCommit(() -> Mono.fromRunnable(() -> {
+            String etag = response.getHeaders().getETag();
+            if (etag == null) {
+                return;
+            }
+            boolean notModified = HttpStatus.NOT_MODIFIED.equals(response.getStatusCode());
+            meterRegistry.counter("orders.http.conditional", "uri", path,
+                    "outcome", notModified ? "not_modified" : "modified").increment();
+            if (notModified) {
+                Long size = lastBodySize.get(url + etag);
+                if (size != null) {
+                    bytesSaved.increment(size);
+                }
+            }
+        }));
+
+        return chain.filter(exchange.mutate().response(decorated).build())
+                .doOnSuccess(v -> {
+                    String etag = response.getHeaders().getETag();
+                    if (etag != null && written.get() > 0 && HttpStatus.OK.equals(response.getStatusCode())) {
+                        lastBodySize.put(url + etag, written.get());
+                    }
+                });
+    }
+}
@@ -0,0 +1,58 @@
+package se.moln.orderservice.web;
+
+import io.micrometer.common.KeyValue;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.server.reactive.observation.ServerRequestObservationContext;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.util.UUID;
+
+/**
+ * Takes the caller's {@code X-Correlation-Id} (or creates one), echoes it on the response,
+ * tags the current server observation with it and makes it available to downstream calls
+ * through the Reactor context.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class CorrelationIdFilter implements WebFilter {
+
+    public static final String HEADER = "X-Correlation-Id";
+    public static final String CONTEXT_KEY = "correlationId";
+    public static final String ATTRIBUTE = CorrelationIdFilter.class.getName() + ".correlationId";
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String incoming = exchange.getRequest().getHeaders().getFirst(HEADER);
+        String correlationId = (incoming != null && !incoming.isBlank()) ? incoming : UUID.randomUUID().toString();
+
+        exchange.getAttributes().put(ATTRIBUTE, correlationId);
+        exchange.getResponse().getHeaders().set(HEADER, correlationId);
+        ServerRequestObservationContext.findCurrent(exchange.getAttributes())
+                .ifPresent(ctx -> ctx.addHighCardinalityKeyValue(KeyValue.of("correlation.id", correlationId)));
+
+        return chain.filter(exchange)
+                .contextWrite(ctx -> ctx.put(CONTEXT_KEY, correlationId));
+    }
+
+    /**
+     * Adds a correlation id to the context unless the caller already has one, so that all
+     * downstream calls of one operation share the same id also outside a web request.
+     */
+    public static Context ensure(Context ctx) {
+        return ctx.hasKey(CONTEXT_KEY) ? ctx : ctx.put(CONTEXT_KEY, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Correlation id of the current request, or a fresh one when called outside a web request.
+     */
+    public static String from(ContextView ctx) {
+        return ctx.hasKey(CONTEXT_KEY) ? ctx.get(CONTEXT_KEY) : UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,54 @@
+package se.moln.orderservice.web;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import se.moln.orderservice.resilience.Deadline;
+
+import java.time.Duration;
+
+/**
+ * Turns the caller's {@code X-Request-Timeout-Ms} into a {@link Deadline} in the Reactor context.
+ * <p>
+ * Values above {@code orders.deadline.max} are capped; missing or unparsable headers leave the request without a
+ * deadline here, the purchase pipeline then applies {@code orders.deadline.default} itself.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class DeadlineFilter implements WebFilter {
+
+    private final Duration max;
+
+    public DeadlineFilter(@Value("${orders.deadline.max:60s}") Duration max) {
+        this.max = max;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        Duration budget = parse(exchange.getRequest().getHeaders().getFirst(Deadline.HEADER));
+        if (budget == null) {
+            return chain.filter(exchange);
+        }
+        // Klockan startar när anropet tas emot, inte när svaret börjar byggas
+        Deadline deadline = Deadline.after(budget.compareTo(max) > 0 ? max : budget);
+        return chain.filter(exchange)
+                .contextWrite(ctx -> ctx.put(Deadline.CONTEXT_KEY, deadline));
+    }
+
+    private static Duration parse(String header) {
+        if (header == null || header.isBlank()) {
+            return null;
+        }
+        try {
+            long millis = Long.parseLong(header.trim());
+            return millis >= 0 ? Duration.ofMillis(millis) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package se.moln.orderservice.web;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times the first request an instance serves: its latency ({@code orders.startup.first.request}) and how long after
+ * JVM start it completed ({@code orders.startup.first.request.since.start}). Together with Spring Boot's
+ * {@code application.ready.time} this is what the AOT and class-data-sharing image is compared on. Later requests
+ * pass straight through.
+ */
+@Component
+public class FirstRequestTimingFilter implements WebFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(FirstRequestTimingFilter.class);
+
+    private final AtomicBoolean seen = new AtomicBoolean();
+    private final AtomicLong sinceStartMillis = new AtomicLong(-1);
+    private final Timer firstRequest;
+
+    public FirstRequestTimingFilter(MeterRegistry meterRegistry) {
+        this.firstRequest = Timer.builder("orders.startup.first.request")
+                .description("Latency of the first request served by this instance")
+                .register(meterRegistry);
+        TimeGauge.builder("orders.startup.first.request.since.start", sinceStartMillis, TimeUnit.MILLISECONDS, AtomicLong::get)
+                .description("Time from JVM start until the first request completed, -1 before it has")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (seen.get() || !seen.compareAndSet(false, true)) {
+            return chain.filter(exchange);
+        }
+        long started = System.nanoTime();
+        return chain.filter(exchange).doFinally(signal -> {
+            long latencyNanos = System.nanoTime() - started;
+            firstRequest.record(latencyNanos, TimeUnit.NANOSECONDS);
+            long sinceStart = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+            sinceStartMillis.set(sinceStart);
+            log.info("First request {} took {} ms, {} ms after JVM start",
+                    exchange.getRequest().getPath(), TimeUnit.NANOSECONDS.toMillis(latencyNanos), sinceStart);
+        });
+    }
+}
@@ -0,0 +1,183 @@
+package se.moln.orderservice.web;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import se.moln.orderservice.resilience.TokenBuckets;
+import se.moln.orderservice.service.JwtService;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Per-caller token buckets in front of purchase and history, so one client cannot starve the others.
+ * <p>
+ * A request with a valid bearer token is limited per user ({@code uid}, else {@code sub}); everything else per
+ * client IP. The IP is the remote address, which is the client itself only when
+ * {@code server.forward-headers-strategy} is set behind a proxy. Every limited response carries
+ * {@code RateLimit-Limit}, {@code RateLimit-Remaining} and {@code RateLimit-Reset}; a throttled one is answered
+ * with 429, {@code Retry-After} and a problem detail, and counted in {@code orders.ratelimit.throttled}.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+public class RateLimitFilter implements WebFilter {
+
+    private static final String LIMIT = "RateLimit-Limit";
+    private static final String REMAINING = "RateLimit-Remaining";
+    private static final String RESET = "RateLimit-Reset";
+    private static final Set<String> PURCHASE_PATHS =
+            Set.of("/api/orders/purchase", "/api/orders/purchase/bulk", "/api/orders/purchase/async");
+
+    private enum Route {
+        PURCHASE, HISTORY
+    }
+
+    private enum Caller {
+        USER, IP
+    }
+
+    private record Key(Route route, Object caller) {
+    }
+
+    private final boolean enabled;
+    private final JwtService jwtService;
+    private final ObjectMapper objectMapper;
+    private final TokenBuckets buckets;
+    private final Map<Route, TokenBuckets.Limit> limits = new EnumMap<>(Route.class);
+    private final Map<Route, Map<Caller, Counter>> throttled = new EnumMap<>(Route.class);
+
+    public RateLimitFilter(JwtService jwtService,
+                           ObjectMapper objectMapper,
+                           MeterRegistry meterRegistry,
+                           @Value("${orders.ratelimit.enabled:true}") boolean enabled,
+                           @Value("${orders.ratelimit.purchase.rate:5}") double purchaseRate,
+                           @Value("${orders.ratelimit.purchase.burst:20}") int purchaseBurst,
+                           @Value("${orders.ratelimit.history.rate:20}") double historyRate,
+                           @Value("${orders.ratelimit.history.burst:50}") int historyBurst,
+                           @Value("${orders.ratelimit.stripes:64}") int stripes,
+                           @Value("${orders.ratelimit.max-entries:1000000}") int maxEntries,
+                           @Value("${orders.ratelimit.idle:1m}") Duration idle) {
+        this.enabled = enabled;
+        this.jwtService = jwtService;
+        this.objectMapper = objectMapper;
+        this.buckets = new TokenBuckets(stripes, maxEntries, idle, System::nanoTime);
+        limits.put(Route.PURCHASE, new TokenBuckets.Limit("purchase", purchaseRate, purchaseBurst));
+        limits.put(Route.HISTORY, new TokenBuckets.Limit("history", historyRate, historyBurst));
+        for (Route route : Route.values()) {
+            Map<Caller, Counter> byCaller = new EnumMap<>(Caller.class);
+            for (Caller caller : Caller.values()) {
+                byCaller.put(caller, Counter.builder("orders.ratelimit.throttled")
+                        .description("Requests rejected by the per-caller rate limit")
+                        .tag("route", route.name().toLowerCase())
+                        .tag("caller", caller.name().toLowerCase())
+                        .register(meterRegistry));
+            }
+            throttled.put(route, byCaller);
+        }
+        Gauge.builder("orders.ratelimit.buckets", buckets, TokenBuckets::size)
+                .description("Rate limit buckets currently held")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        Route route = enabled ? route(exchange.getRequest()) : null;
+        if (route == null) {
+            return chain.filter(exchange);
+        }
+        UUID userId = userId(exchange.getRequest());
+        Caller caller = userId != null ? Caller.USER : Caller.IP;
+        Object callerKey = userId != null ? userId : clientIp(exchange.getRequest());
+        TokenBuckets.Decision decision = buckets.tryAcquire(new Key(route, callerKey), limits.get(route));
+
+        ServerHttpResponse response = exchange.getResponse();
+        HttpHeaders headers = response.getHeaders();
+        headers.set(LIMIT, String.valueOf(decision.limit()));
+        headers.set(REMAINING, String.valueOf(decision.remaining()));
+        headers.set(RESET, String.valueOf(ceilSeconds(decision.reset())));
+        if (decision.allowed()) {
+            return chain.filter(exchange);
+        }
+        throttled.get(route).get(caller).increment();
+        return reject(response, decision.retryAfter());
+    }
+
+    @Scheduled(fixedDelayString = "${orders.ratelimit.evict-interval:PT30S}")
+    public void evictIdle() {
+        buckets.evictIdle();
+    }
+
+    private static Route route(ServerHttpRequest request) {
+        String path = request.getPath().pathWithinApplication().value();
+        // Bara köpen själva; statusfrågor på ett asynkront köp (GET /purchase/async/{id}) är inte köp
+        if (request.getMethod() == HttpMethod.POST && PURCHASE_PATHS.contains(path)) {
+            return Route.PURCHASE;
+        }
+        if (path.equals("/api/orders/history")) {
+            return Route.HISTORY;
+        }
+        return null;
+    }
+
+    private UUID userId(ServerHttpRequest request) {
+        String authorization = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        if (authorization == null || !authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return null;
+        }
+        try {
+            return jwtService.extractUserId(authorization.substring(7).trim());
+        } catch (RuntimeException e) {
+            // Ogiltig token: begränsa per IP, autentiseringen säger nej längre fram
+            return null;
+        }
+    }
+
+    private static String clientIp(ServerHttpRequest request) {
+        InetSocketAddress remote = request.getRemoteAddress();
+        if (remote == null) {
+            return "unknown";
+        }
+        return remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+    }
+
+    private Mono<Void> reject(ServerHttpResponse response, Duration retryAfter) {
+        ProblemDetail pd = ProblemDetail.forStatusAndDetail(HttpStatus.TOO_MANY_REQUESTS, "Too many requests, try again later");
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(pd);
+        } catch (JsonProcessingException e) {
+            body = pd.getDetail().getBytes(StandardCharsets.UTF_8);
+        }
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, ceilSeconds(retryAfter))));
+        response.getHeaders().setContentType(MediaType.APPLICATION_PROBLEM_JSON);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+    }
+
+    private static long ceilSeconds(Duration duration) {
+        return (duration.toMillis() + 999) / 1000;
+    }
+}
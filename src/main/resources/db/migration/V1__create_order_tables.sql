@@ -0,0 +1,23 @@
+-- Baseline schema, equivalent to what hibernate.ddl-auto=update used to generate.
+-- Existing databases are baselined at version 1 (spring.flyway.baseline-on-migrate) and skip this script.
+
+CREATE TABLE orders (
+    id           UUID                     NOT NULL,
+    user_id      UUID,
+    order_number VARCHAR(255),
+    total_amount NUMERIC(38, 2),
+    order_date   TIMESTAMP(6) WITH TIME ZONE,
+    status       VARCHAR(32),
+    CONSTRAINT pk_orders PRIMARY KEY (id)
+);
+
+CREATE TABLE order_items (
+    id                UUID    NOT NULL,
+    product_id        UUID,
+    quantity          INTEGER NOT NULL,
+    price_at_purchase NUMERIC(38, 2),
+    product_name      VARCHAR(255),
+    order_id          UUID,
+    CONSTRAINT pk_order_items PRIMARY KEY (id),
+    CONSTRAINT fk_order_items_order FOREIGN KEY (order_id) REFERENCES orders (id)
+);
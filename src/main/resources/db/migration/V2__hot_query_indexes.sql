@@ -0,0 +1,13 @@
+-- Hibernate created status as an H2 ENUM column; plain VARCHAR lets new statuses be added without a migration.
+ALTER TABLE orders ALTER COLUMN status SET DATA TYPE VARCHAR(32);
+
+-- findByUserId: equality on user_id, sorted by order_date desc. id is appended so the page of ids is read from the index alone.
+CREATE INDEX IF NOT EXISTS idx_orders_user_date ON orders (user_id, order_date DESC, id);
+
+-- findByStatusAndOrderDateBetween (analytics): equality on status, range on order_date.
+CREATE INDEX IF NOT EXISTS idx_orders_status_date ON orders (status, order_date, id);
+
+-- Loading orderItems for a page of orders.
+CREATE INDEX IF NOT EXISTS idx_order_items_order ON order_items (order_id);
+
+CREATE UNIQUE INDEX IF NOT EXISTS ux_orders_order_number ON orders (order_number);
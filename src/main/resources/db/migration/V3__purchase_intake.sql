@@ -0,0 +1,16 @@
+-- Durable journal for purchases accepted through /api/orders/purchase/async.
+-- One row per PENDING order; the worker claims ACCEPTED rows, and rows left in PROCESSING after a crash are failed on startup.
+CREATE TABLE purchase_intake (
+    order_id       UUID                        NOT NULL,
+    payload        CLOB                        NOT NULL,
+    state          VARCHAR(16)                 NOT NULL,
+    problem_status INTEGER,
+    problem_detail VARCHAR(1000),
+    accepted_at    TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+    updated_at     TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+    CONSTRAINT pk_purchase_intake PRIMARY KEY (order_id),
+    CONSTRAINT fk_purchase_intake_order FOREIGN KEY (order_id) REFERENCES orders (id)
+);
+
+-- Recovery on startup looks rows up by state.
+CREATE INDEX idx_purchase_intake_state ON purchase_intake (state);
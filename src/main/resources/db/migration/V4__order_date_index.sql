@@ -0,0 +1,2 @@
+-- CSV export: range on order_date without a status, read in (order_date, id) order straight from the index.
+CREATE INDEX IF NOT EXISTS idx_orders_date ON orders (order_date, id);
@@ -0,0 +1,7 @@
+-- Version for conditional GETs: every insert, status change and delete moves count or max(last_modified).
+ALTER TABLE orders ADD COLUMN IF NOT EXISTS last_modified TIMESTAMP(6) WITH TIME ZONE;
+UPDATE orders SET last_modified = COALESCE(order_date, CURRENT_TIMESTAMP) WHERE last_modified IS NULL;
+
+-- Whole-table and per-user versions are read from these indexes alone.
+CREATE INDEX IF NOT EXISTS idx_orders_last_modified ON orders (last_modified);
+CREATE INDEX IF NOT EXISTS idx_orders_user_modified ON orders (user_id, last_modified);
@@ -0,0 +1,24 @@
+-- Read model for order history: one row per order with its items embedded (Smile), maintained from order events
+-- and caught up from orders.last_modified. History pages are read from this table alone, without joins.
+CREATE TABLE IF NOT EXISTS order_history (
+    order_id        UUID NOT NULL,
+    user_id         UUID,
+    order_number    VARCHAR(255),
+    status          VARCHAR(32),
+    total_amount    NUMERIC(38, 2),
+    order_date      TIMESTAMP(6) WITH TIME ZONE,
+    items           VARBINARY,
+    source_modified TIMESTAMP(6) WITH TIME ZONE,
+    projected_at    TIMESTAMP(6) WITH TIME ZONE,
+    CONSTRAINT pk_order_history PRIMARY KEY (order_id)
+);
+
+-- A page of one user's history, newest first.
+CREATE INDEX IF NOT EXISTS idx_order_history_user_date ON order_history (user_id, order_date DESC, order_id);
+
+-- Versions (ETags) of a user's history and the catch-up starting point.
+CREATE INDEX IF NOT EXISTS idx_order_history_user_modified ON order_history (user_id, source_modified);
+CREATE INDEX IF NOT EXISTS idx_order_history_source_modified ON order_history (source_modified);
+
+-- Catch-up scans orders by modification time.
+CREATE INDEX IF NOT EXISTS idx_orders_modified_id ON orders (last_modified, id);
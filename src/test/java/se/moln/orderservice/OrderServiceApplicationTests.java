@@ -15,8 +15,8 @@ import org.springframework.boot.test.context.SpringBootTest;
                 "spring.datasource.username=sa",
                 "spring.datasource.password=",
                 "spring.datasource.driver-class-name=org.h2.Driver",
-                // JPA settings for tests
-                "spring.jpa.hibernate.ddl-auto=create-drop",
+                // JPA settings for tests (schema comes from the Flyway migrations)
+                "spring.jpa.hibernate.ddl-auto=none",
                 "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
                 "spring.jpa.open-in-view=false",
                 "spring.sql.init.mode=never"
@@ -0,0 +1,119 @@
+package se.moln.orderservice.archive;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderArchiveTest {
+
+    private static final OffsetDateTime BASE = OffsetDateTime.of(2024, 1, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+
+    @TempDir
+    Path dir;
+
+    private static Order order(UUID userId, int dayOffset) {
+        Order o = new Order();
+        o.setId(UUID.randomUUID());
+        o.setUserId(userId);
+        o.setOrderNumber("ORD-" + dayOffset);
+        o.setTotalAmount(new BigDecimal("19.90"));
+        o.setOrderDate(BASE.plusDays(dayOffset));
+        o.setStatus(OrderStatus.COMPLETED);
+        OrderItem item = new OrderItem();
+        item.setId(UUID.randomUUID());
+        item.setProductId(UUID.randomUUID());
+        item.setProductName("Produkt " + dayOffset);
+        item.setQuantity(2);
+        item.setPriceAtPurchase(new BigDecimal("9.95"));
+        item.setOrder(o);
+        o.setOrderItems(List.of(item));
+        return o;
+    }
+
+    @Test
+    void emptyDirectory_hasNoSegments() {
+        OrderArchive archive = new OrderArchive(dir.resolve("missing"), new SimpleMeterRegistry());
+
+        assertFalse(archive.hasSegments());
+        assertTrue(archive.newest(null, 10).isEmpty());
+    }
+
+    @Test
+    void roundTrip_preservesOrdersAndItems() {
+        OrderArchive archive = new OrderArchive(dir, new SimpleMeterRegistry());
+        Order original = order(UUID.randomUUID(), 3);
+
+        archive.append(List.of(original), 4);
+        Order read = archive.newest(null, 1).get(0);
+
+        assertEquals(original.getId(), read.getId());
+        assertEquals(original.getUserId(), read.getUserId());
+        assertEquals(original.getOrderNumber(), read.getOrderNumber());
+        assertEquals(0, original.getTotalAmount().compareTo(read.getTotalAmount()));
+        assertEquals(original.getOrderDate(), read.getOrderDate());
+        assertEquals(OrderStatus.COMPLETED, read.getStatus());
+        OrderItem item = read.getOrderItems().get(0);
+        assertEquals(original.getOrderItems().get(0).getProductId(), item.getProductId());
+        assertEquals("Produkt 3", item.getProductName());
+        assertEquals(2, item.getQuantity());
+        assertSame(read, item.getOrder());
+    }
+
+    @Test
+    void newest_mergesSegmentsNewestFirst_andUsesUserIndex() {
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        OrderArchive archive = new OrderArchive(dir, new SimpleMeterRegistry());
+        List<Order> first = new ArrayList<>();
+        List<Order> second = new ArrayList<>();
+        for (int day = 0; day < 20; day++) {
+            // Segmenten överlappar i tid, som när sent slutförda ordrar arkiveras i ett senare pass
+            (day % 2 == 0 ? first : second).add(order(day % 3 == 0 ? alice : bob, day));
+        }
+        archive.append(first, 3);
+        archive.append(second, 3);
+
+        List<Order> aliceNewest = archive.newest(alice, 3);
+        assertEquals(List.of("ORD-18", "ORD-15", "ORD-12"), aliceNewest.stream().map(Order::getOrderNumber).toList());
+        assertTrue(archive.newest(alice, 100).stream().allMatch(o -> alice.equals(o.getUserId())));
+        assertEquals(7, archive.newest(alice, 100).size());
+        assertEquals(13, archive.newest(bob, 100).size());
+        assertTrue(archive.newest(UUID.randomUUID(), 10).isEmpty());
+
+        List<Order> all = archive.newest(null, 20);
+        assertEquals(20, all.size());
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).getOrderDate().isAfter(all.get(i).getOrderDate()));
+        }
+    }
+
+    @Test
+    void reopen_readsPublishedSegments_andIgnoresTempFiles() throws Exception {
+        UUID user = UUID.randomUUID();
+        OrderArchive archive = new OrderArchive(dir, new SimpleMeterRegistry());
+        archive.append(List.of(order(user, 1), order(user, 2)), 64);
+        Files.writeString(dir.resolve("segment-00000000000000000002.seg.tmp"), "half written");
+
+        OrderArchive reopened = new OrderArchive(dir, new SimpleMeterRegistry());
+
+        assertTrue(reopened.hasSegments());
+        assertEquals(2, reopened.orderCount());
+        assertEquals(2, reopened.newest(user, 10).size());
+        assertEquals(2, reopened.newestSegmentIds().size());
+        assertFalse(Files.exists(dir.resolve("segment-00000000000000000002.seg.tmp")));
+    }
+}
@@ -0,0 +1,78 @@
+package se.moln.orderservice.archive;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.repository.OrderHistoryEntryRepository;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.repository.PurchaseIntakeRepository;
+import se.moln.orderservice.shard.ShardRouter;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrderArchiverTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void failedDelete_isRetriedOnTheNextRun_withoutArchivingTheOrdersAgain() {
+        Order order = new Order();
+        order.setId(UUID.randomUUID());
+        order.setUserId(UUID.randomUUID());
+        order.setOrderNumber("ORD-1");
+        order.setTotalAmount(new BigDecimal("19.90"));
+        order.setOrderDate(OffsetDateTime.now().minusYears(1));
+        order.setStatus(OrderStatus.COMPLETED);
+        order.setOrderItems(List.of());
+
+        // Ordern finns kvar i tabellen tills en borttagning lyckas
+        AtomicBoolean deleted = new AtomicBoolean();
+        AtomicInteger deletes = new AtomicInteger();
+        OrderRepository orders = mock(OrderRepository.class);
+        when(orders.findIdsByStatusInAndOrderDateBefore(any(), any(), any()))
+                .thenAnswer(inv -> deleted.get() ? List.of() : List.of(order.getId()));
+        when(orders.findByIdIn(any())).thenReturn(List.of(order));
+        when(orders.deleteByIdIn(any())).thenAnswer(inv -> {
+            if (deletes.incrementAndGet() == 1) {
+                throw new QueryTimeoutException("database went away");
+            }
+            deleted.set(true);
+            return 1;
+        });
+
+        OrderArchive archive = new OrderArchive(dir, new SimpleMeterRegistry());
+        OrderArchiver archiver = new OrderArchiver(archive, orders, mock(PurchaseIntakeRepository.class),
+                mock(OrderHistoryEntryRepository.class), new ShardRouter(1),
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), new SimpleMeterRegistry(),
+                true, Duration.ofDays(180), 100, 16);
+
+        archiver.run();
+        assertEquals(1, archive.orderCount());
+        assertFalse(deleted.get());
+
+        archiver.run();
+        archiver.run();
+
+        assertTrue(deleted.get());
+        assertEquals(1, archive.orderCount());
+        assertEquals(1, archive.newest(null, 10).size());
+        verify(orders, times(1)).findByIdIn(any());
+    }
+}
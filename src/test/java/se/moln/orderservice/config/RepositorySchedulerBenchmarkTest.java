@@ -0,0 +1,144 @@
+package se.moln.orderservice.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Repository calls per second and their latency (queueing included) for both {@code orders.blocking.mode}s at the
+ * same JDBC pool size. Each call borrows a connection, runs a history-sized query and holds the connection for a
+ * couple of milliseconds more, like a round trip to a database on another host. The peak live platform thread count
+ * and the heap in use after the run are published too, since that is what the two modes trade against each other.
+ * Run with {@code -Pbenchmark}.
+ */
+@Tag("benchmark")
+class RepositorySchedulerBenchmarkTest {
+
+    private static final int POOL_SIZE = 10;
+    private static final int CALLS = 4_000;
+    private static final int IN_FLIGHT = 400;
+    private static final long DB_ROUND_TRIP_MILLIS = 2;
+    private static final UUID USER = UUID.randomUUID();
+
+    private static HikariDataSource dataSource;
+    private static JdbcTemplate jdbc;
+
+    @BeforeAll
+    static void createPool() {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:mem:scheduler-benchmark;DB_CLOSE_DELAY=-1");
+        config.setUsername("sa");
+        config.setMaximumPoolSize(POOL_SIZE);
+        config.setConnectionTimeout(60_000);
+        dataSource = new HikariDataSource(config);
+        jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE orders (id UUID PRIMARY KEY, user_id UUID, total_amount DECIMAL(10, 2), order_date TIMESTAMP)");
+        jdbc.execute("CREATE INDEX idx_orders_user ON orders (user_id, order_date)");
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            rows.add(new Object[]{UUID.randomUUID(), i % 2 == 0 ? USER : UUID.randomUUID(), new BigDecimal("20.00"),
+                    Timestamp.from(Instant.now().minusSeconds(i * 60L))});
+        }
+        jdbc.batchUpdate("INSERT INTO orders (id, user_id, total_amount, order_date) VALUES (?, ?, ?, ?)", rows);
+    }
+
+    @AfterAll
+    static void closePool() {
+        dataSource.close();
+    }
+
+    private static int repositoryCall() {
+        return jdbc.execute((ConnectionCallback<Integer>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT id, total_amount FROM orders WHERE user_id = ? ORDER BY order_date DESC LIMIT 20")) {
+                statement.setObject(1, USER);
+                int rows = 0;
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        rows++;
+                    }
+                }
+                try {
+                    Thread.sleep(DB_ROUND_TRIP_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return rows;
+            }
+        });
+    }
+
+    private static long[] run(Scheduler scheduler, int calls) {
+        long[] latencies = Flux.range(0, calls)
+                .flatMap(i -> {
+                    long started = System.nanoTime();
+                    return Mono.fromCallable(RepositorySchedulerBenchmarkTest::repositoryCall)
+                            .subscribeOn(scheduler)
+                            .doOnNext(rows -> assertEquals(20, rows))
+                            .map(rows -> System.nanoTime() - started);
+                }, IN_FLIGHT)
+                .collectList()
+                .block()
+                .stream()
+                .mapToLong(Long::longValue)
+                .toArray();
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    @ParameterizedTest(name = "mode={0}")
+    @ValueSource(strings = {SchedulerConfig.BOUNDED_ELASTIC, SchedulerConfig.VIRTUAL_THREADS})
+    void repositoryCalls_atFixedPoolSize(String mode, TestReporter reporter) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Scheduler scheduler = new SchedulerConfig().repositoryScheduler(mode);
+        try {
+            run(scheduler, CALLS / 4); // uppvärmning
+
+            // Toppen räknas om från nu, så att uppvärmningen och det förra läget inte syns i den
+            System.gc();
+            threads.resetPeakThreadCount();
+            long started = System.nanoTime();
+            long[] latencies = run(scheduler, CALLS);
+            double seconds = (System.nanoTime() - started) / 1e9;
+            // Virtuella trådar räknas inte av ThreadMXBean; deras bärartrådar gör det
+            int peakThreads = threads.getPeakThreadCount();
+            long usedHeap = memory.getHeapMemoryUsage().getUsed();
+
+            reporter.publishEntry("mode", mode);
+            reporter.publishEntry("poolSize", String.valueOf(POOL_SIZE));
+            reporter.publishEntry("callsPerSecond", String.format("%.0f", CALLS / seconds));
+            reporter.publishEntry("p50Millis", String.format("%.1f", latencies[CALLS / 2] / 1e6));
+            reporter.publishEntry("p99Millis", String.format("%.1f", latencies[CALLS * 99 / 100] / 1e6));
+            reporter.publishEntry("peakLiveThreads", String.valueOf(peakThreads));
+            reporter.publishEntry("usedHeapMiB", String.format("%.1f", usedHeap / (1024.0 * 1024.0)));
+        } finally {
+            scheduler.dispose();
+        }
+    }
+}
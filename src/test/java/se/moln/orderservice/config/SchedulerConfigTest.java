@@ -0,0 +1,30 @@
+package se.moln.orderservice.config;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchedulerConfigTest {
+
+    private final SchedulerConfig config = new SchedulerConfig();
+
+    @Test
+    void knownModes_areAccepted_caseAndWhitespaceInsensitive() {
+        assertSame(Schedulers.boundedElastic(), config.repositoryScheduler(" Bounded-Elastic "));
+        Scheduler virtual = config.repositoryScheduler("VIRTUAL-THREADS");
+        try {
+            assertNotSame(Schedulers.boundedElastic(), virtual);
+        } finally {
+            virtual.dispose();
+        }
+    }
+
+    @Test
+    void unknownMode_failsInsteadOfFallingBack() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> config.repositoryScheduler("virtual-thread"));
+        assertTrue(e.getMessage().contains("virtual-thread"));
+    }
+}
@@ -1,14 +1,22 @@
 package se.moln.orderservice.controller;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.moln.orderservice.archive.OrderArchive;
 import se.moln.orderservice.model.Order;
 import se.moln.orderservice.model.OrderItem;
 import se.moln.orderservice.model.OrderStatus;
 import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.service.ResourceVersions;
+import se.moln.orderservice.shard.ShardRouter;
 
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
@@ -19,17 +27,36 @@ import java.util.UUID;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class AnalyticsControllerTest {
 
+    private static final String ETAG = "W/\"k-1-2\"";
+
     @Mock
     OrderRepository orders;
 
-    @InjectMocks
+    @Mock
+    ResourceVersions versions;
+
+    @Mock
+    OrderArchive archive;
+
     AnalyticsController controller;
 
+    @BeforeEach
+    void setUp() {
+        controller = new AnalyticsController(orders, Schedulers.immediate(), versions, new ShardRouter(1), archive);
+        when(versions.orderDateRange(any(), any())).thenReturn(Mono.just(ETAG));
+    }
+
+    private static MockServerWebExchange get() {
+        return MockServerWebExchange.from(MockServerHttpRequest.get("/analytics/monthly-kpis"));
+    }
+
     private static OrderItem item(UUID productId, String name, int qty, String price) {
         OrderItem oi = new OrderItem();
         oi.setProductId(productId);
@@ -71,10 +98,10 @@ class AnalyticsControllerTest {
                 item(p1, "USB-C Hub 8-in-1", 1, "25.00")
         );
 
-        when(orders.findByStatusAndOrderDateBetween(eq(OrderStatus.CREATED), any(), any()))
+        when(orders.findByStatusInAndOrderDateBetween(eq(AnalyticsController.SOLD), any(), any()))
                 .thenReturn(List.of(o1, o2));
 
-        AnalyticsController.MonthlyKpisResponse resp = controller.monthlyKpis(null, null);
+        AnalyticsController.MonthlyKpisResponse resp = controller.monthlyKpis(null, null, get()).block().getBody();
 
         assertEquals(ym.toString(), resp.yearMonth());
         assertEquals(6, resp.unitsSold()); // 2 + 3 + 1
@@ -99,10 +126,10 @@ class AnalyticsControllerTest {
 
         Order o = order(d, null, it); // totalAmount null -> treated as zero in revenue sum
 
-        when(orders.findByStatusAndOrderDateBetween(eq(OrderStatus.CREATED), any(), any()))
+        when(orders.findByStatusInAndOrderDateBetween(eq(AnalyticsController.SOLD), any(), any()))
                 .thenReturn(List.of(o));
 
-        AnalyticsController.MonthlyKpisResponse resp = controller.monthlyKpis(year, month);
+        AnalyticsController.MonthlyKpisResponse resp = controller.monthlyKpis(year, month, get()).block().getBody();
 
         assertEquals("2024-12", resp.yearMonth());
         assertEquals(5, resp.unitsSold());
@@ -114,10 +141,10 @@ class AnalyticsControllerTest {
 
     @Test
     void monthlyKpis_returnsEmptyStats_whenNoOrders() {
-        when(orders.findByStatusAndOrderDateBetween(eq(OrderStatus.CREATED), any(), any()))
+        when(orders.findByStatusInAndOrderDateBetween(eq(AnalyticsController.SOLD), any(), any()))
                 .thenReturn(List.of());
 
-        AnalyticsController.MonthlyKpisResponse resp = controller.monthlyKpis(null, null);
+        AnalyticsController.MonthlyKpisResponse resp = controller.monthlyKpis(null, null, get()).block().getBody();
 
         assertNotNull(resp);
         assertEquals(YearMonth.now().toString(), resp.yearMonth());
@@ -125,4 +152,22 @@ class AnalyticsControllerTest {
         assertEquals("0.00", resp.revenue());
         assertNull(resp.topProduct());
     }
-}
\ No newline at end of file
+
+    @Test
+    void monthlyKpis_returnsEtag_andNotModifiedWithoutQuerying_whenUnchanged() {
+        when(orders.findByStatusInAndOrderDateBetween(eq(AnalyticsController.SOLD), any(), any()))
+                .thenReturn(List.of());
+
+        var first = controller.monthlyKpis(2024, 12, get()).block();
+        assertEquals(200, first.getStatusCode().value());
+        assertEquals(ETAG, first.getHeaders().getETag());
+
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/analytics/monthly-kpis")
+                .header(HttpHeaders.IF_NONE_MATCH, ETAG));
+        var second = controller.monthlyKpis(2024, 12, exchange).block();
+
+        assertEquals(304, second.getStatusCode().value());
+        assertNull(second.getBody());
+        verify(orders, times(1)).findByStatusInAndOrderDateBetween(any(), any(), any());
+    }
+}
@@ -0,0 +1,116 @@
+package se.moln.orderservice.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.moln.orderservice.archive.OrderArchive;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.service.ResourceVersions;
+import se.moln.orderservice.shard.ShardRouter;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Monthly KPIs over the Flyway schema while orders move through their lifecycle: completing or archiving an order
+ * must not change what was sold in its month, cancelling one must.
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=none")
+class MonthlyKpisLifecycleTest {
+
+    private static final YearMonth MONTH = YearMonth.of(2025, 3);
+    private static final UUID PRODUCT = UUID.randomUUID();
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    @Autowired
+    OrderRepository orders;
+
+    @TempDir
+    Path archiveDir;
+
+    private OrderArchive archive;
+    private AnalyticsController controller;
+    private final List<UUID> ids = new ArrayList<>();
+
+    @BeforeEach
+    void seed() {
+        ResourceVersions versions = mock(ResourceVersions.class);
+        when(versions.orderDateRange(any(), any())).thenReturn(Mono.just("W/\"k-0-0\""));
+        archive = new OrderArchive(archiveDir, new SimpleMeterRegistry());
+        controller = new AnalyticsController(orders, Schedulers.immediate(), versions, new ShardRouter(1), archive);
+
+        OffsetDateTime day = MONTH.atDay(10).atStartOfDay().atOffset(OffsetDateTime.now().getOffset());
+        for (int i = 0; i < 4; i++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            jdbc.update("INSERT INTO orders (id, user_id, order_number, total_amount, order_date, status) VALUES (?, ?, ?, ?, ?, ?)",
+                    id, UUID.randomUUID(), "KPI-" + i, new BigDecimal("20.00"), Timestamp.from(day.plusHours(i).toInstant()), "CREATED");
+            jdbc.update("INSERT INTO order_items (id, product_id, quantity, price_at_purchase, product_name, order_id) VALUES (?, ?, ?, ?, ?, ?)",
+                    UUID.randomUUID(), PRODUCT, 2, new BigDecimal("10.00"), "Kabel", id);
+        }
+    }
+
+    private AnalyticsController.MonthlyKpisResponse kpis() {
+        return controller.monthlyKpis(MONTH.getYear(), MONTH.getMonthValue(),
+                MockServerWebExchange.from(MockServerHttpRequest.get("/analytics/monthly-kpis"))).block().getBody();
+    }
+
+    @Test
+    void completingOrders_leavesTheMonthsKpisUnchanged() {
+        AnalyticsController.MonthlyKpisResponse before = kpis();
+
+        assertEquals(2, orders.transitionStatus(ids.subList(0, 2), OrderStatus.CREATED, OrderStatus.COMPLETED));
+
+        assertEquals(before, kpis());
+        assertEquals(8, before.unitsSold());
+        assertEquals("80.00", before.revenue());
+    }
+
+    @Test
+    void archivingACompletedOrder_leavesTheMonthsKpisUnchanged() {
+        assertEquals(1, orders.transitionStatus(ids.subList(0, 1), OrderStatus.CREATED, OrderStatus.COMPLETED));
+        AnalyticsController.MonthlyKpisResponse before = kpis();
+
+        // Samma steg som OrderArchiver: segmentet skrivs först, sedan tas raderna bort
+        archive.append(orders.findByIdIn(ids.subList(0, 1)), 4);
+        orders.deleteItemsByOrderIdIn(ids.subList(0, 1));
+        assertEquals(1, orders.deleteByIdIn(ids.subList(0, 1)));
+
+        assertEquals(1, archive.orderCount());
+        assertEquals(before, kpis());
+        assertEquals(8, before.unitsSold());
+        assertEquals("80.00", before.revenue());
+    }
+
+    @Test
+    void cancellingAnOrder_removesItFromTheKpis() {
+        assertEquals(1, orders.transitionStatus(ids.subList(0, 1), OrderStatus.CREATED, OrderStatus.CANCELLED));
+
+        AnalyticsController.MonthlyKpisResponse after = kpis();
+
+        assertEquals(6, after.unitsSold());
+        assertEquals("60.00", after.revenue());
+    }
+}
@@ -1,15 +1,36 @@
 package se.moln.orderservice.controller;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.moln.orderservice.archive.OrderArchive;
+import se.moln.orderservice.client.InventoryClient;
+import se.moln.orderservice.client.ProductClient;
+import se.moln.orderservice.client.UnavailableProducts;
 import se.moln.orderservice.dto.OrderHistoryDto;
 import se.moln.orderservice.dto.PurchaseRequest;
 import se.moln.orderservice.dto.PurchaseResponse;
+import se.moln.orderservice.events.OrderEventBus;
+import se.moln.orderservice.exception.GlobalExceptionHandler;
+import se.moln.orderservice.metrics.PurchaseMetrics;
 import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.resilience.AdaptiveConcurrencyLimiter;
+import se.moln.orderservice.service.JwtService;
+import se.moln.orderservice.service.OrderHistoryReadModel;
 import se.moln.orderservice.service.OrderService;
+import se.moln.orderservice.service.ResourceVersions;
+import se.moln.orderservice.shard.ShardRouter;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.UUID;
@@ -22,7 +43,7 @@ class OrderControllerTest {
     @Test
     void purchase_passesBodyToService_andReturnsOkResponse() {
         OrderService svc = mock(OrderService.class);
-        OrderController ctrl = new OrderController(svc);
+        OrderController ctrl = new OrderController(svc, mock(ResourceVersions.class));
 
         UUID pid = UUID.randomUUID();
         PurchaseRequest req = new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(pid, 3)));
@@ -47,23 +68,100 @@ class OrderControllerTest {
     @Test
     void history_passesPaging_andReturnsOkResponse() {
         OrderService svc = mock(OrderService.class);
-        OrderController ctrl = new OrderController(svc);
+        ResourceVersions versions = mock(ResourceVersions.class);
+        OrderController ctrl = new OrderController(svc, versions);
+        when(versions.history(null)).thenReturn(Mono.just("W/\"h-1-2\""));
         List<OrderHistoryDto> data = List.of(new OrderHistoryDto(
                 UUID.randomUUID(), "ORD-1", new BigDecimal("10.00"), OrderStatus.CREATED,
                 OffsetDateTime.now(), List.of()
         ));
-        when(svc.getOrderHistory(null, 1, 5)).thenReturn(Mono.just(data));
+        when(svc.history(null, 1, 5)).thenReturn(Mono.just(data));
 
-        var respEntity = ctrl.history(1, 5).block();
+        var respEntity = ctrl.history(1, 5, null, MockServerWebExchange.from(MockServerHttpRequest.get("/api/orders/history"))).block();
         assertNotNull(respEntity);
         assertEquals(200, respEntity.getStatusCode().value());
         assertEquals(data, respEntity.getBody());
+        assertEquals("W/\"h-1-2\"", respEntity.getHeaders().getETag());
+    }
+
+    @Test
+    void history_outOfRangePaging_isRejectedBeforeReachingTheService() {
+        OrderService svc = mock(OrderService.class);
+        ResourceVersions versions = mock(ResourceVersions.class);
+        WebTestClient client = WebTestClient.bindToController(new OrderController(svc, versions))
+                .controllerAdvice(new GlobalExceptionHandler())
+                .build();
+
+        client.get().uri("/api/orders/history?size=" + (OrderService.MAX_HISTORY_PAGE_SIZE + 1)).exchange()
+                .expectStatus().isBadRequest();
+        client.get().uri("/api/orders/history?page=-1").exchange()
+                .expectStatus().isBadRequest();
+
+        verifyNoInteractions(svc, versions);
+    }
+
+    @Test
+    void history_matchingIfNoneMatch_returnsNotModified_withoutLoadingHistory() {
+        OrderService svc = mock(OrderService.class);
+        ResourceVersions versions = mock(ResourceVersions.class);
+        OrderController ctrl = new OrderController(svc, versions);
+        when(versions.history(null)).thenReturn(Mono.just("W/\"h-1-2\""));
+
+        var exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/api/orders/history")
+                .header(HttpHeaders.IF_NONE_MATCH, "W/\"h-1-2\""));
+        var respEntity = ctrl.history(0, 200, null, exchange).block();
+
+        assertNotNull(respEntity);
+        assertEquals(304, respEntity.getStatusCode().value());
+        assertNull(respEntity.getBody());
+        verify(svc, never()).history(any(), anyInt(), anyInt());
+    }
+
+    @Test
+    void history_withBearerToken_isServedFromTheReadModel_andVersionedByIt() {
+        UUID user = UUID.randomUUID();
+        JwtService jwt = mock(JwtService.class);
+        when(jwt.extractUserId("token")).thenReturn(user);
+        OrderRepository orders = mock(OrderRepository.class);
+        OrderArchive archive = mock(OrderArchive.class);
+        OrderHistoryReadModel readModel = mock(OrderHistoryReadModel.class);
+        when(readModel.serves()).thenReturn(true);
+        OrderRepository.DataVersion version = mock(OrderRepository.DataVersion.class);
+        when(version.getCount()).thenReturn(3L);
+        when(readModel.version(user)).thenReturn(Mono.just(version));
+        List<OrderHistoryDto> page = List.of(new OrderHistoryDto(
+                UUID.randomUUID(), "ORD-1", new BigDecimal("10.00"), OrderStatus.CREATED, OffsetDateTime.now(), List.of()));
+        when(readModel.newest(user, PageRequest.of(0, 20))).thenReturn(Mono.just(page));
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ShardRouter shards = new ShardRouter(1);
+        OrderService svc = new OrderService(mock(ProductClient.class), mock(InventoryClient.class),
+                new UnavailableProducts(registry, true, Duration.ofSeconds(10), 1000), orders, archive, readModel, shards, jwt,
+                new PurchaseMetrics(registry), new OrderEventBus(registry), mock(AdaptiveConcurrencyLimiter.class),
+                Schedulers.immediate(), 4, 16, false, Duration.ofSeconds(10));
+        OrderController ctrl = new OrderController(svc, new ResourceVersions(orders, archive, readModel, shards, Schedulers.immediate()));
+
+        var ok = ctrl.history(0, 20, "Bearer token",
+                MockServerWebExchange.from(MockServerHttpRequest.get("/api/orders/history"))).block();
+        assertNotNull(ok);
+        assertEquals(200, ok.getStatusCode().value());
+        assertEquals(page, ok.getBody());
+        String etag = ok.getHeaders().getETag();
+        assertNotNull(etag);
+
+        var notModified = ctrl.history(0, 20, "Bearer token",
+                MockServerWebExchange.from(MockServerHttpRequest.get("/api/orders/history").header(HttpHeaders.IF_NONE_MATCH, etag))).block();
+        assertNotNull(notModified);
+        assertEquals(304, notModified.getStatusCode().value());
+
+        verify(readModel, times(1)).newest(user, PageRequest.of(0, 20));
+        verifyNoInteractions(orders);
     }
 
     @Test
     void purchase_callsService_withNullToken() {
         OrderService svc = mock(OrderService.class);
-        OrderController ctrl = new OrderController(svc);
+        OrderController ctrl = new OrderController(svc, mock(ResourceVersions.class));
         UUID pid = UUID.randomUUID();
         PurchaseRequest req = new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(pid, 1)));
 
@@ -0,0 +1,100 @@
+package se.moln.orderservice.dto;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import se.moln.orderservice.model.OrderStatus;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Size and CPU of one history page in JSON, CBOR and Smile, with mappers configured like BinaryCodecConfig.
+ * Round-trips every format and checks that the binary formats are smaller; the cost per page is measured
+ * only with {@code -Pbenchmark}, since timings vary between machines.
+ */
+class OrderHistoryEncodingTest {
+
+    private static final TypeReference<List<OrderHistoryDto>> PAGE = new TypeReference<>() {
+    };
+    private static final String[] PRODUCTS = {"iPhone 16 Pro", "USB-C Hub 8-in-1", "Sony WH-1000XM5", "Logitech MX Master 3S"};
+
+    private static List<OrderHistoryDto> page(int size) {
+        List<OrderHistoryDto> orders = new ArrayList<>(size);
+        OffsetDateTime start = OffsetDateTime.of(2025, 9, 1, 8, 0, 0, 0, ZoneOffset.UTC);
+        for (int i = 0; i < size; i++) {
+            List<OrderItemDto> items = new ArrayList<>();
+            for (int j = 0; j <= i % 3; j++) {
+                items.add(new OrderItemDto(UUID.randomUUID(), PRODUCTS[(i + j) % PRODUCTS.length], 1 + j, new BigDecimal("1299.00")));
+            }
+            orders.add(new OrderHistoryDto(UUID.randomUUID(), "ORD-" + Integer.toHexString(0x10000000 + i).toUpperCase(),
+                    new BigDecimal("2598.00"), OrderStatus.COMPLETED, start.plusMinutes(i * 37L), items));
+        }
+        return orders;
+    }
+
+    private static Map<String, ObjectMapper> mappers() {
+        ObjectMapper json = new ObjectMapper().registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        return Map.of(
+                "json", json,
+                "cbor", json.copyWith(new CBORFactory()),
+                "smile", json.copyWith(new SmileFactory()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {20, 200})
+    void binaryEncodings_roundTrip_andAreSmallerThanJson(int pageSize) throws Exception {
+        List<OrderHistoryDto> page = page(pageSize);
+
+        Map<String, Integer> sizes = new TreeMap<>();
+        for (Map.Entry<String, ObjectMapper> e : mappers().entrySet()) {
+            ObjectMapper mapper = e.getValue();
+            byte[] bytes = mapper.writeValueAsBytes(page);
+            assertEquals(page, mapper.readValue(bytes, PAGE), e.getKey() + " round trip");
+            sizes.put(e.getKey(), bytes.length);
+        }
+
+        assertTrue(sizes.get("cbor") < sizes.get("json"), sizes::toString);
+        assertTrue(sizes.get("smile") < sizes.get("json"), sizes::toString);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {20, 200})
+    @Tag("benchmark")
+    void encodingCost_perPage(int pageSize, TestReporter reporter) throws Exception {
+        List<OrderHistoryDto> page = page(pageSize);
+        int rounds = 200;
+
+        for (Map.Entry<String, ObjectMapper> e : new TreeMap<>(mappers()).entrySet()) {
+            ObjectMapper mapper = e.getValue();
+            for (int i = 0; i < rounds; i++) {
+                mapper.writeValueAsBytes(page); // uppvärmning
+            }
+            long started = System.nanoTime();
+            int bytes = 0;
+            for (int i = 0; i < rounds; i++) {
+                bytes = mapper.writeValueAsBytes(page).length;
+            }
+            long microsPerPage = (System.nanoTime() - started) / rounds / 1000;
+            reporter.publishEntry(e.getKey() + ".bytes", String.valueOf(bytes));
+            reporter.publishEntry(e.getKey() + ".microsPerPage", String.valueOf(microsPerPage));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package se.moln.orderservice.events;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import se.moln.orderservice.model.OrderStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderEventBusTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final OrderEventBus bus = new OrderEventBus(registry);
+
+    private static OrderEvent event() {
+        return OrderEvent.statusChanged(UUID.randomUUID(), OrderStatus.COMPLETED);
+    }
+
+    @Test
+    void publishWithoutSubscribers_isANoOp() {
+        assertDoesNotThrow(() -> bus.publish(event()));
+        assertEquals(1.0, registry.get("orders.events.published").counter().count());
+    }
+
+    @Test
+    void slowSubscriber_dropsOldest_withoutHoldingBackPublisherOrOthers() throws InterruptedException {
+        OrderEvent first = event(), second = event(), third = event(), fourth = event();
+        List<OrderEvent> received = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(18);
+        BaseSubscriber<OrderEvent> slow = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                // Begär ingenting ännu: prenumeranten "hänger"
+            }
+
+            @Override
+            protected void hookOnNext(OrderEvent value) {
+                received.add(value);
+                done.countDown();
+            }
+        };
+        bus.subscribe("slow", OrderEventBus.Policy.DROP_OLDEST, 2).subscribe(slow);
+
+        // Leveransen har en egen förhämtning på 16; fyll den och bufferten innan något begärs
+        for (int i = 0; i < 16; i++) {
+            bus.publish(event());
+        }
+        bus.publish(first);
+        bus.publish(second);
+        bus.publish(third);
+        bus.publish(fourth);
+        slow.request(18);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(third, fourth), received.subList(16, 18));
+        assertEquals(2.0, registry.get("orders.events.dropped").tag("subscriber", "slow").counter().count());
+        slow.dispose();
+    }
+
+    @Test
+    void concurrentPublishers_neverThrow_andEveryEventIsDeliveredOrCounted() throws Exception {
+        AtomicInteger received = new AtomicInteger();
+        var subscription = bus.subscribe("counting", OrderEventBus.Policy.DROP_LATEST, 4096)
+                .subscribe(e -> received.incrementAndGet());
+        int threads = 8, perThread = 500;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> publishers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            publishers.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    bus.publish(event());
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> publisher : publishers) {
+            // Ett undantag i publish skulle komma ut här
+            publisher.get(10, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        double failed = registry.find("orders.events.failed").counters().stream().mapToDouble(Counter::count).sum();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (received.get() + failed < threads * perThread && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(threads * perThread, registry.get("orders.events.published").counter().count());
+        assertEquals(threads * perThread, received.get() + failed);
+        subscription.dispose();
+    }
+
+    @Test
+    void subscriberCount_isTracked() {
+        var subscription = bus.subscribe("sse", OrderEventBus.Policy.LATEST, 1).subscribe();
+        assertEquals(1.0, registry.get("orders.events.subscribers").gauge().value());
+        subscription.dispose();
+        assertEquals(0.0, registry.get("orders.events.subscribers").gauge().value());
+    }
+}
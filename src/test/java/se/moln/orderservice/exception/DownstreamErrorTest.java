@@ -0,0 +1,48 @@
+package se.moln.orderservice.exception;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import se.moln.orderservice.resilience.DownstreamResilience;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownstreamErrorTest {
+
+    private static final String CID = UUID.randomUUID().toString();
+
+    @Test
+    void typedRejection_isStackless_andCarriesTheTemplate() {
+        DownstreamException ex = new DownstreamException(DownstreamError.INSUFFICIENT_STOCK, 409, "Out of stock", CID);
+        ProblemDetail problem = ProblemDetails.from(ex);
+
+        assertEquals(0, ex.getStackTrace().length);
+        assertNull(ex.getCause());
+        assertEquals(409, problem.getStatus());
+        assertEquals("Insufficient stock | Out of stock | cid=" + CID, problem.getDetail());
+        assertEquals(problem.getDetail(), ex.getMessage());
+    }
+
+    @Test
+    void clientErrorsPassThrough_andEverythingElseIsTheDependencysProblem() {
+        assertEquals(DownstreamError.INVALID_REQUEST, DownstreamError.of(DownstreamResilience.INVENTORY_RESERVE, 400));
+        assertEquals(DownstreamError.PRODUCT_NOT_FOUND, DownstreamError.of(DownstreamResilience.PRODUCT_LOOKUP, 404));
+        assertEquals(DownstreamError.INSUFFICIENT_STOCK, DownstreamError.of(DownstreamResilience.INVENTORY_RESERVE, 409));
+        assertEquals(DownstreamError.PRODUCT_SERVICE_ERROR, DownstreamError.of(DownstreamResilience.PRODUCT_LOOKUP, 500));
+        assertEquals(HttpStatus.BAD_GATEWAY, DownstreamError.of(DownstreamResilience.INVENTORY_RESERVE, 503).status());
+        assertEquals(HttpStatus.BAD_GATEWAY, DownstreamError.of(DownstreamResilience.INVENTORY_RETURN, 429).status());
+    }
+
+    @Test
+    void localRefusal_isAClientError_andLeavesOutMissingParts() {
+        DownstreamException ex = DownstreamException.local(DownstreamError.PRODUCT_NOT_FOUND, null, null);
+
+        assertTrue(ex.isClientError());
+        assertFalse(ex.isServerError());
+        assertEquals("Product not found", ex.toProblemDetail().getDetail());
+        assertFalse(new DownstreamException(DownstreamError.INVENTORY_SERVICE_ERROR, 429, "", CID).isClientError());
+        assertTrue(new DownstreamException(DownstreamError.INVENTORY_SERVICE_ERROR, 503, "", CID).isServerError());
+    }
+}
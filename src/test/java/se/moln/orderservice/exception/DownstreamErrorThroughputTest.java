@@ -0,0 +1,77 @@
+package se.moln.orderservice.exception;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Rejected purchases per second when a 409 is turned into the client's problem detail: the default
+ * {@link WebClientResponseException} (stack trace filled in at the depth of a reactive pipeline) against the
+ * stackless {@link DownstreamException} and its template. Run with {@code -Pbenchmark}.
+ */
+@Tag("benchmark")
+class DownstreamErrorThroughputTest {
+
+    private static final int REJECTIONS = 50_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+    // Ungefärligt djup hos en Reactor-kedja när felet skapas
+    private static final int STACK_DEPTH = 120;
+    private static final byte[] BODY = "Out of stock".getBytes(StandardCharsets.UTF_8);
+    private static final String CID = UUID.randomUUID().toString();
+
+    private static ProblemDetail atDepth(int depth, Supplier<ProblemDetail> rejection) {
+        return depth == 0 ? rejection.get() : atDepth(depth - 1, rejection);
+    }
+
+    private static ProblemDetail webClientRejection() {
+        WebClientResponseException ex = WebClientResponseException.create(HttpStatus.CONFLICT.value(), "Conflict",
+                null, BODY, StandardCharsets.UTF_8);
+        return ProblemDetails.from(ex);
+    }
+
+    private static ProblemDetail typedRejection() {
+        DownstreamException ex = new DownstreamException(DownstreamError.INSUFFICIENT_STOCK, 409, "Out of stock", CID);
+        return ProblemDetails.from(ex);
+    }
+
+    private static double rejectionsPerSecond(Supplier<ProblemDetail> rejection) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            rejections(rejection);
+        }
+        double best = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long started = System.nanoTime();
+            rejections(rejection);
+            best = Math.max(best, REJECTIONS / ((System.nanoTime() - started) / 1e9));
+        }
+        return best;
+    }
+
+    private static void rejections(Supplier<ProblemDetail> rejection) {
+        int statuses = 0;
+        for (int i = 0; i < REJECTIONS; i++) {
+            statuses += atDepth(STACK_DEPTH, rejection).getStatus();
+        }
+        assertEquals(409L * REJECTIONS, statuses);
+    }
+
+    @Test
+    void rejectionsPerSecond_webClientVsTyped(TestReporter reporter) {
+        double webClient = rejectionsPerSecond(DownstreamErrorThroughputTest::webClientRejection);
+        double typed = rejectionsPerSecond(DownstreamErrorThroughputTest::typedRejection);
+
+        reporter.publishEntry("webClientRejectionsPerSecond", String.format("%.0f", webClient));
+        reporter.publishEntry("typedRejectionsPerSecond", String.format("%.0f", typed));
+        reporter.publishEntry("speedup", String.format("%.1f", typed / webClient));
+    }
+}
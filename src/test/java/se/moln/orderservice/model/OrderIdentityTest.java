@@ -0,0 +1,77 @@
+package se.moln.orderservice.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderIdentityTest {
+
+    private static Order orderWithItem() {
+        Order order = new Order();
+        OrderItem item = new OrderItem();
+        item.setProductName("Kabel");
+        item.setQuantity(1);
+        item.setPriceAtPurchase(new BigDecimal("10.00"));
+        item.setOrder(order);
+        order.setOrderItems(new ArrayList<>(List.of(item)));
+        return order;
+    }
+
+    @Test
+    void equality_isById_notByFields() {
+        UUID id = UUID.randomUUID();
+        Order a = orderWithItem();
+        Order b = new Order();
+        a.setId(id);
+        b.setId(id);
+        b.setStatus(OrderStatus.CANCELLED);
+
+        assertEquals(a, b);
+        assertNotEquals(a, new Order());
+        assertNotEquals(new Order(), new Order()); // utan id är bara samma instans lika
+    }
+
+    @Test
+    void hashCode_survivesIdAssignment_andDoesNotWalkTheGraph() {
+        Order order = orderWithItem();
+        Set<Order> set = new HashSet<>(Set.of(order));
+
+        order.setId(UUID.randomUUID());
+        order.getOrderItems().get(0).setId(UUID.randomUUID());
+
+        assertTrue(set.contains(order));
+        assertEquals(order.getOrderItems().get(0).hashCode(), new OrderItem().hashCode());
+    }
+
+    @Test
+    void toString_doesNotRecurseThroughTheBackReference() {
+        Order order = orderWithItem();
+
+        assertDoesNotThrow(order::toString);
+        assertDoesNotThrow(() -> order.getOrderItems().get(0).toString());
+        assertFalse(order.toString().contains("Kabel"));
+    }
+
+    @Test
+    void purchaseIntake_isEqualById_andKeepsThePayloadOutOfToString() {
+        UUID orderId = UUID.randomUUID();
+        PurchaseIntake a = new PurchaseIntake();
+        PurchaseIntake b = new PurchaseIntake();
+        a.setOrderId(orderId);
+        a.setPayload("{\"items\":[]}");
+        a.setState(IntakeState.ACCEPTED);
+        b.setOrderId(orderId);
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), new PurchaseIntake().hashCode());
+        assertNotEquals(new PurchaseIntake(), new PurchaseIntake());
+        assertFalse(a.toString().contains("items"));
+    }
+}
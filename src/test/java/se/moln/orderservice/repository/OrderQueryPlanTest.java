@@ -0,0 +1,103 @@
+package se.moln.orderservice.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs EXPLAIN on H2 for the hot queries and fails if any of them stops using its index.
+ * Schema comes from the Flyway migrations, so a dropped or renamed index shows up here.
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=none")
+class OrderQueryPlanTest {
+
+    private static final UUID USER = UUID.fromString("11111111-1111-1111-1111-111111111111");
+    private static final UUID ORDER = UUID.fromString("22222222-2222-2222-2222-222222222222");
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    @BeforeEach
+    void seed() {
+        List<Object[]> orders = new ArrayList<>();
+        List<Object[]> items = new ArrayList<>();
+        Instant now = Instant.now();
+        String[] statuses = {"CREATED", "COMPLETED", "CANCELLED"};
+        for (int i = 0; i < 500; i++) {
+            UUID id = i == 0 ? ORDER : UUID.randomUUID();
+            UUID user = i % 50 == 0 ? USER : UUID.randomUUID();
+            orders.add(new Object[]{id, user, "ORD-" + i, new BigDecimal("10.00"),
+                    Timestamp.from(now.minus(i, ChronoUnit.HOURS)), statuses[i % statuses.length]});
+            items.add(new Object[]{UUID.randomUUID(), UUID.randomUUID(), 1, new BigDecimal("10.00"), "Item " + i, id});
+        }
+        jdbc.batchUpdate("INSERT INTO orders (id, user_id, order_number, total_amount, order_date, status) VALUES (?, ?, ?, ?, ?, ?)", orders);
+        jdbc.batchUpdate("INSERT INTO order_items (id, product_id, quantity, price_at_purchase, product_name, order_id) VALUES (?, ?, ?, ?, ?, ?)", items);
+    }
+
+    @Test
+    void historyByUser_usesUserDateIndex() {
+        assertUsesIndex("SELECT id, order_date FROM orders WHERE user_id = '" + USER + "' ORDER BY order_date DESC LIMIT 200",
+                "idx_orders_user_date");
+    }
+
+    @Test
+    void analyticsByStatusAndDate_usesStatusDateIndex() {
+        assertUsesIndex("SELECT id FROM orders WHERE status IN ('CREATED', 'COMPLETED')"
+                        + " AND order_date BETWEEN TIMESTAMP WITH TIME ZONE '2025-01-01 00:00:00+00' AND TIMESTAMP WITH TIME ZONE '2025-02-01 00:00:00+00'",
+                "idx_orders_status_date");
+    }
+
+    @Test
+    void exportByDateRange_usesDateIndex() {
+        assertUsesIndex("SELECT id FROM orders"
+                        + " WHERE order_date >= TIMESTAMP WITH TIME ZONE '2025-01-01 00:00:00+00' AND order_date < TIMESTAMP WITH TIME ZONE '2025-02-01 00:00:00+00'"
+                        + " ORDER BY order_date, id",
+                "idx_orders_date");
+    }
+
+    @Test
+    void orderItemsFetch_usesOrderIdIndex() {
+        String plan = assertNoTableScan("SELECT * FROM order_items WHERE order_id IN ('" + ORDER + "')");
+        assertTrue(plan.contains("order_id ="), () -> "Expected an index lookup on order_id in plan:\n" + plan);
+        // H2 indexerar även främmande nyckeln och väljer det indexet vid lika kostnad; andra databaser gör inte det
+        assertIndexExists("order_items", "idx_order_items_order", "order_id");
+    }
+
+    @Test
+    void orderNumberLookup_usesUniqueIndex() {
+        assertUsesIndex("SELECT id FROM orders WHERE order_number = 'ORD-1'", "ux_orders_order_number");
+    }
+
+    private void assertUsesIndex(String sql, String index) {
+        String plan = assertNoTableScan(sql);
+        assertTrue(plan.contains(index), () -> "Expected " + index + " in plan:\n" + plan);
+    }
+
+    private void assertIndexExists(String table, String index, String column) {
+        List<String> columns = jdbc.queryForList("SELECT column_name FROM information_schema.index_columns"
+                        + " WHERE table_name = ? AND index_name = ? ORDER BY ordinal_position",
+                String.class, table.toUpperCase(Locale.ROOT), index.toUpperCase(Locale.ROOT));
+        assertFalse(columns.isEmpty(), () -> index + " is missing on " + table);
+        assertTrue(column.equalsIgnoreCase(columns.get(0)), () -> index + " should start with " + column + ": " + columns);
+    }
+
+    private String assertNoTableScan(String sql) {
+        String plan = jdbc.queryForObject("EXPLAIN " + sql, String.class).toLowerCase(Locale.ROOT);
+        assertFalse(plan.contains("tablescan"), () -> "Query fell back to a table scan:\n" + plan);
+        return plan;
+    }
+}
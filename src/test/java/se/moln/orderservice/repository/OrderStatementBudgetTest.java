@@ -0,0 +1,179 @@
+package se.moln.orderservice.repository;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import se.moln.orderservice.config.QueryStatisticsConfig;
+import se.moln.orderservice.metrics.QueryStatistics;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Statement budgets for the hot paths, counted with Hibernate's statistics. A query that starts loading items
+ * per order, or a page that is cut in memory, shows up here as more statements than the budget. The
+ * {@link QueryStatistics} listeners are installed too, so the {@code orders.db.*} metrics are checked against the
+ * same work.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.hibernate.ddl-auto=none",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import(QueryStatisticsConfig.class)
+class OrderStatementBudgetTest {
+
+    private static final UUID USER = UUID.fromString("33333333-3333-3333-3333-333333333333");
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    @Autowired
+    OrderRepository orderRepository;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void seed() {
+        List<Object[]> orders = new ArrayList<>();
+        List<Object[]> items = new ArrayList<>();
+        Instant now = Instant.now();
+        for (int i = 0; i < 60; i++) {
+            UUID id = UUID.randomUUID();
+            orders.add(new Object[]{id, USER, "BUD-" + i, new BigDecimal("30.00"),
+                    Timestamp.from(now.minus(i, ChronoUnit.HOURS)), "CREATED"});
+            for (int j = 0; j < 3; j++) {
+                items.add(new Object[]{UUID.randomUUID(), UUID.randomUUID(), 1, new BigDecimal("10.00"), "Item " + j, id});
+            }
+        }
+        jdbc.batchUpdate("INSERT INTO orders (id, user_id, order_number, total_amount, order_date, status) VALUES (?, ?, ?, ?, ?, ?)", orders);
+        jdbc.batchUpdate("INSERT INTO order_items (id, product_id, quantity, price_at_purchase, product_name, order_id) VALUES (?, ?, ?, ?, ?, ?)", items);
+
+        entityManager.clear();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        Metrics.addRegistry(meterRegistry);
+    }
+
+    @AfterEach
+    void removeRegistry() {
+        Metrics.removeRegistry(meterRegistry);
+    }
+
+    private DistributionSummary recorded(String name, String endpoint) {
+        return meterRegistry.get(name).tag("endpoint", endpoint).summary();
+    }
+
+    @Test
+    void historyPage_isTwoStatements_whateverThePageSize() {
+        List<UUID> ids = orderRepository.findIdsByUserIdNewestFirst(USER, PageRequest.of(1, 20));
+        List<Order> orders = orderRepository.findByIdIn(ids);
+        int items = orders.stream().mapToInt(o -> o.getOrderItems().size()).sum();
+
+        assertEquals(20, orders.size());
+        assertEquals(60, items);
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getCollectionFetchCount());
+    }
+
+    @Test
+    void monthlyKpis_loadOrdersWithTheirItems_inOneStatement() {
+        OffsetDateTime to = OffsetDateTime.now();
+        List<Order> sold = orderRepository.findByStatusInAndOrderDateBetween(
+                EnumSet.of(OrderStatus.CREATED, OrderStatus.COMPLETED), to.minusDays(1), to);
+        int items = sold.stream().mapToInt(o -> o.getOrderItems().size()).sum();
+
+        // 24 timmar bakåt: ordrarna 0..23 (ordern på exakt 24 h kan hamna på vardera sidan av gränsen)
+        assertTrue(sold.size() >= 24, "orders: " + sold.size());
+        assertEquals(sold.size() * 3, items);
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getCollectionFetchCount());
+    }
+
+    @Test
+    void measuredHistoryPage_recordsItsStatementsAndNoCollectionFetches() throws Exception {
+        int items = QueryStatistics.measured("budget-page", () -> {
+            List<UUID> ids = orderRepository.findIdsByUserIdNewestFirst(USER, PageRequest.of(0, 20));
+            return orderRepository.findByIdIn(ids).stream().mapToInt(o -> o.getOrderItems().size()).sum();
+        }).call();
+
+        assertEquals(60, items);
+        assertEquals(1, recorded("orders.db.statements", "budget-page").count());
+        assertEquals(2.0, recorded("orders.db.statements", "budget-page").totalAmount());
+        // 20 ordrar och deras 60 rader
+        assertEquals(80.0, recorded("orders.db.entities.loaded", "budget-page").totalAmount());
+        assertEquals(0.0, recorded("orders.db.collections.fetched", "budget-page").totalAmount());
+    }
+
+    @Test
+    void measuredLazyItemLoading_isRecordedAsCollectionFetches() throws Exception {
+        QueryStatistics.measured("budget-lazy", () -> {
+            List<UUID> ids = orderRepository.findIdsByUserIdNewestFirst(USER, PageRequest.of(0, 5));
+            // N+1: varje order läses och dess rader laddas var för sig
+            ids.forEach(id -> entityManager.find(Order.class, id).getOrderItems().size());
+            return null;
+        }).call();
+
+        assertEquals(5.0, recorded("orders.db.collections.fetched", "budget-lazy").totalAmount());
+        assertEquals(11.0, recorded("orders.db.statements", "budget-lazy").totalAmount());
+        assertEquals(5, statistics.getCollectionFetchCount());
+    }
+
+    @Test
+    void purchase_insertsOrderAndItems_withoutReads() {
+        Order order = new Order();
+        order.setUserId(USER);
+        order.setOrderNumber("BUD-NEW");
+        order.setTotalAmount(new BigDecimal("30.00"));
+        order.setOrderDate(OffsetDateTime.now());
+        order.setStatus(OrderStatus.CREATED);
+        List<OrderItem> items = new ArrayList<>();
+        for (int j = 0; j < 3; j++) {
+            OrderItem item = new OrderItem();
+            item.setProductId(UUID.randomUUID());
+            item.setQuantity(1);
+            item.setPriceAtPurchase(new BigDecimal("10.00"));
+            item.setProductName("Item " + j);
+            item.setOrder(order);
+            items.add(item);
+        }
+        order.setOrderItems(items);
+
+        orderRepository.saveAndFlush(order);
+
+        assertEquals(4, statistics.getEntityInsertCount());
+        assertTrue(statistics.getPrepareStatementCount() <= 4, "statements: " + statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+}
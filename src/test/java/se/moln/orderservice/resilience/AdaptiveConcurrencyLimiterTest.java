@@ -0,0 +1,72 @@
+package se.moln.orderservice.resilience;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import se.moln.orderservice.exception.ServiceOverloadedException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private AdaptiveConcurrencyLimiter limiter(int initial) {
+        return new AdaptiveConcurrencyLimiter(registry, true, initial, 1, 100,
+                Duration.ofMillis(100), 0.5, Duration.ofSeconds(2));
+    }
+
+    @Test
+    void rejectsImmediately_whenLimitIsReached() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2);
+        Sinks.One<String> first = Sinks.one();
+        Sinks.One<String> second = Sinks.one();
+
+        limiter.guard(first.asMono()).subscribe();
+        limiter.guard(second.asMono()).subscribe();
+        assertEquals(2, limiter.getInFlight());
+
+        var ex = assertThrows(ServiceOverloadedException.class, () -> limiter.guard(Mono.just("x")).block());
+        assertEquals(Duration.ofSeconds(2), ex.getRetryAfter());
+        assertEquals(1.0, registry.get("orders.admission.rejected").counter().count());
+
+        first.tryEmitValue("done");
+        assertEquals(1, limiter.getInFlight());
+        assertEquals("x", limiter.guard(Mono.just("x")).block());
+    }
+
+    @Test
+    void slowCompletions_shrinkLimit_andFastOnesGrowIt() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10);
+
+        limiter.tryAcquire();
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(5.0, limiter.getLimit(), 0.0001);
+
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire();
+        }
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue(limiter.getLimit() > 5.0);
+    }
+
+    @Test
+    void serverErrors_countAsDrops_clientErrorsDoNot() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10);
+
+        assertThrows(WebClientResponseException.class, () -> limiter.guard(Mono.error(
+                WebClientResponseException.create(HttpStatus.NOT_FOUND.value(), "Not Found", null, null, null))).block());
+        assertEquals(10.0, limiter.getLimit(), 0.0001);
+
+        assertThrows(WebClientResponseException.class, () -> limiter.guard(Mono.error(
+                WebClientResponseException.create(HttpStatus.BAD_GATEWAY.value(), "Bad Gateway", null, null, null))).block());
+        assertEquals(5.0, limiter.getLimit(), 0.0001);
+        assertEquals(0, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,102 @@
+package se.moln.orderservice.resilience;
+
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import se.moln.orderservice.client.ProductClient;
+import se.moln.orderservice.metrics.PurchaseMetrics;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownstreamResilienceTest {
+
+    private static CircuitBreakerRegistry breakers() {
+        return CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .slidingWindowSize(4)
+                .minimumNumberOfCalls(4)
+                .slowCallDurationThreshold(Duration.ofMillis(50))
+                .slowCallRateThreshold(50)
+                .waitDurationInOpenState(Duration.ofMinutes(1))
+                .recordException(new DownstreamFailurePredicate())
+                .build());
+    }
+
+    @Test
+    void slowProductService_opensBreaker_andLaterCallsFailFastWithoutReachingIt() {
+        AtomicInteger downstreamCalls = new AtomicInteger();
+        String productJson = "{\"id\":\"" + UUID.randomUUID() + "\",\"name\":\"Hub\",\"price\":10,\"stockQuantity\":3}";
+        // Svarar rätt, men långsamt
+        WebClient.Builder builder = WebClient.builder().exchangeFunction(request -> {
+            downstreamCalls.incrementAndGet();
+            return Mono.delay(Duration.ofMillis(120)).thenReturn(ClientResponse.create(HttpStatus.OK)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .body(productJson)
+                    .build());
+        });
+        CircuitBreakerRegistry breakers = breakers();
+        // Gott om marginal: första anropet värmer upp codecs och får inte slå i timeouten
+        DownstreamResilience resilience = new DownstreamResilience(breakers, BulkheadRegistry.ofDefaults(), Duration.ofSeconds(10));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ProductClient client = new ProductClient(builder, "http://product.test", new PurchaseMetrics(registry), resilience,
+                new Hedging(registry, false, 0.95, Duration.ofMillis(20), 0.05, 10),
+                new DownstreamRetry(registry, false, 2, Duration.ofMillis(1), Duration.ofMillis(5), 0.1, 10));
+
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(client.fetch(UUID.randomUUID(), null).block());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breakers.circuitBreaker(DownstreamResilience.PRODUCT_LOOKUP).getState());
+
+        long started = System.nanoTime();
+        assertThrows(CallNotPermittedException.class, () -> client.fetch(UUID.randomUUID(), null).block());
+        assertTrue(Duration.ofNanos(System.nanoTime() - started).toMillis() < 50, "open breaker should reject without waiting");
+        assertEquals(4, downstreamCalls.get());
+    }
+
+    @Test
+    void hangingCall_isCutOffByTimeout() {
+        DownstreamResilience resilience = new DownstreamResilience(breakers(), BulkheadRegistry.ofDefaults(), Duration.ofMillis(50));
+
+        // block() slår in kontrollerade undantag i en ReactiveException, så vi packar upp det först
+        RuntimeException thrown = assertThrows(RuntimeException.class,
+                () -> resilience.decorate(DownstreamResilience.INVENTORY_RESERVE, Mono.never()).block());
+        assertInstanceOf(TimeoutException.class, Exceptions.unwrap(thrown));
+    }
+
+    @Test
+    void fullBulkhead_rejectsImmediately_andDoesNotAffectOtherEndpoints() {
+        BulkheadRegistry bulkheads = BulkheadRegistry.of(BulkheadConfig.custom()
+                .maxConcurrentCalls(1)
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+        DownstreamResilience resilience = new DownstreamResilience(breakers(), bulkheads, Duration.ofSeconds(5));
+        Sinks.One<String> slowReturn = Sinks.one();
+
+        resilience.decorate(DownstreamResilience.INVENTORY_RETURN, slowReturn.asMono()).subscribe();
+
+        assertThrows(BulkheadFullException.class,
+                () -> resilience.decorate(DownstreamResilience.INVENTORY_RETURN, Mono.just("second")).block());
+        assertEquals("reserve", resilience.decorate(DownstreamResilience.INVENTORY_RESERVE, Mono.just("reserve")).block());
+
+        slowReturn.tryEmitValue("done");
+        assertEquals("third", resilience.decorate(DownstreamResilience.INVENTORY_RETURN, Mono.just("third")).block());
+    }
+}
@@ -0,0 +1,103 @@
+package se.moln.orderservice.resilience;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import se.moln.orderservice.exception.DownstreamError;
+import se.moln.orderservice.exception.DownstreamException;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownstreamRetryTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private DownstreamRetry retry(double budgetRatio, int budgetBurst) {
+        return new DownstreamRetry(registry, true, 2, Duration.ofMillis(1), Duration.ofMillis(5), budgetRatio, budgetBurst);
+    }
+
+    private static WebClientResponseException status(HttpStatus status) {
+        return WebClientResponseException.create(status.value(), status.getReasonPhrase(), null, null, null);
+    }
+
+    /** Fails with {@code status} the first {@code failures} times, then answers "ok". */
+    private static Mono<String> failing(AtomicInteger attempts, int failures, HttpStatus status) {
+        return Mono.defer(() -> attempts.incrementAndGet() <= failures ? Mono.error(status(status)) : Mono.just("ok"));
+    }
+
+    private double retries(String reason, String outcome) {
+        var counter = registry.find("orders.downstream.retries").tags("reason", reason, "outcome", outcome).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    @Test
+    void serverErrors_areRetried_untilSuccess() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertEquals("ok", retry(0.1, 10).retry("lookup", failing(attempts, 2, HttpStatus.SERVICE_UNAVAILABLE)).block());
+
+        assertEquals(3, attempts.get());
+        assertEquals(2.0, retries("server_error", DownstreamRetry.OUTCOME_RETRIED));
+    }
+
+    @Test
+    void clientErrors_areNotRetried_butTooManyRequestsIs() {
+        AtomicInteger notFound = new AtomicInteger();
+        assertThrows(WebClientResponseException.class,
+                () -> retry(0.1, 10).retry("lookup", failing(notFound, 5, HttpStatus.NOT_FOUND)).block());
+        assertEquals(1, notFound.get());
+
+        AtomicInteger throttled = new AtomicInteger();
+        assertEquals("ok", retry(0.1, 10).retry("lookup", failing(throttled, 1, HttpStatus.TOO_MANY_REQUESTS)).block());
+        assertEquals(2, throttled.get());
+    }
+
+    @Test
+    void typedDownstreamErrors_areClassifiedByTheirDownstreamStatus() {
+        assertEquals("server_error", DownstreamRetry.reason(new DownstreamException(DownstreamError.PRODUCT_SERVICE_ERROR, 503, "", null)));
+        assertEquals("too_many_requests", DownstreamRetry.reason(new DownstreamException(DownstreamError.PRODUCT_SERVICE_ERROR, 429, "", null)));
+        assertNull(DownstreamRetry.reason(new DownstreamException(DownstreamError.INSUFFICIENT_STOCK, 409, "", null)));
+        assertNull(DownstreamRetry.reason(DownstreamException.local(DownstreamError.PRODUCT_NOT_FOUND, "", null)));
+    }
+
+    @Test
+    void attempts_areCapped() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(WebClientResponseException.class,
+                () -> retry(0.1, 10).retry("lookup", failing(attempts, 10, HttpStatus.BAD_GATEWAY)).block());
+
+        assertEquals(3, attempts.get());
+        assertEquals(1.0, retries("server_error", DownstreamRetry.OUTCOME_ATTEMPTS_EXHAUSTED));
+    }
+
+    @Test
+    void spentBudget_stopsRetries_duringAnOutage() {
+        DownstreamRetry retry = retry(0.0, 1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(WebClientResponseException.class,
+                    () -> retry.retry("lookup", failing(attempts, 100, HttpStatus.INTERNAL_SERVER_ERROR)).block());
+        }
+
+        assertEquals(6, attempts.get()); // fem anrop + en enda retry från burst-bufferten
+        assertEquals(5.0, retries("server_error", DownstreamRetry.OUTCOME_BUDGET_EXHAUSTED));
+    }
+
+    @Test
+    void jitteredSleeps_stayBetweenBaseAndCap() {
+        DecorrelatedJitterRetry jitter = new DecorrelatedJitterRetry(Duration.ofMillis(10), Duration.ofMillis(100), (e, n) -> true);
+        long previous = Duration.ofMillis(10).toNanos();
+        for (int i = 0; i < 50; i++) {
+            long sleep = jitter.nextSleepNanos(previous);
+            assertTrue(sleep >= Duration.ofMillis(10).toNanos() && sleep <= Duration.ofMillis(100).toNanos());
+            previous = sleep;
+        }
+    }
+}
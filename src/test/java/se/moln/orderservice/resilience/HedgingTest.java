@@ -0,0 +1,104 @@
+package se.moln.orderservice.resilience;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgingTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private static void prime(Hedging hedging) {
+        for (int i = 0; i < Hedging.MIN_SAMPLES; i++) {
+            hedging.hedge("lookup", Mono.just("warm")).block();
+        }
+    }
+
+    /** First subscription hangs on a slow replica, later ones answer at once. */
+    private static Mono<String> slowFirstAttempt(AtomicInteger subscriptions) {
+        return Mono.defer(() -> subscriptions.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofMillis(400)).thenReturn("slow")
+                : Mono.just("fast"));
+    }
+
+    @Test
+    void noHedging_untilEnoughSamples() {
+        Hedging hedging = new Hedging(registry, true, 0.95, Duration.ofMillis(20), 0.5, 10);
+
+        assertNull(hedging.hedgeDelay("lookup"));
+        prime(hedging);
+        assertEquals(Duration.ofMillis(20), hedging.hedgeDelay("lookup"));
+    }
+
+    @Test
+    void slowPrimary_isHedged_andHedgeWins() {
+        Hedging hedging = new Hedging(registry, true, 0.95, Duration.ofMillis(20), 0.5, 10);
+        prime(hedging);
+        AtomicInteger subscriptions = new AtomicInteger();
+
+        long started = System.nanoTime();
+        assertEquals("fast", hedging.hedge("lookup", slowFirstAttempt(subscriptions)).block());
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - started).toMillis() < 300);
+        assertEquals(2, subscriptions.get());
+        assertEquals(1.0, registry.get("orders.hedging.sent").counter().count());
+        assertEquals(1.0, registry.get("orders.hedging.won").counter().count());
+    }
+
+    @Test
+    void hedgeDelay_doesNotCollapse_underSteadySlowPrimaries() {
+        // Median i stället för p95, så att några få snabba säkringar räcker för att dra ned ett okorrigerat värde
+        Hedging hedging = new Hedging(registry, true, 0.5, Duration.ofMillis(1), 1.0, 10);
+        assertNull(hedging.hedgeDelay("lookup"));
+        // Utgångsläget matas in direkt i timern i stället för att mätas, så att det inte beror på maskinens last
+        Timer attempts = registry.get("orders.downstream.attempt").tag("endpoint", "lookup").timer();
+        for (int i = 0; i < Hedging.MIN_SAMPLES; i++) {
+            attempts.record(Duration.ofMillis(20));
+        }
+        Duration initial = hedging.hedgeDelay("lookup");
+        assertNotNull(initial);
+
+        for (int i = 0; i < 30; i++) {
+            // Primärförsöket svarar aldrig, så säkringen vinner alltid och primären avbryts efter hela väntetiden
+            AtomicInteger subscriptions = new AtomicInteger();
+            Mono<String> slowPrimary = Mono.defer(() -> subscriptions.incrementAndGet() == 1
+                    ? Mono.<String>never()
+                    : Mono.just("fast"));
+            assertEquals("fast", hedging.hedge("lookup", slowPrimary).block(Duration.ofSeconds(5)));
+        }
+
+        assertEquals(30.0, registry.get("orders.hedging.won").counter().count());
+        // Avbrutna primärförsök räknas med sin väntetid, annars vore medianen nu en snabb säkring (~0 ms)
+        assertTrue(hedging.hedgeDelay("lookup").toMillis() >= initial.toMillis() / 2,
+                "delay " + hedging.hedgeDelay("lookup") + " vs initial " + initial);
+    }
+
+    @Test
+    void spentBudget_stopsHedging() {
+        Hedging hedging = new Hedging(registry, true, 0.95, Duration.ofMillis(20), 0.0, 1);
+        prime(hedging);
+
+        assertEquals("fast", hedging.hedge("lookup", slowFirstAttempt(new AtomicInteger())).block());
+        AtomicInteger subscriptions = new AtomicInteger();
+        assertEquals("slow", hedging.hedge("lookup", slowFirstAttempt(subscriptions)).block());
+
+        assertEquals(1, subscriptions.get());
+        assertEquals(1.0, registry.get("orders.hedging.budget.exhausted").counter().count());
+    }
+
+    @Test
+    void disabled_neverSubscribesTwice() {
+        Hedging hedging = new Hedging(registry, false, 0.95, Duration.ofMillis(20), 0.5, 10);
+        prime(hedging);
+        AtomicInteger subscriptions = new AtomicInteger();
+
+        assertEquals("slow", hedging.hedge("lookup", slowFirstAttempt(subscriptions)).block());
+        assertEquals(1, subscriptions.get());
+    }
+}
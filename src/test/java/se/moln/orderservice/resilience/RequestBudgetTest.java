@@ -0,0 +1,32 @@
+package se.moln.orderservice.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestBudgetTest {
+
+    @Test
+    void extraAttempts_areCappedByRatioOfRequests() {
+        RequestBudget budget = new RequestBudget(0.1, 1);
+
+        assertTrue(budget.tryWithdraw()); // burst
+        assertFalse(budget.tryWithdraw());
+
+        for (int i = 0; i < 9; i++) {
+            budget.deposit();
+        }
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+    }
+
+    @Test
+    void balance_neverExceedsBurst() {
+        RequestBudget budget = new RequestBudget(0.5, 2);
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+        assertEquals(2.0, budget.available(), 0.0001);
+    }
+}
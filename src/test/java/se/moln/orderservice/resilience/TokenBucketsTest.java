@@ -0,0 +1,144 @@
+package se.moln.orderservice.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketsTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+    private final TokenBuckets.Limit limit = new TokenBuckets.Limit("test", 10, 3);
+
+    private TokenBuckets buckets(int maxEntries) {
+        return new TokenBuckets(4, maxEntries, Duration.ofSeconds(1), clock::get);
+    }
+
+    @Test
+    void burstIsAllowed_thenThrottledUntilATokenRefills() {
+        TokenBuckets buckets = buckets(100);
+
+        assertEquals(2, buckets.tryAcquire("a", limit).remaining());
+        assertEquals(1, buckets.tryAcquire("a", limit).remaining());
+        assertEquals(0, buckets.tryAcquire("a", limit).remaining());
+
+        TokenBuckets.Decision throttled = buckets.tryAcquire("a", limit);
+        assertFalse(throttled.allowed());
+        assertEquals(Duration.ofMillis(100), throttled.retryAfter());
+        assertEquals(Duration.ofMillis(300), throttled.reset());
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(buckets.tryAcquire("a", limit).allowed());
+        assertFalse(buckets.tryAcquire("a", limit).allowed());
+    }
+
+    @Test
+    void oneNoisyCaller_doesNotTouchAnotherCallersBucket() {
+        TokenBuckets buckets = buckets(100);
+        for (int i = 0; i < 50; i++) {
+            buckets.tryAcquire("noisy", limit);
+        }
+
+        TokenBuckets.Decision quiet = buckets.tryAcquire("quiet", limit);
+        assertTrue(quiet.allowed());
+        assertEquals(2, quiet.remaining());
+    }
+
+    @Test
+    void idleBuckets_areEvicted_andStartFullAgain() {
+        TokenBuckets buckets = buckets(100);
+        for (int i = 0; i < 3; i++) {
+            buckets.tryAcquire("a", limit);
+        }
+        buckets.tryAcquire("b", limit);
+        assertEquals(2, buckets.size());
+
+        // Full again after 300 ms, then idle for longer than a second
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1400));
+        assertEquals(2, buckets.evictIdle());
+        assertEquals(0, buckets.size());
+        assertEquals(2, buckets.tryAcquire("a", limit).remaining());
+    }
+
+    @Test
+    void fullStripes_sendNewKeysToASharedOverflowBucket() {
+        TokenBuckets buckets = buckets(4);
+        int allowed = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (buckets.tryAcquire(UUID.randomUUID(), limit).allowed()) {
+                allowed++;
+            }
+        }
+
+        assertTrue(buckets.size() <= 4 + 1, "buckets: " + buckets.size());
+        // Högst en hink per stripe plus overflow-hinken, var och en med tre tokens
+        assertTrue(allowed <= 5 * 3, "allowed: " + allowed);
+    }
+
+    @Test
+    void fullStripe_isScannedForIdleBuckets_atMostOncePerEvictionGap() {
+        // En stripe med plats för tre hinkar; inaktiv efter 8 s, så en ny nyckel får söka högst en gång per sekund
+        TokenBuckets buckets = new TokenBuckets(1, 3, Duration.ofSeconds(8), clock::get);
+        long start = clock.get();
+        buckets.tryAcquire("a", limit);
+        clock.set(start + TimeUnit.MILLISECONDS.toNanos(400));
+        buckets.tryAcquire("b", limit);
+        clock.set(start + TimeUnit.MILLISECONDS.toNanos(600));
+        buckets.tryAcquire("x", limit);
+
+        // Bara "a" har hunnit bli inaktiv; den rensas och "c" får en egen hink
+        clock.set(start + TimeUnit.MILLISECONDS.toNanos(8_200));
+        buckets.tryAcquire("c", limit);
+        assertEquals(3, buckets.size());
+
+        // "b" och "x" är inaktiva nu, men stripen söktes nyss: "d" hamnar i overflow-hinken utan att söka
+        clock.set(start + TimeUnit.MILLISECONDS.toNanos(8_750));
+        buckets.tryAcquire("d", limit);
+        assertEquals(4, buckets.size());
+
+        clock.set(start + TimeUnit.MILLISECONDS.toNanos(9_300));
+        assertEquals(2, buckets.tryAcquire("e", limit).remaining());
+        assertEquals(3, buckets.size());
+    }
+
+    @Test
+    void concurrentCallers_neverGetMoreThanTheBurst() throws Exception {
+        TokenBuckets buckets = buckets(100);
+        TokenBuckets.Limit big = new TokenBuckets.Limit("big", 0.001, 500);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    int allowed = 0;
+                    for (int i = 0; i < 200; i++) {
+                        if (buckets.tryAcquire("shared", big).allowed()) {
+                            allowed++;
+                        }
+                    }
+                    return allowed;
+                }));
+            }
+            start.countDown();
+            int total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(500, total);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
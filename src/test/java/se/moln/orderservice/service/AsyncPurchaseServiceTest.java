@@ -0,0 +1,168 @@
+package se.moln.orderservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.moln.orderservice.dto.PurchaseRequest;
+import se.moln.orderservice.dto.PurchaseResponse;
+import se.moln.orderservice.dto.PurchaseStatusResponse;
+import se.moln.orderservice.events.OrderEventBus;
+import se.moln.orderservice.exception.DownstreamError;
+import se.moln.orderservice.exception.DownstreamException;
+import se.moln.orderservice.model.IntakeState;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.model.PurchaseIntake;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.repository.PurchaseIntakeRepository;
+import se.moln.orderservice.shard.ShardRouter;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AsyncPurchaseServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private OrderService orderService;
+    private OrderRepository orderRepository;
+    private PurchaseIntakeRepository intakeRepository;
+    private AsyncPurchaseService service;
+
+    private final UUID orderId = UUID.randomUUID();
+    private final PurchaseRequest request = new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(UUID.randomUUID(), 2)));
+
+    @BeforeEach
+    void setUp() {
+        orderService = mock(OrderService.class);
+        orderRepository = mock(OrderRepository.class);
+        intakeRepository = mock(PurchaseIntakeRepository.class);
+        TransactionTemplate tx = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service = new AsyncPurchaseService(orderService, orderRepository, intakeRepository, new ShardRouter(1), tx, Schedulers.immediate(),
+                objectMapper, registry, new OrderEventBus(registry), 2, 0);
+    }
+
+    private Order order(OrderStatus status) {
+        Order o = new Order();
+        o.setId(orderId);
+        o.setOrderNumber("ORD-ABC123456789");
+        o.setStatus(status);
+        o.setTotalAmount(new BigDecimal("20.00"));
+        return o;
+    }
+
+    private void journaled() throws Exception {
+        PurchaseIntake intake = new PurchaseIntake();
+        intake.setOrderId(orderId);
+        intake.setPayload(objectMapper.writeValueAsString(request));
+        intake.setState(IntakeState.PROCESSING);
+        when(intakeRepository.transition(eq(orderId), eq(IntakeState.ACCEPTED), eq(IntakeState.PROCESSING), any())).thenReturn(1);
+        when(intakeRepository.findById(orderId)).thenReturn(Optional.of(intake));
+        when(orderRepository.findById(orderId)).thenReturn(Optional.of(order(OrderStatus.PENDING)));
+    }
+
+    @Test
+    void accept_journalsPendingOrder_withoutTouchingDownstream() throws Exception {
+        Order pending = new Order();
+        pending.setOrderNumber("ORD-ABC123456789");
+        when(orderService.newOrder(isNull(), eq(OrderStatus.PENDING))).thenReturn(pending);
+        when(orderRepository.save(any(Order.class))).thenAnswer(inv -> {
+            Order o = inv.getArgument(0);
+            o.setId(orderId);
+            return o;
+        });
+
+        PurchaseStatusResponse accepted = service.accept(request, null).block();
+
+        assertNotNull(accepted);
+        assertEquals(orderId, accepted.orderId());
+        assertEquals(OrderStatus.PENDING, accepted.status());
+        ArgumentCaptor<PurchaseIntake> intake = ArgumentCaptor.forClass(PurchaseIntake.class);
+        verify(intakeRepository).save(intake.capture());
+        assertEquals(IntakeState.ACCEPTED, intake.getValue().getState());
+        assertEquals(request, objectMapper.readValue(intake.getValue().getPayload(), PurchaseRequest.class));
+        verify(orderService, never()).fulfilPending(any(), any());
+    }
+
+    @Test
+    void accept_rejectsInvalidRequests() {
+        assertThrows(IllegalArgumentException.class, () -> service.accept(new PurchaseRequest(List.of()), null).block());
+        assertThrows(IllegalArgumentException.class, () -> service.accept(new PurchaseRequest(
+                List.of(new PurchaseRequest.OrderItemRequest(UUID.randomUUID(), 0))), null).block());
+        verifyNoInteractions(orderRepository, intakeRepository);
+    }
+
+    @Test
+    void process_success_marksJournalDone() throws Exception {
+        journaled();
+        when(orderService.fulfilPending(any(Order.class), eq(request)))
+                .thenReturn(Mono.just(new PurchaseResponse(orderId, "ORD-ABC123456789", new BigDecimal("20.00"))));
+
+        service.process(orderId, 0).block();
+
+        verify(intakeRepository).finish(eq(orderId), eq(IntakeState.DONE), isNull(), isNull(), any());
+        verify(orderRepository, never()).transitionStatus(anyCollection(), any(), any());
+    }
+
+    @Test
+    void process_failure_marksOrderFailed_withProblem() throws Exception {
+        journaled();
+        when(orderService.fulfilPending(any(Order.class), eq(request))).thenReturn(Mono.error(
+                new DownstreamException(DownstreamError.INSUFFICIENT_STOCK, 409, "Out of stock", "cid")));
+
+        service.process(orderId, 0).block();
+
+        verify(intakeRepository).finish(eq(orderId), eq(IntakeState.FAILED), eq(409), any(), any());
+        verify(orderRepository).transitionStatus(List.of(orderId), OrderStatus.PENDING, OrderStatus.FAILED);
+    }
+
+    @Test
+    void process_skipsRowsAlreadyClaimed() {
+        when(intakeRepository.transition(eq(orderId), any(), any(), any())).thenReturn(0);
+
+        service.process(orderId, 0).block();
+
+        verifyNoInteractions(orderService);
+    }
+
+    @Test
+    void status_ofFailedOrder_includesProblem() {
+        PurchaseIntake intake = new PurchaseIntake();
+        intake.setProblemStatus(409);
+        intake.setProblemDetail("Insufficient stock");
+        when(orderRepository.findById(orderId)).thenReturn(Optional.of(order(OrderStatus.FAILED)));
+        when(intakeRepository.findById(orderId)).thenReturn(Optional.of(intake));
+
+        PurchaseStatusResponse status = service.status(orderId).block();
+
+        assertNotNull(status);
+        assertEquals(OrderStatus.FAILED, status.status());
+        assertNull(status.totalAmount());
+        assertEquals(409, status.problem().getStatus());
+    }
+
+    @Test
+    void recover_failsInterruptedRows_andRequeuesAccepted() {
+        UUID interrupted = UUID.randomUUID();
+        when(intakeRepository.findIdsByState(IntakeState.PROCESSING)).thenReturn(List.of(interrupted));
+        when(intakeRepository.findIdsByState(IntakeState.ACCEPTED)).thenReturn(List.of(UUID.randomUUID(), UUID.randomUUID()));
+
+        assertEquals(2, service.recover().block());
+
+        verify(intakeRepository).finish(eq(interrupted), eq(IntakeState.FAILED), eq(500), any(), any());
+        verify(orderRepository).transitionStatus(List.of(interrupted), OrderStatus.PENDING, OrderStatus.FAILED);
+    }
+}
@@ -0,0 +1,173 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.scheduler.Schedulers;
+import se.moln.orderservice.archive.OrderArchive;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.shard.ShardRouter;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Exports seeded orders through the real Flyway schema on H2. The cursor reads on its own connection,
+ * so the test runs without the usual test transaction and cleans up after itself.
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=none")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OrderExportServiceTest {
+
+    private static final int ORDERS = 20_000;
+    private static final int CHUNK_BYTES = 16 * 1024;
+    private static final Instant START = Instant.parse("2025-03-01T00:00:00Z");
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    @Autowired
+    DataSource dataSource;
+
+    private OrderExportService service;
+
+    @BeforeEach
+    void seed() {
+        OrderArchive archive = mock(OrderArchive.class);
+        when(archive.scan(any())).thenReturn(Collections.emptyIterator());
+        service = new OrderExportService(dataSource, archive, new ShardRouter(1), Schedulers.boundedElastic(), new SimpleMeterRegistry(), 500, CHUNK_BYTES);
+
+        List<Object[]> orders = new ArrayList<>();
+        List<Object[]> items = new ArrayList<>();
+        for (int i = 0; i < ORDERS; i++) {
+            UUID id = UUID.randomUUID();
+            orders.add(new Object[]{id, UUID.randomUUID(), "ORD-" + i, new BigDecimal("20.00"),
+                    Timestamp.from(START.plus(i, ChronoUnit.MINUTES)), i % 4 == 0 ? "CANCELLED" : "COMPLETED"});
+            items.add(new Object[]{UUID.randomUUID(), UUID.randomUUID(), 1, new BigDecimal("10.00"), "Kabel, 2 m", id});
+            items.add(new Object[]{UUID.randomUUID(), UUID.randomUUID(), 1, new BigDecimal("10.00"), "Adapter \"USB-C\"", id});
+        }
+        jdbc.batchUpdate("INSERT INTO orders (id, user_id, order_number, total_amount, order_date, status) VALUES (?, ?, ?, ?, ?, ?)", orders);
+        jdbc.batchUpdate("INSERT INTO order_items (id, product_id, quantity, price_at_purchase, product_name, order_id) VALUES (?, ?, ?, ?, ?, ?)", items);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbc.update("DELETE FROM order_items");
+        jdbc.update("DELETE FROM orders");
+    }
+
+    @Test
+    void export_streamsEveryLineInBoundedChunks() {
+        OffsetDateTime from = START.atOffset(ZoneOffset.UTC);
+        OffsetDateTime to = from.plusMinutes(ORDERS);
+
+        List<byte[]> chunks = collect(service.export(from, to, null, false, DefaultDataBufferFactory.sharedInstance).collectList().block());
+
+        String csv = join(chunks);
+        String[] lines = csv.split("\n");
+        assertEquals(OrderExportService.HEADER.trim(), lines[0]);
+        assertEquals(ORDERS * 2 + 1, lines.length);
+        assertTrue(csv.contains(",\"Kabel, 2 m\","), "commas are quoted");
+        assertTrue(csv.contains(",\"Adapter \"\"USB-C\"\"\","), "quotes are doubled");
+        // En bit är högst en chunk plus teckenkodarens buffert; hela exporten hålls aldrig i minnet
+        assertTrue(chunks.size() > 10);
+        assertTrue(chunks.stream().allMatch(c -> c.length < CHUNK_BYTES + 16 * 1024));
+    }
+
+    @Test
+    @Tag("benchmark")
+    void export_linesPerSecond(TestReporter reporter) {
+        OffsetDateTime from = START.atOffset(ZoneOffset.UTC);
+        OffsetDateTime to = from.plusMinutes(ORDERS);
+        service.export(from, to, null, false, DefaultDataBufferFactory.sharedInstance)
+                .doOnNext(DataBufferUtils::release).blockLast(); // uppvärmning
+
+        long started = System.nanoTime();
+        long bytes = service.export(from, to, null, false, DefaultDataBufferFactory.sharedInstance)
+                .map(buffer -> {
+                    int size = buffer.readableByteCount();
+                    DataBufferUtils.release(buffer);
+                    return (long) size;
+                })
+                .reduce(0L, Long::sum)
+                .block();
+        long elapsedMillis = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+
+        reporter.publishEntry("lines", String.valueOf(ORDERS * 2));
+        reporter.publishEntry("bytes", String.valueOf(bytes));
+        reporter.publishEntry("linesPerSecond", String.valueOf(ORDERS * 2L * 1000 / elapsedMillis));
+    }
+
+    @Test
+    void export_filtersByStatusAndRange_andGzips() throws IOException {
+        OffsetDateTime from = START.atOffset(ZoneOffset.UTC);
+        OffsetDateTime to = from.plusMinutes(100);
+
+        List<byte[]> chunks = collect(service.export(from, to, OrderStatus.CANCELLED, true, DefaultDataBufferFactory.sharedInstance).collectList().block());
+
+        String csv;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(join(chunks).getBytes(StandardCharsets.ISO_8859_1)))) {
+            csv = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        String[] lines = csv.split("\n");
+        assertEquals(25 * 2 + 1, lines.length); // var fjärde av de 100 första ordrarna, två rader var
+        for (int i = 1; i < lines.length; i++) {
+            assertTrue(lines[i].contains(",CANCELLED,"), lines[i]);
+        }
+    }
+
+    @Test
+    void export_rejectsEmptyRange() {
+        OffsetDateTime at = START.atOffset(ZoneOffset.UTC);
+        assertThrows(IllegalArgumentException.class,
+                () -> service.export(at, at, null, false, DefaultDataBufferFactory.sharedInstance).blockLast());
+    }
+
+    private static List<byte[]> collect(List<DataBuffer> buffers) {
+        List<byte[]> chunks = new ArrayList<>();
+        for (DataBuffer buffer : buffers) {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            DataBufferUtils.release(buffer);
+            chunks.add(bytes);
+        }
+        return chunks;
+    }
+
+    private static String join(List<byte[]> chunks) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        chunks.forEach(out::writeBytes);
+        // ISO-8859-1 bevarar bytes för gzip-fallet; CSV-innehållet här är ASCII
+        return out.toString(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,134 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import reactor.core.scheduler.Schedulers;
+import se.moln.orderservice.archive.OrderArchive;
+import se.moln.orderservice.client.InventoryClient;
+import se.moln.orderservice.client.ProductClient;
+import se.moln.orderservice.client.UnavailableProducts;
+import se.moln.orderservice.dto.OrderHistoryDto;
+import se.moln.orderservice.events.OrderEventBus;
+import se.moln.orderservice.metrics.PurchaseMetrics;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.resilience.AdaptiveConcurrencyLimiter;
+import se.moln.orderservice.shard.ShardRouter;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * History pages merged from live rows and real archive segments: archived orders interleave with live ones, an
+ * order left in both places by an interrupted archiver run appears once, and pages never overlap or skip.
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=none")
+class OrderHistoryMergeTest {
+
+    private static final UUID USER = UUID.fromString("55555555-5555-5555-5555-555555555555");
+    private static final OffsetDateTime NEWEST = OffsetDateTime.of(2025, 6, 30, 12, 0, 0, 0, ZoneOffset.UTC);
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    @Autowired
+    OrderRepository orders;
+
+    @TempDir
+    Path archiveDir;
+
+    private OrderService service;
+    // Index = antal dagar före NEWEST, alltså samma ordning som historiken
+    private final List<UUID> newestFirst = new ArrayList<>();
+
+    @BeforeEach
+    void seed() {
+        for (int day = 0; day < 8; day++) {
+            newestFirst.add(UUID.randomUUID());
+        }
+        // Jämna dagar ligger kvar i tabellen, udda dagar är arkiverade i två segment
+        for (int day = 0; day < 8; day += 2) {
+            insertLive(newestFirst.get(day), day);
+        }
+        OrderArchive archive = new OrderArchive(archiveDir, new SimpleMeterRegistry());
+        archive.append(List.of(archived(newestFirst.get(1), USER, 1), archived(newestFirst.get(3), USER, 3),
+                archived(UUID.randomUUID(), UUID.randomUUID(), 2)), 2);
+        // Dag 6 skrevs till segmentet men raden togs aldrig bort
+        archive.append(List.of(archived(newestFirst.get(5), USER, 5), archived(newestFirst.get(6), USER, 6),
+                archived(newestFirst.get(7), USER, 7)), 2);
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service = new OrderService(mock(ProductClient.class), mock(InventoryClient.class),
+                new UnavailableProducts(registry, true, Duration.ofSeconds(10), 1000), orders, archive,
+                mock(OrderHistoryReadModel.class), new ShardRouter(1), mock(JwtService.class),
+                new PurchaseMetrics(registry), new OrderEventBus(registry), mock(AdaptiveConcurrencyLimiter.class),
+                Schedulers.immediate(), 4, 16, false, Duration.ofSeconds(10));
+    }
+
+    private void insertLive(UUID id, int daysOld) {
+        jdbc.update("INSERT INTO orders (id, user_id, order_number, total_amount, order_date, status) VALUES (?, ?, ?, ?, ?, ?)",
+                id, USER, "LIVE-" + daysOld, new BigDecimal("20.00"), Timestamp.from(NEWEST.minusDays(daysOld).toInstant()), "COMPLETED");
+        jdbc.update("INSERT INTO order_items (id, product_id, quantity, price_at_purchase, product_name, order_id) VALUES (?, ?, ?, ?, ?, ?)",
+                UUID.randomUUID(), UUID.randomUUID(), 1, new BigDecimal("20.00"), "Kabel", id);
+    }
+
+    private static Order archived(UUID id, UUID userId, int daysOld) {
+        Order o = new Order();
+        o.setId(id);
+        o.setUserId(userId);
+        o.setOrderNumber("ARCH-" + daysOld);
+        o.setTotalAmount(new BigDecimal("20.00"));
+        o.setOrderDate(NEWEST.minusDays(daysOld));
+        o.setStatus(OrderStatus.COMPLETED);
+        OrderItem item = new OrderItem();
+        item.setId(UUID.randomUUID());
+        item.setProductId(UUID.randomUUID());
+        item.setProductName("Kabel");
+        item.setQuantity(1);
+        item.setPriceAtPurchase(new BigDecimal("20.00"));
+        item.setOrder(o);
+        o.setOrderItems(List.of(item));
+        return o;
+    }
+
+    private List<UUID> page(int page, int size) {
+        return service.history(USER, page, size).block().stream().map(OrderHistoryDto::id).toList();
+    }
+
+    @Test
+    void pagesAcrossLiveRowsAndSegments_areContiguous_andContainEachOrderOnce() {
+        assertEquals(newestFirst.subList(0, 3), page(0, 3));
+        assertEquals(newestFirst.subList(3, 6), page(1, 3));
+        assertEquals(newestFirst.subList(6, 8), page(2, 3));
+        assertTrue(page(3, 3).isEmpty());
+
+        assertEquals(newestFirst, page(0, 8));
+    }
+
+    @Test
+    void pagingBeyondTheMergeWindow_isRejected() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> service.history(USER, OrderService.MAX_HISTORY_WINDOW / 100, 100).block());
+        assertTrue(e.getMessage().contains(String.valueOf(OrderService.MAX_HISTORY_WINDOW)));
+        assertThrows(IllegalArgumentException.class,
+                () -> service.history(USER, 0, OrderService.MAX_HISTORY_PAGE_SIZE + 1).block());
+        assertThrows(IllegalArgumentException.class, () -> service.history(USER, Integer.MAX_VALUE, 2).block());
+    }
+}
@@ -0,0 +1,139 @@
+package se.moln.orderservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.scheduler.Schedulers;
+import se.moln.orderservice.dto.OrderHistoryDto;
+import se.moln.orderservice.events.OrderEvent;
+import se.moln.orderservice.events.OrderEventBus;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.repository.OrderHistoryEntryRepository;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.shard.ShardRouter;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The read model against the real schema: a first catch-up rebuilds it from the orders tables, later changes
+ * arrive by event or are repaired by the next catch-up, and pages come back in the same order as the write model.
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=none")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OrderHistoryReadModelTest {
+
+    private static final UUID USER = UUID.fromString("44444444-4444-4444-4444-444444444444");
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    @Autowired
+    OrderRepository orderRepository;
+
+    @Autowired
+    OrderHistoryEntryRepository entries;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    private final List<UUID> ids = new ArrayList<>();
+    private SimpleMeterRegistry meterRegistry;
+    private OrderHistoryReadModel readModel;
+    private OrderHistoryProjector projector;
+
+    @BeforeEach
+    void setUp() {
+        List<Object[]> orders = new ArrayList<>();
+        List<Object[]> items = new ArrayList<>();
+        Instant now = Instant.now();
+        for (int i = 0; i < 12; i++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            orders.add(new Object[]{id, USER, "RM-" + i, new BigDecimal("20.00"),
+                    Timestamp.from(now.minus(i, ChronoUnit.DAYS)), "CREATED",
+                    Timestamp.from(now.minus(60 + i, ChronoUnit.MINUTES))});
+            for (int j = 0; j < 2; j++) {
+                items.add(new Object[]{UUID.randomUUID(), UUID.randomUUID(), 1, new BigDecimal("10.00"), "Item " + j, id});
+            }
+        }
+        jdbc.batchUpdate("INSERT INTO orders (id, user_id, order_number, total_amount, order_date, status, last_modified) VALUES (?, ?, ?, ?, ?, ?, ?)", orders);
+        jdbc.batchUpdate("INSERT INTO order_items (id, product_id, quantity, price_at_purchase, product_name, order_id) VALUES (?, ?, ?, ?, ?, ?)", items);
+
+        meterRegistry = new SimpleMeterRegistry();
+        ShardRouter shards = new ShardRouter(1);
+        readModel = new OrderHistoryReadModel(entries, shards, Schedulers.immediate(), new ObjectMapper(), true);
+        // Liten batch så att ikapphämtningen går över flera sidor
+        projector = new OrderHistoryProjector(readModel, orderRepository, entries, shards,
+                new TransactionTemplate(transactionManager), Schedulers.immediate(), new OrderEventBus(meterRegistry),
+                meterRegistry, 5, 64, Duration.ofSeconds(5), Duration.ofMinutes(5));
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbc.update("DELETE FROM order_history");
+        jdbc.update("DELETE FROM order_items");
+        jdbc.update("DELETE FROM orders");
+    }
+
+    @Test
+    void firstCatchUp_rebuildsFromTheOrderTables_andStartsServing() {
+        assertFalse(readModel.serves());
+
+        projector.catchUp();
+
+        assertTrue(readModel.serves());
+        List<OrderHistoryDto> page = readModel.newest(USER, PageRequest.of(0, 5)).block();
+        assertEquals(5, page.size());
+        assertEquals(ids.subList(0, 5), page.stream().map(OrderHistoryDto::id).toList());
+        assertEquals(2, page.get(0).items().size());
+        assertEquals(12.0, meterRegistry.get("orders.readmodel.repaired").counter().count());
+    }
+
+    @Test
+    void missedStatusChange_isRepairedByTheNextCatchUp() {
+        projector.catchUp();
+        UUID changed = ids.get(3);
+        jdbc.update("UPDATE orders SET status = 'COMPLETED', last_modified = ? WHERE id = ?",
+                Timestamp.from(Instant.now().minus(1, ChronoUnit.MINUTES)), changed);
+
+        projector.catchUp();
+
+        assertEquals(OrderStatus.COMPLETED, entries.findById(changed).orElseThrow().getStatus());
+        assertEquals(13.0, meterRegistry.get("orders.readmodel.repaired").counter().count());
+    }
+
+    @Test
+    void statusEvent_isProjectedWithoutCatchUp() {
+        projector.catchUp();
+        UUID changed = ids.get(0);
+        Integer changedRows = new TransactionTemplate(transactionManager).execute(tx ->
+                orderRepository.transitionStatus(List.of(changed), OrderStatus.CREATED, OrderStatus.CANCELLED));
+        assertEquals(1, changedRows.intValue());
+
+        projector.projectEvents(List.of(OrderEvent.statusChanged(changed, OrderStatus.CANCELLED)));
+
+        assertEquals(OrderStatus.CANCELLED, readModel.newest(USER, PageRequest.of(0, 1)).block().get(0).status());
+        assertEquals(1, meterRegistry.get("orders.readmodel.lag").tag("source", "event").timer().count());
+    }
+}
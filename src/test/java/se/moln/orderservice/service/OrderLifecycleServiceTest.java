@@ -0,0 +1,146 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.moln.orderservice.client.InventoryClient;
+import se.moln.orderservice.dto.BulkTransitionRequest;
+import se.moln.orderservice.dto.BulkTransitionResult;
+import se.moln.orderservice.events.OrderEventBus;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.shard.ShardRouter;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrderLifecycleServiceTest {
+
+    private OrderRepository orderRepository;
+    private InventoryClient inventoryClient;
+    private OrderLifecycleService service;
+
+    @BeforeEach
+    void setUp() {
+        orderRepository = mock(OrderRepository.class);
+        inventoryClient = mock(InventoryClient.class);
+        TransactionTemplate tx = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service = new OrderLifecycleService(orderRepository, new ShardRouter(1), inventoryClient, tx, Schedulers.immediate(),
+                registry, new OrderEventBus(registry), 2, 4);
+    }
+
+    private static OrderRepository.ProductQuantity quantity(UUID productId, long qty) {
+        return new OrderRepository.ProductQuantity() {
+            public UUID getProductId() {
+                return productId;
+            }
+
+            public Long getQuantity() {
+                return qty;
+            }
+        };
+    }
+
+    @Test
+    void cancelAll_byIds_updatesInChunks_andReturnsStockPerProduct() {
+        UUID o1 = UUID.randomUUID(), o2 = UUID.randomUUID(), o3 = UUID.randomUUID();
+        UUID p1 = UUID.randomUUID();
+        when(orderRepository.lockIdsByStatus(anyCollection(), eq(OrderStatus.CREATED)))
+                .thenAnswer(inv -> List.copyOf(inv.<Collection<UUID>>getArgument(0)));
+        when(orderRepository.sumQuantitiesByProduct(anyCollection())).thenReturn(List.of(quantity(p1, 5)));
+        when(orderRepository.transitionStatus(anyCollection(), eq(OrderStatus.CREATED), eq(OrderStatus.CANCELLED)))
+                .thenAnswer(inv -> inv.<Collection<UUID>>getArgument(0).size());
+        when(inventoryClient.returnStock(eq(p1), eq(5), isNull())).thenReturn(Mono.empty());
+
+        BulkTransitionResult result = service.cancelAll(new BulkTransitionRequest(List.of(o1, o2, o3), null)).block();
+
+        assertNotNull(result);
+        assertEquals(OrderStatus.CANCELLED, result.status());
+        assertEquals(3, result.transitioned());
+        assertEquals(2, result.chunks()); // chunk size 2
+        assertEquals(0, result.inventoryReturnFailures());
+        verify(inventoryClient, times(2)).returnStock(p1, 5, null);
+        verify(orderRepository, never()).save(any(Order.class));
+    }
+
+    @Test
+    void completeAll_createdBefore_drainsUntilNoIdsLeft() {
+        OffsetDateTime cutoff = OffsetDateTime.now().minusDays(30);
+        when(orderRepository.findIdsByStatusAndOrderDateBefore(eq(OrderStatus.CREATED), eq(cutoff), any()))
+                .thenReturn(List.of(UUID.randomUUID(), UUID.randomUUID()))
+                .thenReturn(List.of(UUID.randomUUID()))
+                .thenReturn(List.of());
+        when(orderRepository.lockIdsByStatus(anyCollection(), eq(OrderStatus.CREATED)))
+                .thenAnswer(inv -> List.copyOf(inv.<Collection<UUID>>getArgument(0)));
+        when(orderRepository.transitionStatus(anyCollection(), eq(OrderStatus.CREATED), eq(OrderStatus.COMPLETED)))
+                .thenAnswer(inv -> inv.<Collection<UUID>>getArgument(0).size());
+
+        BulkTransitionResult result = service.completeAll(new BulkTransitionRequest(null, cutoff)).block();
+
+        assertNotNull(result);
+        assertEquals(3, result.transitioned());
+        assertEquals(2, result.chunks());
+        verifyNoInteractions(inventoryClient);
+    }
+
+    @Test
+    void completeAll_createdBefore_drainsManyChunks_withoutGrowingTheStack() {
+        // Med Schedulers.immediate() körs varje runda på samma stack; en rekursiv kedja skulle spränga den
+        int rounds = 20_000;
+        OffsetDateTime cutoff = OffsetDateTime.now().minusDays(30);
+        AtomicInteger left = new AtomicInteger(rounds);
+        when(orderRepository.findIdsByStatusAndOrderDateBefore(eq(OrderStatus.CREATED), eq(cutoff), any()))
+                .thenAnswer(inv -> left.getAndDecrement() > 0 ? List.of(UUID.randomUUID()) : List.of());
+        when(orderRepository.lockIdsByStatus(anyCollection(), eq(OrderStatus.CREATED)))
+                .thenAnswer(inv -> List.copyOf(inv.<Collection<UUID>>getArgument(0)));
+        when(orderRepository.transitionStatus(anyCollection(), eq(OrderStatus.CREATED), eq(OrderStatus.COMPLETED)))
+                .thenAnswer(inv -> inv.<Collection<UUID>>getArgument(0).size());
+
+        BulkTransitionResult result = service.completeAll(new BulkTransitionRequest(null, cutoff)).block();
+
+        assertNotNull(result);
+        assertEquals(rounds, result.transitioned());
+        assertEquals(rounds, result.chunks());
+    }
+
+    @Test
+    void bulk_requiresExactlyOneSelector() {
+        assertThrows(IllegalArgumentException.class,
+                () -> service.completeAll(new BulkTransitionRequest(null, null)).block());
+        assertThrows(IllegalArgumentException.class,
+                () -> service.completeAll(new BulkTransitionRequest(List.of(UUID.randomUUID()), OffsetDateTime.now())).block());
+    }
+
+    @Test
+    void complete_single_conflictWhenAlreadyCancelled_notFoundWhenMissing() {
+        UUID cancelled = UUID.randomUUID();
+        UUID missing = UUID.randomUUID();
+        Order o = new Order();
+        o.setId(cancelled);
+        o.setStatus(OrderStatus.CANCELLED);
+        when(orderRepository.transitionStatus(anyCollection(), any(), any())).thenReturn(0);
+        when(orderRepository.findById(cancelled)).thenReturn(Optional.of(o));
+        when(orderRepository.findById(missing)).thenReturn(Optional.empty());
+
+        var conflict = assertThrows(ResponseStatusException.class, () -> service.complete(cancelled).block());
+        assertEquals(HttpStatus.CONFLICT, conflict.getStatusCode());
+        var notFound = assertThrows(ResponseStatusException.class, () -> service.complete(missing).block());
+        assertEquals(HttpStatus.NOT_FOUND, notFound.getStatusCode());
+    }
+}
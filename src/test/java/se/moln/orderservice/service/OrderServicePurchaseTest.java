@@ -1,28 +1,50 @@
 package se.moln.orderservice.service;
 
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
 import org.springframework.web.reactive.function.client.ClientRequest;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.ExchangeFunction;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import reactor.util.annotation.NonNull;
+import se.moln.orderservice.archive.OrderArchive;
+import se.moln.orderservice.client.InventoryClient;
+import se.moln.orderservice.client.ProductClient;
+import se.moln.orderservice.client.UnavailableProducts;
+import se.moln.orderservice.dto.BulkPurchaseResult;
 import se.moln.orderservice.dto.PurchaseResponse;
 import se.moln.orderservice.dto.PurchaseRequest;
+import se.moln.orderservice.events.OrderEventBus;
+import se.moln.orderservice.exception.DownstreamError;
+import se.moln.orderservice.exception.DownstreamException;
+import se.moln.orderservice.metrics.PurchaseMetrics;
 import se.moln.orderservice.model.Order;
 import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.resilience.AdaptiveConcurrencyLimiter;
+import se.moln.orderservice.shard.ShardRouter;
+import se.moln.orderservice.resilience.DownstreamResilience;
+import se.moln.orderservice.resilience.DownstreamRetry;
+import se.moln.orderservice.resilience.Hedging;
 
 import java.math.BigDecimal;
 import java.net.URI;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -40,6 +62,7 @@ class OrderServicePurchaseTest {
     private static class StubExchange implements ExchangeFunction {
         private final Map<String, ClientResponse> routes = new HashMap<>();
         private final AtomicInteger refundCalls = new AtomicInteger();
+        private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
 
         public void route(HttpMethod method, String path, HttpStatus status, String body) {
             ClientResponse resp = ClientResponse.create(status)
@@ -54,6 +77,7 @@ class OrderServicePurchaseTest {
         public Mono<ClientResponse> exchange(@NonNull ClientRequest request) {
             URI uri = request.url();
             String key = request.method().name() + " " + uri.getPath();
+            calls.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
             ClientResponse resp = routes.get(key);
             if (resp == null) {
                 // For refund path, count calls and return 200 by default
@@ -80,13 +104,30 @@ class OrderServicePurchaseTest {
         public int getRefundCalls() {
             return refundCalls.get();
         }
+
+        public int calls(HttpMethod method, String path) {
+            AtomicInteger count = calls.get(method.name() + " " + path);
+            return count == null ? 0 : count.get();
+        }
     }
 
     private WebClient.Builder webClientBuilder;
     private StubExchange stub;
+    private SimpleMeterRegistry meterRegistry;
 
     private OrderService newService() {
-        return new OrderService(webClientBuilder, orderRepository, "http://user.test", "http://product.test", jwtService);
+        PurchaseMetrics metrics = new PurchaseMetrics(meterRegistry);
+        DownstreamResilience resilience = new DownstreamResilience(CircuitBreakerRegistry.ofDefaults(), BulkheadRegistry.ofDefaults(),
+                Duration.ofSeconds(5));
+        // Retries are covered in DownstreamRetryTest; here every stubbed answer is final
+        DownstreamRetry retry = new DownstreamRetry(meterRegistry, false, 2, Duration.ofMillis(1), Duration.ofMillis(5), 0.1, 10);
+        ProductClient productClient = new ProductClient(webClientBuilder, "http://product.test", metrics, resilience,
+                new Hedging(meterRegistry, false, 0.95, Duration.ofMillis(20), 0.05, 10), retry);
+        InventoryClient inventoryClient = new InventoryClient(webClientBuilder, "http://product.test", metrics, resilience, retry);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(meterRegistry, true, 50, 5, 500,
+                Duration.ofSeconds(2), 0.9, Duration.ofSeconds(1));
+        return new OrderService(productClient, inventoryClient, new UnavailableProducts(meterRegistry, true, Duration.ofSeconds(10), 1000), orderRepository, mock(OrderArchive.class), mock(OrderHistoryReadModel.class), new ShardRouter(1), jwtService,
+                metrics, new OrderEventBus(meterRegistry), limiter, Schedulers.boundedElastic(), 4, 16, false, Duration.ofSeconds(10));
     }
 
     @BeforeEach
@@ -99,6 +140,7 @@ class OrderServicePurchaseTest {
 
         stub = new StubExchange();
         webClientBuilder = WebClient.builder().exchangeFunction(stub);
+        meterRegistry = new SimpleMeterRegistry();
     }
 
     @Test
@@ -136,9 +178,11 @@ class OrderServicePurchaseTest {
         stub.route(HttpMethod.GET, "/api/products/" + productId, HttpStatus.NOT_FOUND, "");
 
         OrderService service = newService();
-        var ex = assertThrows(org.springframework.web.reactive.function.client.WebClientResponseException.NotFound.class,
+        var ex = assertThrows(DownstreamException.class,
                 () -> service.purchaseProduct(new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(productId, 1))), "jwt-token").block());
-        assertEquals(HttpStatus.NOT_FOUND, ex.getStatusCode());
+        assertEquals(DownstreamError.PRODUCT_NOT_FOUND, ex.getError());
+        assertEquals(404, ex.toProblemDetail().getStatus());
+        assertEquals(0, ex.getStackTrace().length);
     }
 
     @Test
@@ -147,9 +191,11 @@ class OrderServicePurchaseTest {
         stub.route(HttpMethod.GET, "/api/products/" + productId, HttpStatus.INTERNAL_SERVER_ERROR, "boom");
 
         OrderService service = newService();
-        var ex = assertThrows(org.springframework.web.reactive.function.client.WebClientResponseException.InternalServerError.class,
+        var ex = assertThrows(DownstreamException.class,
                 () -> service.purchaseProduct(new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(productId, 1))), "jwt-token").block());
-        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, ex.getStatusCode());
+        assertEquals(500, ex.getDownstreamStatus());
+        assertEquals(DownstreamError.PRODUCT_SERVICE_ERROR, ex.getError());
+        assertEquals(502, ex.toProblemDetail().getStatus());
     }
 
     @Test
@@ -159,10 +205,12 @@ class OrderServicePurchaseTest {
         stub.route(HttpMethod.POST, "/api/inventory/" + productId + "/purchase", HttpStatus.CONFLICT, "Out of stock");
 
         OrderService service = newService();
-        var ex = assertThrows(org.springframework.web.reactive.function.client.WebClientResponseException.Conflict.class,
+        var ex = assertThrows(DownstreamException.class,
                 () -> service.purchaseProduct(new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(productId, 2))), "jwt-token").block());
-        assertEquals(HttpStatus.CONFLICT, ex.getStatusCode());
-        assertTrue(ex.getResponseBodyAsString().toLowerCase().contains("out of stock"));
+        assertEquals(DownstreamError.INSUFFICIENT_STOCK, ex.getError());
+        ProblemDetail problem = ex.toProblemDetail();
+        assertEquals(409, problem.getStatus());
+        assertTrue(problem.getDetail().startsWith("Insufficient stock | Out of stock | cid="), problem.getDetail());
     }
 
     @Test
@@ -186,9 +234,10 @@ class OrderServicePurchaseTest {
         stub.route(HttpMethod.POST, "/api/inventory/" + productId + "/purchase", HttpStatus.INTERNAL_SERVER_ERROR, "down");
 
         OrderService service = newService();
-        var ex = assertThrows(org.springframework.web.reactive.function.client.WebClientResponseException.InternalServerError.class,
+        var ex = assertThrows(DownstreamException.class,
                 () -> service.purchaseProduct(new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(productId, 2))), "jwt-token").block());
-        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, ex.getStatusCode());
+        assertEquals(500, ex.getDownstreamStatus());
+        assertEquals(DownstreamError.INVENTORY_SERVICE_ERROR, ex.getError());
     }
 
     @Test
@@ -205,11 +254,11 @@ class OrderServicePurchaseTest {
         stub.route(HttpMethod.POST, "/api/inventory/" + productId + "/purchase", HttpStatus.BAD_REQUEST, "bad req");
 
         OrderService service = newService();
-        var ex = assertThrows(org.springframework.web.reactive.function.client.WebClientResponseException.BadRequest.class,
+        var ex = assertThrows(DownstreamException.class,
                 () -> service.purchaseProduct(new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(productId, 2))), "jwt-token").block());
-        assertEquals(HttpStatus.BAD_REQUEST, ex.getStatusCode());
-        // Response body should be propagated by WebClientResponseException
-        assertTrue(ex.getResponseBodyAsString().toLowerCase().contains("bad req"));
+        assertEquals(DownstreamError.INVALID_REQUEST, ex.getError());
+        // Response body should be propagated into the problem detail
+        assertTrue(ex.toProblemDetail().getDetail().toLowerCase().contains("bad req"));
     }
 
     @Test
@@ -226,4 +275,101 @@ class OrderServicePurchaseTest {
         assertThrows(RuntimeException.class, () -> service.purchaseProduct(new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(productId, 2))), "jwt-token").block());
         // Refund was attempted (may not be counted due to override path short-circuit); primary guarantee is original error bubbles up.
     }
+
+    @Test
+    void purchase_recordsStageTimers_andRollbackCounters() {
+        String productJson = String.format("{\n  \"id\": \"%s\", \"name\": \"USB-C Hub\", \"price\": 24.99, \"stockQuantity\": 10\n}", productId);
+        stub.route(HttpMethod.GET, "/api/products/" + productId, HttpStatus.OK, productJson);
+        stub.route(HttpMethod.POST, "/api/inventory/" + productId + "/purchase", HttpStatus.OK, "");
+        stub.route(HttpMethod.POST, "/api/inventory/" + productId + "/return", HttpStatus.INTERNAL_SERVER_ERROR, "oops");
+
+        when(orderRepository.save(any(Order.class))).thenThrow(new RuntimeException("DB down"));
+
+        OrderService service = newService();
+        assertThrows(RuntimeException.class, () -> service.purchaseProduct(new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(productId, 2))), "jwt-token").block());
+
+        assertEquals(1, meterRegistry.get("orders.purchase.stage")
+                .tags("stage", PurchaseMetrics.STAGE_PRODUCT_LOOKUP, "outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("orders.purchase.stage")
+                .tags("stage", PurchaseMetrics.STAGE_ORDER_SAVE, "outcome", "error").timer().count());
+        assertEquals(1, meterRegistry.get("orders.purchase.stage")
+                .tags("stage", PurchaseMetrics.STAGE_INVENTORY_RETURN, "outcome", "server_error").timer().count());
+        assertEquals(1.0, meterRegistry.get("orders.purchase.rollbacks").counter().count());
+        assertEquals(1.0, meterRegistry.get("orders.purchase.compensation.failures").counter().count());
+        assertEquals(1, meterRegistry.get("orders.purchase.save.queue").timer().count());
+    }
+
+    @Test
+    void purchaseAll_sharesProductLookups_andReportsPerOrderResults() {
+        UUID missing = UUID.randomUUID();
+        String productJson = String.format("{\n  \"id\": \"%s\", \"name\": \"USB-C Hub\", \"price\": 24.99, \"stockQuantity\": 10\n}", productId);
+        stub.route(HttpMethod.GET, "/api/products/" + productId, HttpStatus.OK, productJson);
+        stub.route(HttpMethod.POST, "/api/inventory/" + productId + "/purchase", HttpStatus.OK, "");
+        when(orderRepository.save(any(Order.class))).thenAnswer(inv -> {
+            Order o = inv.getArgument(0);
+            o.setId(UUID.randomUUID());
+            return o;
+        });
+
+        OrderService service = newService();
+        List<BulkPurchaseResult> results = service.purchaseAll(Flux.just(
+                        new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(productId, 1))),
+                        new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(missing, 1))),
+                        new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(productId, 2)))), "jwt-token")
+                .collectList()
+                .block();
+
+        assertNotNull(results);
+        assertEquals(3, results.size());
+        assertEquals(1, stub.calls(HttpMethod.GET, "/api/products/" + productId));
+        BulkPurchaseResult failed = results.stream().filter(r -> r.index() == 1).findFirst().orElseThrow();
+        assertFalse(failed.success());
+        assertEquals(404, failed.problem().getStatus());
+        assertEquals(2, results.stream().filter(BulkPurchaseResult::success).count());
+    }
+
+    @Test
+    void purchase_knownMissingProduct_failsFast_withoutTouchingTheRestOfTheCart() {
+        UUID missing = UUID.randomUUID();
+        String productJson = String.format("{\n  \"id\": \"%s\", \"name\": \"USB-C Hub\", \"price\": 24.99, \"stockQuantity\": 10\n}", productId);
+        stub.route(HttpMethod.GET, "/api/products/" + productId, HttpStatus.OK, productJson);
+        stub.route(HttpMethod.POST, "/api/inventory/" + productId + "/purchase", HttpStatus.OK, "");
+        stub.route(HttpMethod.GET, "/api/products/" + missing, HttpStatus.NOT_FOUND, "");
+
+        OrderService service = newService();
+        var lookedUp = assertThrows(DownstreamException.class,
+                () -> service.purchaseProduct(new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(missing, 1))), "jwt-token").block());
+        assertEquals(404, lookedUp.getDownstreamStatus());
+
+        var cart = new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(productId, 1),
+                new PurchaseRequest.OrderItemRequest(missing, 1)));
+        var ex = assertThrows(DownstreamException.class, () -> service.purchaseProduct(cart, "jwt-token").block());
+
+        assertEquals(DownstreamError.PRODUCT_NOT_FOUND, ex.getError());
+        assertEquals(0, ex.getDownstreamStatus());
+        assertEquals(1, stub.calls(HttpMethod.GET, "/api/products/" + missing));
+        assertEquals(0, stub.calls(HttpMethod.GET, "/api/products/" + productId));
+        assertEquals(0, stub.calls(HttpMethod.POST, "/api/inventory/" + productId + "/purchase"));
+        assertEquals(1.0, meterRegistry.get("orders.products.fast-failed").tag("reason", "missing").counter().count());
+        assertEquals(2.0, meterRegistry.get("orders.products.calls.saved").tag("call", "product_lookup").counter().count());
+        assertEquals(1.0, meterRegistry.get("orders.products.calls.saved").tag("call", "inventory_reserve").counter().count());
+    }
+
+    @Test
+    void purchase_zeroStock_isRefusedWithoutReservation_andRemembered() {
+        String productJson = String.format("{\n  \"id\": \"%s\", \"name\": \"USB-C Hub\", \"price\": 24.99, \"stockQuantity\": 0\n}", productId);
+        stub.route(HttpMethod.GET, "/api/products/" + productId, HttpStatus.OK, productJson);
+        stub.route(HttpMethod.POST, "/api/inventory/" + productId + "/purchase", HttpStatus.OK, "");
+        var request = new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(productId, 1)));
+
+        OrderService service = newService();
+        var first = assertThrows(DownstreamException.class, () -> service.purchaseProduct(request, "jwt-token").block());
+        var second = assertThrows(DownstreamException.class, () -> service.purchaseProduct(request, "jwt-token").block());
+
+        assertEquals(DownstreamError.INSUFFICIENT_STOCK, first.getError());
+        assertEquals(DownstreamError.INSUFFICIENT_STOCK, second.getError());
+        assertEquals(1, stub.calls(HttpMethod.GET, "/api/products/" + productId));
+        assertEquals(0, stub.calls(HttpMethod.POST, "/api/inventory/" + productId + "/purchase"));
+        verify(orderRepository, never()).save(any());
+    }
 }
@@ -1,22 +1,29 @@
 package se.moln.orderservice.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.moln.orderservice.archive.OrderArchive;
+import se.moln.orderservice.client.InventoryClient;
+import se.moln.orderservice.client.ProductClient;
+import se.moln.orderservice.client.UnavailableProducts;
 import se.moln.orderservice.dto.OrderHistoryDto;
+import se.moln.orderservice.events.OrderEventBus;
+import se.moln.orderservice.metrics.PurchaseMetrics;
 import se.moln.orderservice.model.Order;
 import se.moln.orderservice.model.OrderItem;
 import se.moln.orderservice.model.OrderStatus;
 import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.resilience.AdaptiveConcurrencyLimiter;
+import se.moln.orderservice.shard.ShardRouter;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.UUID;
@@ -24,13 +31,17 @@ import java.util.UUID;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class OrderServiceTest {
 
     @Mock
-    WebClient.Builder webClientBuilder;
+    ProductClient productClient;
+
+    @Mock
+    InventoryClient inventoryClient;
 
     @Mock
     OrderRepository orderRepository;
@@ -38,9 +49,15 @@ class OrderServiceTest {
     @Mock
     JwtService jwtService;
 
-    @InjectMocks
     OrderService orderService;
 
+    @BeforeEach
+    void setUp() {
+        orderService = new OrderService(productClient, inventoryClient, new UnavailableProducts(new SimpleMeterRegistry(), true, Duration.ofSeconds(10), 1000), orderRepository, mock(OrderArchive.class), mock(OrderHistoryReadModel.class), new ShardRouter(1), jwtService,
+                new PurchaseMetrics(new SimpleMeterRegistry()), new OrderEventBus(new SimpleMeterRegistry()),
+                mock(AdaptiveConcurrencyLimiter.class), Schedulers.immediate(), 4, 16, false, Duration.ofSeconds(10));
+    }
+
     @Test
     void getOrderHistory_mapsEntitiesToDtos() {
         UUID userId = UUID.randomUUID();
@@ -61,8 +78,8 @@ class OrderServiceTest {
         it.setOrder(o);
         o.setOrderItems(List.of(it));
 
-        Page<Order> page = new PageImpl<>(List.of(o), PageRequest.of(0, 10), 1);
-        when(orderRepository.findByUserId(eq(userId), any())).thenReturn(page);
+        when(orderRepository.findIdsByUserIdNewestFirst(eq(userId), any())).thenReturn(List.of(o.getId()));
+        when(orderRepository.findByIdIn(List.of(o.getId()))).thenReturn(List.of(o));
 
         Mono<List<OrderHistoryDto>> mono = orderService.getOrderHistory("token", 0, 10);
         List<OrderHistoryDto> dtos = mono.block();
@@ -0,0 +1,103 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.moln.orderservice.archive.OrderArchive;
+import se.moln.orderservice.client.InventoryClient;
+import se.moln.orderservice.client.ProductClient;
+import se.moln.orderservice.client.UnavailableProducts;
+import se.moln.orderservice.dto.ProductResponse;
+import se.moln.orderservice.dto.PurchaseRequest;
+import se.moln.orderservice.events.OrderEventBus;
+import se.moln.orderservice.exception.DeadlineExceededException;
+import se.moln.orderservice.metrics.PurchaseMetrics;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.resilience.AdaptiveConcurrencyLimiter;
+import se.moln.orderservice.shard.ShardRouter;
+import se.moln.orderservice.resilience.Deadline;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PurchaseDeadlineTest {
+
+    private ProductClient productClient;
+    private InventoryClient inventoryClient;
+    private OrderRepository orderRepository;
+    private OrderService service;
+
+    @BeforeEach
+    void setUp() {
+        productClient = mock(ProductClient.class);
+        inventoryClient = mock(InventoryClient.class);
+        orderRepository = mock(OrderRepository.class);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(registry, false, 50, 5, 500,
+                Duration.ofSeconds(2), 0.9, Duration.ofSeconds(1));
+        service = new OrderService(productClient, inventoryClient, new UnavailableProducts(registry, true, Duration.ofSeconds(10), 1000), orderRepository, mock(OrderArchive.class), mock(OrderHistoryReadModel.class), new ShardRouter(1), mock(JwtService.class),
+                new PurchaseMetrics(registry), new OrderEventBus(registry), limiter, Schedulers.immediate(), 4, 16, false, Duration.ofMillis(150));
+    }
+
+    @Test
+    void passedDeadline_abandonsCart_andReturnsWhatWasAlreadyReserved() {
+        UUID fast = UUID.randomUUID();
+        UUID hanging = UUID.randomUUID();
+        when(productClient.fetch(eq(fast), isNull()))
+                .thenReturn(Mono.just(new ProductResponse(fast, "Fast", BigDecimal.ONE, 10)));
+        when(productClient.fetch(eq(hanging), isNull())).thenReturn(Mono.never());
+        when(inventoryClient.reserve(eq(fast), eq(1), isNull())).thenReturn(Mono.empty());
+        when(inventoryClient.returnStock(eq(fast), eq(1), isNull())).thenReturn(Mono.empty());
+
+        var request = new PurchaseRequest(List.of(
+                new PurchaseRequest.OrderItemRequest(fast, 1),
+                new PurchaseRequest.OrderItemRequest(hanging, 1)));
+
+        long started = System.nanoTime();
+        assertThrows(DeadlineExceededException.class, () -> service.purchaseProduct(request, null).block());
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - started).toMillis() < 1000);
+        // Kompensationen körs frikopplad från anropet när deadlinen redan har passerat
+        verify(inventoryClient, timeout(2000)).returnStock(fast, 1, null);
+        verify(orderRepository, never()).save(any());
+    }
+
+    @Test
+    void reserveInFlightAtDeadline_isAwaited_andItsStockReturned() {
+        UUID slow = UUID.randomUUID();
+        when(productClient.fetch(eq(slow), isNull()))
+                .thenReturn(Mono.just(new ProductResponse(slow, "Slow", BigDecimal.ONE, 10)));
+        // Lagret svarar först efter köpets deadline (150 ms) men genomför reservationen
+        when(inventoryClient.reserve(eq(slow), eq(1), isNull()))
+                .thenReturn(Mono.delay(Duration.ofMillis(400)).then());
+        when(inventoryClient.returnStock(eq(slow), eq(1), isNull())).thenReturn(Mono.empty());
+
+        var request = new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(slow, 1)));
+
+        long started = System.nanoTime();
+        assertThrows(DeadlineExceededException.class, () -> service.purchaseProduct(request, null).block());
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - started).toMillis() < 400);
+        verify(inventoryClient, timeout(2000)).returnStock(slow, 1, null);
+        verify(orderRepository, never()).save(any());
+    }
+
+    @Test
+    void callerDeadline_takesPrecedenceOverDefault_andExpiredOneSendsNothing() {
+        var request = new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(UUID.randomUUID(), 1)));
+
+        assertThrows(DeadlineExceededException.class, () -> service.purchaseProduct(request, null)
+                .contextWrite(ctx -> ctx.put(Deadline.CONTEXT_KEY, Deadline.after(Duration.ZERO)))
+                .block());
+
+        verifyNoInteractions(productClient, inventoryClient, orderRepository);
+    }
+}
@@ -0,0 +1,164 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.moln.orderservice.archive.OrderArchive;
+import se.moln.orderservice.client.InventoryClient;
+import se.moln.orderservice.client.ProductClient;
+import se.moln.orderservice.client.UnavailableProducts;
+import se.moln.orderservice.dto.ProductResponse;
+import se.moln.orderservice.dto.PurchaseRequest;
+import se.moln.orderservice.events.OrderEventBus;
+import se.moln.orderservice.exception.DownstreamError;
+import se.moln.orderservice.exception.DownstreamException;
+import se.moln.orderservice.metrics.PurchaseMetrics;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.resilience.AdaptiveConcurrencyLimiter;
+import se.moln.orderservice.shard.ShardRouter;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Speculative lookup + reservation: what is returned when a lookup or a reservation fails. The latency of
+ * sequential vs speculative mode against a stub with a fixed round trip time is a benchmark, run with
+ * {@code -Pbenchmark}.
+ */
+class SpeculativeReservationTest {
+
+    private static final int RUNS = 5;
+
+    private ProductClient productClient;
+    private InventoryClient inventoryClient;
+    private OrderRepository orderRepository;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        productClient = mock(ProductClient.class);
+        inventoryClient = mock(InventoryClient.class);
+        orderRepository = mock(OrderRepository.class);
+        registry = new SimpleMeterRegistry();
+        when(orderRepository.save(any(Order.class))).thenAnswer(inv -> {
+            Order o = inv.getArgument(0);
+            o.setId(UUID.randomUUID());
+            return o;
+        });
+    }
+
+    private OrderService service(boolean speculative) {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(registry, false, 50, 5, 500,
+                Duration.ofSeconds(2), 0.9, Duration.ofSeconds(1));
+        return new OrderService(productClient, inventoryClient, new UnavailableProducts(registry, true, Duration.ofSeconds(10), 1000), orderRepository, mock(OrderArchive.class), mock(OrderHistoryReadModel.class), new ShardRouter(1), mock(JwtService.class),
+                new PurchaseMetrics(registry), new OrderEventBus(registry), limiter, Schedulers.immediate(), 4, 16, speculative, Duration.ofSeconds(10));
+    }
+
+    private void stubRtt(Duration rtt) {
+        when(productClient.fetch(any(), isNull())).thenAnswer(inv -> Mono.delay(rtt)
+                .thenReturn(new ProductResponse(inv.getArgument(0), "Item", new BigDecimal("10.00"), 100)));
+        when(inventoryClient.reserve(any(), anyInt(), isNull())).thenReturn(Mono.delay(rtt).then());
+    }
+
+    private static PurchaseRequest cart(int items) {
+        return new PurchaseRequest(IntStream.range(0, items)
+                .mapToObj(i -> new PurchaseRequest.OrderItemRequest(UUID.randomUUID(), 1))
+                .toList());
+    }
+
+    private long medianMillis(OrderService service) {
+        long[] samples = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long started = System.nanoTime();
+            assertNotNull(service.purchaseProduct(cart(3), null).block());
+            samples[i] = Duration.ofNanos(System.nanoTime() - started).toMillis();
+        }
+        Arrays.sort(samples);
+        return samples[RUNS / 2];
+    }
+
+    @Tag("benchmark")
+    @ParameterizedTest(name = "rtt={0}ms")
+    @ValueSource(ints = {10, 30, 60})
+    void speculativeMode_cartLatency(int rttMillis, TestReporter reporter) {
+        stubRtt(Duration.ofMillis(rttMillis));
+
+        long sequential = medianMillis(service(false));
+        long speculative = medianMillis(service(true));
+
+        reporter.publishEntry("rttMillis", String.valueOf(rttMillis));
+        reporter.publishEntry("sequentialMillis", String.valueOf(sequential));
+        reporter.publishEntry("speculativeMillis", String.valueOf(speculative));
+    }
+
+    @Test
+    void failedLookup_returnsSpeculativeReservation_andFailsThePurchase() {
+        UUID productId = UUID.randomUUID();
+        when(productClient.fetch(eq(productId), isNull())).thenReturn(Mono.error(
+                new DownstreamException(DownstreamError.PRODUCT_NOT_FOUND, 404, "", "cid")));
+        when(inventoryClient.reserve(eq(productId), eq(2), isNull())).thenReturn(Mono.empty());
+        when(inventoryClient.returnStock(eq(productId), eq(2), isNull())).thenReturn(Mono.empty());
+
+        var request = new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(productId, 2)));
+        var ex = assertThrows(DownstreamException.class, () -> service(true).purchaseProduct(request, null).block());
+
+        assertEquals(DownstreamError.PRODUCT_NOT_FOUND, ex.getError());
+        verify(inventoryClient).returnStock(productId, 2, null);
+        verify(orderRepository, never()).save(any());
+        assertEquals(1.0, registry.get("orders.purchase.speculative.compensations").counter().count());
+    }
+
+    @Test
+    void reservationInFlight_whenAnotherItemFails_isStillReturned() {
+        UUID slow = UUID.randomUUID();
+        UUID missing = UUID.randomUUID();
+        when(productClient.fetch(eq(slow), isNull())).thenReturn(Mono.delay(Duration.ofMillis(100))
+                .thenReturn(new ProductResponse(slow, "Slow", BigDecimal.ONE, 10)));
+        // Reservationen är skickad när den andra radens uppslag faller och flatMap avbryter raden
+        when(inventoryClient.reserve(eq(slow), eq(1), isNull())).thenReturn(Mono.delay(Duration.ofMillis(100)).then());
+        when(inventoryClient.returnStock(eq(slow), eq(1), isNull())).thenReturn(Mono.empty());
+        when(productClient.fetch(eq(missing), isNull())).thenReturn(Mono.error(
+                new DownstreamException(DownstreamError.PRODUCT_NOT_FOUND, 404, "", "cid")));
+        when(inventoryClient.reserve(eq(missing), eq(1), isNull())).thenReturn(Mono.empty());
+        when(inventoryClient.returnStock(eq(missing), eq(1), isNull())).thenReturn(Mono.empty());
+
+        var request = new PurchaseRequest(List.of(
+                new PurchaseRequest.OrderItemRequest(slow, 1),
+                new PurchaseRequest.OrderItemRequest(missing, 1)));
+        var ex = assertThrows(DownstreamException.class, () -> service(true).purchaseProduct(request, null).block());
+
+        assertEquals(DownstreamError.PRODUCT_NOT_FOUND, ex.getError());
+        verify(inventoryClient, timeout(2000)).returnStock(slow, 1, null);
+        verify(inventoryClient, times(1)).returnStock(missing, 1, null);
+        verify(orderRepository, never()).save(any());
+    }
+
+    @Test
+    void failedReservation_isNotCompensated() {
+        UUID productId = UUID.randomUUID();
+        when(productClient.fetch(eq(productId), isNull()))
+                .thenReturn(Mono.just(new ProductResponse(productId, "Item", BigDecimal.ONE, 0)));
+        when(inventoryClient.reserve(eq(productId), eq(1), isNull())).thenReturn(Mono.error(
+                new DownstreamException(DownstreamError.INSUFFICIENT_STOCK, 409, "Out of stock", "cid")));
+
+        var request = new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(productId, 1)));
+        assertThrows(DownstreamException.class, () -> service(true).purchaseProduct(request, null).block());
+
+        verify(inventoryClient, never()).returnStock(any(), anyInt(), any());
+    }
+}
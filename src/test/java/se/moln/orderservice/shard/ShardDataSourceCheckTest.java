@@ -0,0 +1,27 @@
+package se.moln.orderservice.shard;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class ShardDataSourceCheckTest {
+
+    @Test
+    void severalShards_onOneDatabase_failStartup() {
+        var ex = assertThrows(IllegalStateException.class,
+                () -> new ShardDataSourceCheck(new ShardRouter(4), mock(DataSource.class)));
+
+        assertTrue(ex.getMessage().contains("ORDER_SHARDS=4"));
+    }
+
+    @Test
+    void singleShard_orShardedDataSource_starts() {
+        assertDoesNotThrow(() -> new ShardDataSourceCheck(new ShardRouter(1), mock(DataSource.class)));
+        assertDoesNotThrow(() -> new ShardDataSourceCheck(new ShardRouter(2),
+                new ShardRoutingDataSource(List.of(mock(DataSource.class), mock(DataSource.class)))));
+    }
+}
@@ -0,0 +1,79 @@
+package se.moln.orderservice.shard;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardRouterTest {
+
+    private static final int USERS = 100_000;
+
+    private static List<UUID> users() {
+        return IntStream.range(0, USERS).mapToObj(i -> UUID.randomUUID()).toList();
+    }
+
+    @Test
+    void singleShard_routesEverythingToShardZero() {
+        ShardRouter router = new ShardRouter(1);
+        assertEquals(0, router.shardOf(UUID.randomUUID()));
+        assertEquals(0, router.shardOf(null));
+    }
+
+    @Test
+    void shardOf_isStable_andSpreadsUsersEvenly() {
+        ShardRouter router = new ShardRouter(4);
+        int[] perShard = new int[4];
+        for (UUID user : users()) {
+            int shard = router.shardOf(user);
+            assertEquals(shard, router.shardOf(user));
+            perShard[shard]++;
+        }
+        for (int count : perShard) {
+            assertEquals(USERS / 4.0, count, USERS * 0.02, "users per shard: " + Arrays.toString(perShard));
+        }
+    }
+
+    @Test
+    void addingAShard_movesAboutOneInNPlusOne_andOnlyToTheNewShard() {
+        ShardRouter four = new ShardRouter(4);
+        ShardRouter five = new ShardRouter(5);
+        int moved = 0;
+        for (UUID user : users()) {
+            int before = four.shardOf(user);
+            int after = five.shardOf(user);
+            if (before != after) {
+                assertEquals(4, after);
+                moved++;
+            }
+        }
+        assertEquals(USERS / 5.0, moved, USERS * 0.02);
+    }
+
+    @Test
+    void onShard_bindsForTheDurationOfTheWork_andRestoresTheOuterBinding() throws Exception {
+        ShardRouter router = new ShardRouter(3);
+        assertNull(ShardRouter.current());
+
+        Integer inner = router.onShard(2, () -> router.onShard(1, ShardRouter::current).call()
+                + 10 * ShardRouter.current()).call();
+
+        assertEquals(21, inner);
+        assertNull(ShardRouter.current());
+        assertThrows(IllegalArgumentException.class, () -> router.onShard(3, () -> 0));
+    }
+
+    @Test
+    void gather_runsOncePerShard_inShardOrder() {
+        ShardRouter router = new ShardRouter(3);
+
+        List<Integer> bound = router.gather(shard -> ShardRouter::current, Schedulers.boundedElastic()).block();
+
+        assertEquals(List.of(0, 1, 2), bound);
+    }
+}
@@ -0,0 +1,121 @@
+package se.moln.orderservice.shard;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Concurrent order inserts through {@link ShardRoutingDataSource} over 1 to N file-backed H2 databases migrated by
+ * Flyway. Checks that every order landed on its user's shard; orders per second for each shard count are measured
+ * only with {@code -Pbenchmark}.
+ */
+class ShardedWriteThroughputTest {
+
+    private static final int WRITERS = 8;
+    private static final int ORDERS_PER_WRITER = 500;
+
+    @TempDir
+    Path dir;
+
+    private static DataSource shard(Path dir, int shard) {
+        DataSource ds = new DriverManagerDataSource(
+                "jdbc:h2:file:" + dir.resolve("order-shard-" + shard).toAbsolutePath() + ";LOCK_TIMEOUT=10000;DB_CLOSE_DELAY=-1", "sa", "");
+        Flyway.configure().dataSource(ds).locations("classpath:db/migration").load().migrate();
+        return ds;
+    }
+
+    private static List<DataSource> shards(Path dir, int shardCount) {
+        List<DataSource> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(shard(dir, i));
+        }
+        return shards;
+    }
+
+    /**
+     * Inserts WRITERS x ORDERS_PER_WRITER orders for random users; returns how many each shard should hold.
+     */
+    private static int[] write(List<DataSource> shards) throws Exception {
+        int shardCount = shards.size();
+        ShardRouter router = new ShardRouter(shardCount);
+        JdbcTemplate jdbc = new JdbcTemplate(new ShardRoutingDataSource(shards));
+
+        ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                results.add(writers.submit(() -> {
+                    int[] written = new int[shardCount];
+                    for (int i = 0; i < ORDERS_PER_WRITER; i++) {
+                        UUID user = UUID.randomUUID();
+                        UUID order = UUID.randomUUID();
+                        router.forUser(user, () -> {
+                            jdbc.update("INSERT INTO orders (id, user_id, order_number, total_amount, order_date, status) VALUES (?, ?, ?, ?, ?, ?)",
+                                    order, user, "ORD-" + order, new BigDecimal("10.00"), OffsetDateTime.now(), "CREATED");
+                            return jdbc.update("INSERT INTO order_items (id, product_id, quantity, price_at_purchase, product_name, order_id) VALUES (?, ?, ?, ?, ?, ?)",
+                                    UUID.randomUUID(), UUID.randomUUID(), 1, new BigDecimal("10.00"), "Item", order);
+                        }).call();
+                        written[router.shardOf(user)]++;
+                    }
+                    return written;
+                }));
+            }
+            int[] expected = new int[shardCount];
+            for (Future<int[]> result : results) {
+                int[] written = result.get();
+                for (int s = 0; s < shardCount; s++) {
+                    expected[s] += written[s];
+                }
+            }
+            return expected;
+        } finally {
+            writers.shutdown();
+        }
+    }
+
+    @ParameterizedTest(name = "shards={0}")
+    @ValueSource(ints = {1, 2, 4})
+    void concurrentWrites_landOnTheUsersShard(int shardCount) throws Exception {
+        List<DataSource> shards = shards(dir, shardCount);
+
+        int[] expected = write(shards);
+
+        for (int s = 0; s < shardCount; s++) {
+            Integer onShard = new JdbcTemplate(shards.get(s)).queryForObject("SELECT COUNT(*) FROM orders", Integer.class);
+            assertEquals(expected[s], onShard, "orders on shard " + s);
+        }
+    }
+
+    @ParameterizedTest(name = "shards={0}")
+    @ValueSource(ints = {1, 2, 4})
+    @Tag("benchmark")
+    void ordersPerSecond(int shardCount, TestReporter reporter) throws Exception {
+        List<DataSource> shards = shards(dir, shardCount);
+        write(shards); // uppvärmning
+
+        long started = System.nanoTime();
+        write(shards);
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        reporter.publishEntry("shards", String.valueOf(shardCount));
+        reporter.publishEntry("ordersPerSecond", String.format("%.0f", WRITERS * ORDERS_PER_WRITER / seconds));
+    }
+}
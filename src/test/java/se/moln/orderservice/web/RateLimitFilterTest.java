@@ -0,0 +1,43 @@
+package se.moln.orderservice.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import se.moln.orderservice.service.JwtService;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class RateLimitFilterTest {
+
+    private final RateLimitFilter filter = new RateLimitFilter(mock(JwtService.class), new ObjectMapper(),
+            new SimpleMeterRegistry(), true, 0.001, 1, 0.001, 1, 1, 1000, Duration.ofMinutes(1));
+    private final WebFilterChain chain = exchange -> Mono.empty();
+
+    private MockServerWebExchange send(MockServerHttpRequest.BaseBuilder<?> request) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(request);
+        filter.filter(exchange, chain).block();
+        return exchange;
+    }
+
+    @Test
+    void purchases_areLimited_butPollingAnAsyncPurchaseIsNot() {
+        assertNull(send(MockServerHttpRequest.post("/api/orders/purchase/async")).getResponse().getStatusCode());
+
+        for (int i = 0; i < 5; i++) {
+            MockServerWebExchange poll = send(MockServerHttpRequest.get("/api/orders/purchase/async/" + UUID.randomUUID()));
+            assertNull(poll.getResponse().getStatusCode());
+            assertNull(poll.getResponse().getHeaders().getFirst("RateLimit-Limit"));
+        }
+
+        assertEquals(429, send(MockServerHttpRequest.post("/api/orders/purchase")).getResponse().getStatusCode().value());
+        assertEquals(429, send(MockServerHttpRequest.post("/api/orders/purchase/bulk")).getResponse().getStatusCode().value());
+    }
+}